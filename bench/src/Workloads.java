@@ -0,0 +1,373 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.infra.Blackhole;
+
+import bench.Workload;
+
+/**
+ * The per-line workloads of the benchmarks, see {@link Workload}.
+ *
+ * Each workload does the work of a hot path on one line or content, as it is
+ * done in the mappers, with reused objects where the mappers reuse them.
+ */
+public class Workloads {
+
+    private static Event[] parse(List<Text> lines) {
+        Event[] events = new Event[lines.size()];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new Event();
+            events[i].set(lines.get(i));
+        }
+        return events;
+    }
+
+    /**
+     * Parses a line into a reused Event, as the mappers do.
+     */
+    public static class EventSet implements Workload {
+        private final Event event = new Event();
+        private Text[] lines;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            this.lines = lines.toArray(new Text[0]);
+            return this.lines.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            blackhole.consume(event.set(lines[index]));
+        }
+    }
+
+    /**
+     * Parses a line into a reused Event with the counting and the sampled
+     * timing of an {@link Instrumentation}, as the mappers do, to compare with
+     * {@link EventSet}.
+     */
+    public static class InstrumentedEventSet implements Workload {
+        private final Event event = new Event();
+        private final Instrumentation instrumentation = new Instrumentation(new Configuration());
+        private Text[] lines;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            this.lines = lines.toArray(new Text[0]);
+            return this.lines.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            instrumentation.start();
+            if (instrumentation.set(event, lines[index])) {
+                instrumentation.emit();
+                blackhole.consume(event.getLevelLength());
+            }
+            instrumentation.end();
+        }
+    }
+
+    /**
+     * Constructs a new Event of a line and checks if it is parsed, which also
+     * builds its template matcher.
+     */
+    public static class EventConstruct implements Workload {
+        private String[] lines;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            this.lines = new String[lines.size()];
+            for (int i = 0; i < this.lines.length; i++) {
+                this.lines[i] = lines.get(i).toString();
+            }
+            return this.lines.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            blackhole.consume(new Event(lines[index]).isParsed());
+        }
+    }
+
+    /**
+     * Renders a parsed event as a CSV String.
+     */
+    public static class EventToString implements Workload {
+        private Event[] events;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            events = parse(lines);
+            return events.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            blackhole.consume(events[index].toString());
+        }
+    }
+
+    /**
+     * Renders a parsed event as CSV into a reused Text, as LogStructuring does.
+     */
+    public static class EventAppendCsv implements Workload {
+        private final Text csv = new Text();
+        private Event[] events;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            events = parse(lines);
+            return events.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            csv.clear();
+            events[index].appendCsv(csv);
+            blackhole.consume(csv);
+        }
+    }
+
+    /**
+     * Tokenizes and normalizes the words of a line, as the WordCount mapper
+     * does.
+     */
+    public static class WordCountTokenize implements Workload {
+        private final WordTokenizer tokenizer = new WordTokenizer();
+        private final Text word = new Text();
+        private Text[] lines;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            this.lines = lines.toArray(new Text[0]);
+            return this.lines.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            tokenizer.reset(lines[index]);
+            while (tokenizer.next(word)) {
+                blackhole.consume(word);
+            }
+        }
+    }
+
+    /**
+     * Extracts the time features of a parsed event, as the TimeStatistic mapper
+     * does after parsing the line.
+     */
+    public static class TimeStatisticExtract implements Workload {
+        private final TimeBucket timeHour = new TimeBucket();
+        private final TimeBucket timeDay = new TimeBucket();
+        private final TimeBucket timeWeekDay = new TimeBucket();
+        private final TimeBucket timeMonth = new TimeBucket();
+        private Event[] events;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            events = parse(lines);
+            return events.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            Event event = events[index];
+            blackhole.consume(TimeStatistic.extract(event.getBytes(), event.getTimeStart(), event.getTimeLength(),
+                    timeWeekDay, timeMonth, timeDay, timeHour));
+            blackhole.consume(timeHour);
+        }
+    }
+
+    /**
+     * Parses the time of an event to seconds since the epoch with
+     * {@link LogTime#parse(byte[], int, int)}.
+     */
+    public static class LogTimeParse implements Workload {
+        private Event[] events;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            events = parse(lines);
+            return events.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            Event event = events[index];
+            blackhole.consume(LogTime.parse(event.getBytes(), event.getTimeStart(), event.getTimeLength()));
+        }
+    }
+
+    /**
+     * Parses the time of an event to seconds since the epoch with a reused
+     * {@link LogTime.Parser}, as TimeRollup does, to compare with
+     * {@link LogTimeParse}. The events are parsed in the order of the log.
+     */
+    public static class LogTimeParserParse implements Workload {
+        private final LogTime.Parser parser = new LogTime.Parser();
+        private Event[] events;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            events = parse(lines);
+            return events.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            Event event = events[index];
+            blackhole.consume(parser.parse(event.getBytes(), event.getTimeStart(), event.getTimeLength()));
+        }
+    }
+
+    /**
+     * Sets a reused {@link ParameterKey} to each parameter of an event, as the
+     * mapper of ParameterStatistic does, with the values read by the event
+     * when its content was matched.
+     */
+    public static class ParameterKeySet implements Workload {
+        private final ParameterKey key = new ParameterKey();
+        private Event[] events;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            events = parse(lines);
+            return events.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            Event event = events[index];
+            if (event.isParsed()) {
+                for (int i = 0; i < event.gerEventId().getParameterCount(); i++) {
+                    key.set(event, i);
+                    blackhole.consume(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Extracts the parameters of an event by matching its content again with
+     * the regular expression of its type and parsing the groups, to compare
+     * with {@link ParameterKeySet}.
+     */
+    public static class ParameterRegexParse implements Workload {
+        private final Pattern[] patterns = new Pattern[Event.EventId.values().length];
+        private Event[] events;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            for (Event.EventId eventType : Event.EventId.values()) {
+                patterns[eventType.ordinal()] = Pattern.compile(eventType.getRegex().replace("\\S+", "(\\S+)"));
+            }
+            events = parse(lines);
+            return events.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            Event event = events[index];
+            if (event.isParsed()) {
+                Event.EventId eventId = event.gerEventId();
+                Matcher matcher = patterns[eventId.ordinal()].matcher(event.getContent());
+                if (matcher.find()) {
+                    for (int i = 0; i < eventId.getParameterCount(); i++) {
+                        String value = matcher.group(i + 1);
+                        blackhole.consume(eventId.getParameterType(i) == Event.ParameterType.INT
+                                ? Long.parseLong(value) : value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the event type of a content with a {@link TemplateMatcher}.
+     *
+     * The parameter is the event type of the contents, which are the contents
+     * of the log of that type. The contents of {@link Event.EventId#OTHER} are
+     * the worst case: the contents of the log with a word appended, which walk
+     * the trie down to a template and fail its verification only at the end.
+     */
+    public static class TemplateMatch implements Workload {
+        private final TemplateMatcher matcher = new TemplateMatcher();
+        private byte[][] contents;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            Event.EventId type = Event.EventId.valueOf(parameter);
+            List<byte[]> list = new ArrayList<byte[]>();
+            Event event = new Event();
+            for (Text line : lines) {
+                if (!event.set(line)) {
+                    continue;
+                }
+                String content = event.getContent();
+                if (type == Event.EventId.OTHER) {
+                    content += " extra";
+                } else if (event.gerEventId() != type) {
+                    continue;
+                }
+                byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+                if (matcher.match(bytes, 0, bytes.length) != type) {
+                    throw new IllegalStateException("Not a content of " + type + ": " + content);
+                }
+                list.add(bytes);
+            }
+            if (list.isEmpty()) {
+                throw new IllegalStateException("No content of " + type + " in the log");
+            }
+            contents = list.toArray(new byte[0][]);
+            return contents.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            byte[] content = contents[index];
+            blackhole.consume(matcher.match(content, 0, content.length));
+        }
+    }
+
+    /**
+     * Learns a content into a {@link TemplateMiner} which already has a number
+     * of templates, as the mapper of {@link TemplateMining} does.
+     *
+     * The parameter is the number of templates. The contents are the contents
+     * of the log, each prefixed by one of as many distinct words, made of
+     * letters only so they are not taken for variables, and are all learned in
+     * the setup, so each run updates an existing template.
+     */
+    public static class TemplateMine implements Workload {
+        private final TemplateMiner miner = new TemplateMiner(TemplateMiner.DEFAULT_DEPTH,
+                TemplateMiner.DEFAULT_SIMILARITY, TemplateMiner.DEFAULT_MAX_CHILDREN);
+        private String[] contents;
+
+        @Override
+        public int setup(List<Text> lines, String parameter) {
+            int templates = Integer.parseInt(parameter);
+            Event[] events = parse(lines);
+            contents = new String[Math.max(events.length, templates)];
+            for (int i = 0; i < contents.length; i++) {
+                StringBuilder word = new StringBuilder();
+                for (int shape = i % templates; word.length() == 0 || shape > 0; shape /= 26) {
+                    word.append((char) ('a' + shape % 26));
+                }
+                contents[i] = word + " " + events[i % events.length].getContent();
+                miner.add(contents[i]);
+            }
+            return contents.length;
+        }
+
+        @Override
+        public void run(int index, Blackhole blackhole) {
+            blackhole.consume(miner.add(contents[index]));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * The BenchmarkLog class loads the lines of the sample log the benchmarks run
+ * on, <code>Apache/Apache_2k.log</code> by default, or the file given by the
+ * <code>bench.log</code> system property.
+ *
+ * The lines are loaded once per benchmark trial, before the measurement, so
+ * the benchmarks measure the per-line cost only.
+ */
+public class BenchmarkLog {
+
+    /**
+     * The system property of the path of the log.
+     */
+    public static final String LOG_PROPERTY = "bench.log";
+
+    public static final String DEFAULT_LOG = "Apache/Apache_2k.log";
+
+    /**
+     * Reads the lines of the log.
+     *
+     * @return the lines, without their line terminators
+     * @throws IOException if the log cannot be read
+     */
+    public static List<Text> lines() throws IOException {
+        List<Text> lines = new ArrayList<Text>();
+        byte[] bytes = Files.readAllBytes(Paths.get(System.getProperty(LOG_PROPERTY, DEFAULT_LOG)));
+        int start = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i == bytes.length || bytes[i] == '\n') {
+                int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+                if (end > start || i < bytes.length) {
+                    Text line = new Text();
+                    line.set(bytes, start, end - start);
+                    lines.add(line);
+                }
+                start = i + 1;
+            }
+        }
+        if (lines.isEmpty()) {
+            throw new IOException("No line in " + System.getProperty(LOG_PROPERTY, DEFAULT_LOG));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the per-line hot paths: parsing a line into an Event,
+ * rendering an Event as CSV, and the work of the WordCount and TimeStatistic
+ * mappers on a line.
+ *
+ * Each operation is one line, taken in turn from the log, so the scores are
+ * lines per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LineBenchmark {
+
+    @Param({ "EventSet", "InstrumentedEventSet", "EventConstruct", "EventToString", "EventAppendCsv", "WordCountTokenize",
+            "TimeStatisticExtract", "LogTimeParse", "LogTimeParserParse", "ParameterKeySet",
+            "ParameterRegexParse" })
+    public String workload;
+
+    private Workload instance;
+    private int size;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        instance = Workload.load(workload);
+        size = instance.setup(BenchmarkLog.lines(), null);
+    }
+
+    @Benchmark
+    public void line(Blackhole blackhole) {
+        instance.run(next, blackhole);
+        next = next + 1 == size ? 0 : next + 1;
+    }
+}
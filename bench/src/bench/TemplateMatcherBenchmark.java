@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of finding the event type of the contents of the log, per event
+ * type, including the OTHER worst case of a content failing the verification
+ * of a template at its end.
+ *
+ * Each operation is one content, so the scores are contents per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateMatcherBenchmark {
+
+    @Param({ "E1", "E2", "E3", "E4", "E5", "E6", "OTHER" })
+    public String eventId;
+
+    private Workload instance;
+    private int size;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        instance = Workload.load("TemplateMatch");
+        size = instance.setup(BenchmarkLog.lines(), eventId);
+    }
+
+    @Benchmark
+    public void match(Blackhole blackhole) {
+        instance.run(next, blackhole);
+        next = next + 1 == size ? 0 : next + 1;
+    }
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of learning the contents of the log by the template miner, per
+ * number of templates already learned, which should not change the cost of a
+ * content much.
+ *
+ * Each operation is one content, so the scores are contents per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateMinerBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public String templates;
+
+    private Workload instance;
+    private int size;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        instance = Workload.load("TemplateMine");
+        size = instance.setup(BenchmarkLog.lines(), templates);
+    }
+
+    @Benchmark
+    public void add(Blackhole blackhole) {
+        instance.run(next, blackhole);
+        next = next + 1 == size ? 0 : next + 1;
+    }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A per-line workload measured by the benchmarks.
+ *
+ * The classes of the analysis are in the default package, which JMH does not
+ * accept benchmarks in and which cannot be imported by a named package. The
+ * workloads are thus implemented in the default package, in
+ * <code>Workloads</code>, against this interface, and loaded by name by the
+ * benchmarks. The call sites are monomorphic in a benchmark fork, so the calls
+ * are inlined by the JIT compiler as direct calls would be.
+ */
+public interface Workload {
+
+    /**
+     * Loads a workload of <code>Workloads</code>.
+     *
+     * @param name the simple name of the workload class, e.g. "EventSet"
+     * @return a new instance of the workload
+     * @throws ReflectiveOperationException if there is no such workload
+     */
+    static Workload load(String name) throws ReflectiveOperationException {
+        return (Workload) Class.forName("Workloads$" + name).getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Prepares the inputs of the workload.
+     *
+     * @param lines     the lines of the log
+     * @param parameter the parameter of the workload, e.g. an event type, or
+     *                  null
+     * @return the number of inputs, which are run in turn
+     */
+    int setup(List<Text> lines, String parameter);
+
+    /**
+     * Runs the workload on an input.
+     *
+     * @param index     the index of the input
+     * @param blackhole the sink of the results
+     */
+    void run(int index, Blackhole blackhole);
+}
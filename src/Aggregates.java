@@ -0,0 +1,374 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * The Aggregates class holds the partial results of the counting analyses of
+ * {@link WordCount}, {@link TimeStatistic} and {@link ErrorStatistic} in memory,
+ * for running the analyses without Hadoop, along with the counts of the parsed
+ * events by template as in the {@link Instrumentation#EVENT_IDS_GROUP} counters.
+ *
+ * Lines are added one by one with the same logic as the mappers, and partial
+ * aggregates of different parts of the logs can be merged, as can the results
+ * of a Hadoop job with {@link #merge(FileSystem, Path, Counters)}. An instance
+ * reuses its parsing objects, so it must not be shared between threads.
+ *
+ * The counts can be serialized with {@link #write(DataOutput)} and read back
+ * with {@link #readFields(DataInput)}, to be merged with the aggregates of a
+ * later run.
+ */
+public class Aggregates {
+    private static final TimeBucket.Dimension[] DIMENSIONS = TimeBucket.Dimension.values();
+    private static final Event.EventId[] EVENT_IDS = Event.EventId.values();
+
+    /**
+     * The name of the sub directory of the counts of the events by template.
+     */
+    public static final String EVENT_IDS_OUTPUT = "EventId";
+
+    private final EnumSet<FusedAnalysis.Analysis> analyses;
+    private final BytesIntHashMap words = new BytesIntHashMap(Long.MAX_VALUE);
+    private final BytesIntHashMap levels = new BytesIntHashMap(Long.MAX_VALUE);
+    private final int[][] times = new int[DIMENSIONS.length][];
+    private final long[] eventIds = new long[EVENT_IDS.length];
+
+    private Event event = new Event();
+    private WordTokenizer tokenizer = new WordTokenizer();
+    private Text word = new Text();
+    private TimeBucket timeHour = new TimeBucket();
+    private TimeBucket timeDay = new TimeBucket();
+    private TimeBucket timeWeekDay = new TimeBucket();
+    private TimeBucket timeMonth = new TimeBucket();
+
+    /**
+     * Constructs empty aggregates.
+     *
+     * @param analyses the analyses to aggregate
+     */
+    public Aggregates(EnumSet<FusedAnalysis.Analysis> analyses) {
+        this.analyses = analyses;
+        for (TimeBucket.Dimension dimension : DIMENSIONS) {
+            times[dimension.ordinal()] = new int[dimension.size()];
+        }
+    }
+
+    /**
+     * Adds a line of the logs to the aggregates.
+     *
+     * @param line the line to add
+     * @return the event parsed from the line, which is reused by the next call
+     */
+    public Event add(Text line) {
+        event.set(line);
+        if (analyses.contains(FusedAnalysis.Analysis.WordCount)) {
+            tokenizer.reset(line);
+            while (tokenizer.next(word)) {
+                words.increment(word.getBytes(), 0, word.getLength(), 1);
+            }
+        }
+        if (event.isParsed()) {
+            eventIds[event.gerEventId().ordinal()]++;
+            if (analyses.contains(FusedAnalysis.Analysis.TimeStatistic) && TimeStatistic.extract(event.getBytes(),
+                    event.getTimeStart(), event.getTimeLength(), timeWeekDay, timeMonth, timeDay, timeHour)) {
+                add(timeWeekDay, 1);
+                add(timeMonth, 1);
+                add(timeDay, 1);
+                add(timeHour, 1);
+            }
+            if (analyses.contains(FusedAnalysis.Analysis.ErrorStatistic)) {
+                levels.increment(event.getBytes(), event.getLevelStart(), event.getLevelLength(), 1);
+            }
+        }
+        return event;
+    }
+
+    private void add(TimeBucket bucket, int count) {
+        times[bucket.getDimension().ordinal()][bucket.getValue()] += count;
+    }
+
+    /**
+     * Merges other aggregates into these aggregates.
+     *
+     * @param other the aggregates to merge
+     */
+    public void merge(Aggregates other) {
+        merge(words, other.words);
+        merge(levels, other.levels);
+        for (int i = 0; i < times.length; i++) {
+            for (int j = 0; j < times[i].length; j++) {
+                times[i][j] += other.times[i][j];
+            }
+        }
+        for (int i = 0; i < eventIds.length; i++) {
+            eventIds[i] += other.eventIds[i];
+        }
+    }
+
+    /**
+     * Merges the results of a Hadoop job into these aggregates: the counts of
+     * the analyses in the sub directories of its output directory named after
+     * them, and the counts of the events by template in its counters.
+     *
+     * @param fs       the file system of the output directory
+     * @param output   the output directory of the job
+     * @param counters the counters of the job
+     * @throws IOException if the results cannot be read
+     */
+    public void merge(FileSystem fs, Path output, Counters counters) throws IOException {
+        for (FusedAnalysis.Analysis analysis : analyses) {
+            Path dir = new Path(output, analysis.name());
+            if (analysis == FusedAnalysis.Analysis.LogStructuring || !fs.exists(dir)) {
+                continue;
+            }
+            for (FileStatus status : fs.listStatus(dir)) {
+                if (status.getPath().getName().startsWith("part-")) {
+                    merge(fs, status.getPath(), analysis);
+                }
+            }
+        }
+        for (Event.EventId eventId : EVENT_IDS) {
+            eventIds[eventId.ordinal()] += counters.findCounter(Instrumentation.EVENT_IDS_GROUP, eventId.name())
+                    .getValue();
+        }
+    }
+
+    /**
+     * Merges the lines of a result file, each a key, a tab and a count.
+     */
+    private void merge(FileSystem fs, Path file, FusedAnalysis.Analysis analysis) throws IOException {
+        try (LineReader reader = new LineReader(fs.open(file))) {
+            Text line = new Text();
+            while (reader.readLine(line) > 0) {
+                byte[] bytes = line.getBytes();
+                int tab = line.getLength() - 1;
+                while (tab >= 0 && bytes[tab] != '\t') {
+                    tab--;
+                }
+                if (tab < 0) {
+                    throw new IOException("Invalid line in " + file + ": " + line);
+                }
+                int count = Integer.parseInt(new String(bytes, tab + 1, line.getLength() - tab - 1,
+                        StandardCharsets.UTF_8));
+                if (analysis == FusedAnalysis.Analysis.WordCount) {
+                    words.increment(bytes, 0, tab, count);
+                } else if (analysis == FusedAnalysis.Analysis.ErrorStatistic) {
+                    levels.increment(bytes, 0, tab, count);
+                } else if (!addTime(bytes, tab, count)) {
+                    throw new IOException("Invalid time feature in " + file + ": " + line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the count of a time feature rendered by {@link TimeBucket#toString()},
+     * e.g. "Hour: 04".
+     */
+    private boolean addTime(byte[] bytes, int length, int count) {
+        String label = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        int colon = label.indexOf(": ");
+        for (TimeBucket.Dimension dimension : DIMENSIONS) {
+            if (colon >= 0 && dimension.getLabel().equals(label.substring(0, colon))) {
+                int value = dimension.parse(bytes, colon + 2, length - colon - 2);
+                if (value >= 0) {
+                    times[dimension.ordinal()][value] += count;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void merge(BytesIntHashMap counts, BytesIntHashMap other) {
+        byte[] keys = other.keyBytes();
+        for (int entry = 0; entry < other.size(); entry++) {
+            counts.increment(keys, other.keyOffset(entry), other.keyLength(entry), other.count(entry));
+        }
+    }
+
+    /**
+     * Serializes the counts of the aggregates.
+     *
+     * @param out the output to write to
+     * @throws IOException if the counts cannot be written
+     */
+    public void write(DataOutput out) throws IOException {
+        write(words, out);
+        write(levels, out);
+        for (int[] counts : times) {
+            for (int count : counts) {
+                WritableUtils.writeVInt(out, count);
+            }
+        }
+        for (long count : eventIds) {
+            WritableUtils.writeVLong(out, count);
+        }
+    }
+
+    private static void write(BytesIntHashMap counts, DataOutput out) throws IOException {
+        byte[] keys = counts.keyBytes();
+        WritableUtils.writeVInt(out, counts.size());
+        for (int entry = 0; entry < counts.size(); entry++) {
+            WritableUtils.writeVInt(out, counts.keyLength(entry));
+            out.write(keys, counts.keyOffset(entry), counts.keyLength(entry));
+            WritableUtils.writeVInt(out, counts.count(entry));
+        }
+    }
+
+    /**
+     * Replaces the counts of the aggregates with serialized counts.
+     *
+     * @param in the input to read from
+     * @throws IOException if the counts cannot be read
+     */
+    public void readFields(DataInput in) throws IOException {
+        readFields(words, in);
+        readFields(levels, in);
+        for (int[] counts : times) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = WritableUtils.readVInt(in);
+            }
+        }
+        for (int i = 0; i < eventIds.length; i++) {
+            eventIds[i] = WritableUtils.readVLong(in);
+        }
+    }
+
+    private static void readFields(BytesIntHashMap counts, DataInput in) throws IOException {
+        counts.clear();
+        byte[] key = new byte[64];
+        for (int size = WritableUtils.readVInt(in); size > 0; size--) {
+            int length = WritableUtils.readVInt(in);
+            if (length > key.length) {
+                key = new byte[Math.max(length, key.length * 2)];
+            }
+            in.readFully(key, 0, length);
+            counts.increment(key, 0, length, WritableUtils.readVInt(in));
+        }
+    }
+
+    /**
+     * Writes the results of the counting analyses, in the same format as the
+     * Hadoop jobs, to <code>part-r-00000</code> files in the sub directories of
+     * an output directory named after the analyses.
+     *
+     * @param output the output directory
+     * @throws IOException if the results cannot be written
+     */
+    public void write(File output) throws IOException {
+        for (FusedAnalysis.Analysis analysis : analyses) {
+            if (analysis != FusedAnalysis.Analysis.LogStructuring) {
+                try (OutputStream out = create(output, analysis)) {
+                    write(analysis, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the results of a counting analysis in the same format as its
+     * Hadoop job.
+     *
+     * @param analysis the analysis, other than LogStructuring
+     * @param out      the output stream to write to
+     * @throws IOException if the results cannot be written
+     */
+    public void write(FusedAnalysis.Analysis analysis, OutputStream out) throws IOException {
+        switch (analysis) {
+        case WordCount:
+            write(words, out);
+            break;
+        case TimeStatistic:
+            TimeBucket bucket = new TimeBucket();
+            for (TimeBucket.Dimension dimension : DIMENSIONS) {
+                for (int value = 0; value < dimension.size(); value++) {
+                    int count = times[dimension.ordinal()][value];
+                    if (count > 0) {
+                        bucket.set(dimension, value);
+                        out.write((bucket + "\t" + count + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            break;
+        case ErrorStatistic:
+            write(levels, out);
+            break;
+        default:
+            throw new IllegalArgumentException("Not a counting analysis: " + analysis);
+        }
+    }
+
+    /**
+     * Writes the counts of the parsed events by template, a line per template
+     * with its id, a tab and its count, e.g. "E1\t42".
+     *
+     * @param out the output stream to write to
+     * @throws IOException if the counts cannot be written
+     */
+    public void writeEventIds(OutputStream out) throws IOException {
+        for (Event.EventId eventId : EVENT_IDS) {
+            if (eventIds[eventId.ordinal()] > 0) {
+                out.write((eventId.name() + "\t" + eventIds[eventId.ordinal()] + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Writes counts sorted by the bytes of the keys, as the keys of Text type are
+     * sorted in Hadoop.
+     */
+    private static void write(final BytesIntHashMap counts, OutputStream out) throws IOException {
+        final byte[] keys = counts.keyBytes();
+        Integer[] entries = new Integer[counts.size()];
+        for (int entry = 0; entry < entries.length; entry++) {
+            entries[entry] = entry;
+        }
+        Arrays.sort(entries, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return WritableComparator.compareBytes(keys, counts.keyOffset(a), counts.keyLength(a), keys,
+                        counts.keyOffset(b), counts.keyLength(b));
+            }
+        });
+        for (int entry : entries) {
+            out.write(keys, counts.keyOffset(entry), counts.keyLength(entry));
+            out.write(("\t" + counts.count(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Creates the <code>part-r-00000</code> file of an analysis, along with an
+     * empty <code>_SUCCESS</code> file as Hadoop does.
+     *
+     * @param output   the output directory
+     * @param analysis the analysis
+     * @return the output stream of the file
+     * @throws IOException if the file cannot be created
+     */
+    static OutputStream create(File output, FusedAnalysis.Analysis analysis) throws IOException {
+        File dir = new File(output, analysis.name());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        new FileOutputStream(new File(dir, "_SUCCESS")).close();
+        return new BufferedOutputStream(new FileOutputStream(new File(dir, "part-r-00000")), 1 << 16);
+    }
+}
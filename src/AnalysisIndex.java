@@ -0,0 +1,456 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * The AnalysisIndex class holds the results of an analysis run in memory, to
+ * answer queries without reading the output files.
+ *
+ * The results are read from the subdirectories of the output path named after
+ * their analyses: the levels of {@link ErrorStatistic}, the time features of
+ * {@link TimeStatistic} and the words of {@link WordCount} as written by
+ * {@link ApacheLogAnalysis}, or those of {@link TopWords} with
+ * {@link TopWords#K_KEY}, whose errors are ignored, and, if they were written
+ * there, the time series of {@link TimeRollup} in "TimeRollup" and the
+ * templates of {@link TemplateMining} in "TemplateMining". A missing analysis
+ * is empty.
+ *
+ * The results are kept in sorted arrays with their counts in arrays of longs:
+ * <ul>
+ * <li>the levels and the words are sorted, and found by a binary search, the
+ * words of a prefix being a range of the sorted words;</li>
+ * <li>the words and the templates are also ordered by descending count, for
+ * the top words and templates;</li>
+ * <li>the time features are counted in an array by dimension and value;</li>
+ * <li>each time series has the sorted starts of its buckets and the running
+ * sums of their counts, so the count of a time range is the difference of the
+ * sums at the bounds of the range, found by binary searches.</li>
+ * </ul>
+ * An index is immutable once loaded, so it can be queried by several threads
+ * while a newer index is loaded.
+ */
+public class AnalysisIndex {
+    private static final TimeBucket.Dimension[] DIMENSIONS = TimeBucket.Dimension.values();
+
+    private final String[] levels;
+    private final long[] levelCounts;
+    private final long[][] times = new long[DIMENSIONS.length][];
+    private final String[] words;
+    private final long[] wordCounts;
+    private final int[] wordsByCount;
+    private final Map<String, Series> series = new HashMap<String, Series>();
+    private final String[] templateIds;
+    private final long[] templateCounts;
+    private final String[] templates;
+    private final Map<String, Integer> templatesById = new HashMap<String, Integer>();
+
+    /**
+     * A time series of {@link TimeRollup}: the starts of its buckets and the
+     * running sums of their counts.
+     */
+    private static class Series {
+        final long[] buckets;
+        final long[] sums; // sums[i] is the count of the buckets before i
+
+        Series(long[] buckets, long[] counts) {
+            this.buckets = buckets;
+            this.sums = new long[counts.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                sums[i + 1] = sums[i] + counts[i];
+            }
+        }
+    }
+
+    /**
+     * A word or a template and its count, as returned by the top queries.
+     */
+    public static class Entry {
+        private final String key;
+        private final long count;
+
+        Entry(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    private AnalysisIndex(Map<String, Long> levels, long[][] times, Map<String, Long> words,
+            Map<String, List<long[]>> series, List<String[]> templates) {
+        this.levels = levels.keySet().toArray(new String[0]);
+        Arrays.sort(this.levels);
+        this.levelCounts = new long[this.levels.length];
+        for (int i = 0; i < this.levels.length; i++) {
+            levelCounts[i] = levels.get(this.levels[i]);
+        }
+
+        for (int i = 0; i < DIMENSIONS.length; i++) {
+            this.times[i] = times[i];
+        }
+
+        this.words = words.keySet().toArray(new String[0]);
+        Arrays.sort(this.words);
+        this.wordCounts = new long[this.words.length];
+        for (int i = 0; i < this.words.length; i++) {
+            wordCounts[i] = words.get(this.words[i]);
+        }
+        this.wordsByCount = byCount(wordCounts);
+
+        for (Map.Entry<String, List<long[]>> entry : series.entrySet()) {
+            List<long[]> buckets = entry.getValue();
+            Collections.sort(buckets, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] a, long[] b) {
+                    return Long.compare(a[0], b[0]);
+                }
+            });
+            long[] starts = new long[buckets.size()];
+            long[] counts = new long[buckets.size()];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = buckets.get(i)[0];
+                counts[i] = buckets.get(i)[1];
+            }
+            this.series.put(entry.getKey(), new Series(starts, counts));
+        }
+
+        Collections.sort(templates, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] a, String[] b) {
+                return Long.compare(Long.parseLong(b[1]), Long.parseLong(a[1]));
+            }
+        });
+        this.templateIds = new String[templates.size()];
+        this.templateCounts = new long[templates.size()];
+        this.templates = new String[templates.size()];
+        for (int i = 0; i < templateIds.length; i++) {
+            String[] template = templates.get(i);
+            templateIds[i] = template[0];
+            templateCounts[i] = Long.parseLong(template[1]);
+            this.templates[i] = template[2];
+            templatesById.put(template[0], i);
+        }
+    }
+
+    /**
+     * Returns the indexes of counts by descending count, and by ascending index
+     * for the same count.
+     */
+    private static int[] byCount(final long[] counts) {
+        Integer[] order = new Integer[counts.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Long.compare(counts[b], counts[a]);
+                return c != 0 ? c : Integer.compare(a, b);
+            }
+        });
+        int[] result = new int[order.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    /**
+     * Loads the results of an analysis run.
+     *
+     * @param fs     the file system of the output path
+     * @param output the output path of the run
+     * @return the index of the results
+     * @throws IOException if the results cannot be read
+     */
+    public static AnalysisIndex load(FileSystem fs, Path output) throws IOException {
+        Map<String, Long> levels = new HashMap<String, Long>();
+        for (String[] fields : read(fs, new Path(output, FusedAnalysis.Analysis.ErrorStatistic.name()), 2)) {
+            levels.put(fields[0], Long.parseLong(fields[1]));
+        }
+
+        long[][] times = new long[DIMENSIONS.length][];
+        for (TimeBucket.Dimension dimension : DIMENSIONS) {
+            times[dimension.ordinal()] = new long[dimension.size()];
+        }
+        for (String[] fields : read(fs, new Path(output, FusedAnalysis.Analysis.TimeStatistic.name()), 2)) {
+            int colon = fields[0].indexOf(": ");
+            TimeBucket.Dimension dimension = colon < 0 ? null : dimension(fields[0].substring(0, colon));
+            if (dimension != null) {
+                byte[] value = fields[0].substring(colon + 2).getBytes(StandardCharsets.UTF_8);
+                int v = dimension.parse(value, 0, value.length);
+                if (v >= 0) {
+                    times[dimension.ordinal()][v] = Long.parseLong(fields[1]);
+                }
+            }
+        }
+
+        Map<String, Long> words = new HashMap<String, Long>();
+        for (String[] fields : read(fs, new Path(output, FusedAnalysis.Analysis.WordCount.name()), 2)) {
+            // The count of TopWords is followed by its error
+            int tab = fields[1].indexOf('\t');
+            words.put(fields[0], Long.parseLong(tab < 0 ? fields[1] : fields[1].substring(0, tab)));
+        }
+
+        Map<String, List<long[]>> series = new HashMap<String, List<long[]>>();
+        for (String[] fields : read(fs, new Path(output, "TimeRollup"), 5)) {
+            String key = seriesKey(fields[0], fields[2], fields[3]);
+            List<long[]> buckets = series.get(key);
+            if (buckets == null) {
+                buckets = new ArrayList<long[]>();
+                series.put(key, buckets);
+            }
+            buckets.add(new long[] { Long.parseLong(fields[1]), Long.parseLong(fields[4]) });
+        }
+
+        List<String[]> templates = read(fs, new Path(output, "TemplateMining"), 3);
+        return new AnalysisIndex(levels, times, words, series, templates);
+    }
+
+    private static TimeBucket.Dimension dimension(String label) {
+        for (TimeBucket.Dimension dimension : DIMENSIONS) {
+            if (dimension.getLabel().equalsIgnoreCase(label)) {
+                return dimension;
+            }
+        }
+        return null;
+    }
+
+    private static String seriesKey(String resolution, String dimension, String value) {
+        return resolution + "\t" + dimension + "\t" + value;
+    }
+
+    /**
+     * Reads the tab-separated lines of the part files of an output directory,
+     * skipping the lines with fewer fields.
+     */
+    private static List<String[]> read(FileSystem fs, Path dir, int fields) throws IOException {
+        List<String[]> lines = new ArrayList<String[]>();
+        if (!fs.exists(dir)) {
+            return lines;
+        }
+        for (FileStatus status : fs.listStatus(dir)) {
+            if (!status.getPath().getName().startsWith("part-")) {
+                continue;
+            }
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(fs.open(status.getPath()), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] split = line.split("\t", fields);
+                    if (split.length == fields) {
+                        lines.add(split);
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the levels, sorted.
+     *
+     * @return the levels
+     */
+    public List<String> getLevels() {
+        return Collections.unmodifiableList(Arrays.asList(levels));
+    }
+
+    /**
+     * Returns the count of the events of a level.
+     *
+     * @param level the level, e.g. "error"
+     * @return the count, 0 for an unknown level
+     */
+    public long level(String level) {
+        int i = Arrays.binarySearch(levels, level);
+        return i >= 0 ? levelCounts[i] : 0;
+    }
+
+    /**
+     * Returns the count of the events of a time feature.
+     *
+     * @param dimension the dimension of the feature
+     * @param value     the value of the feature, e.g. 4 for the hour 04
+     * @return the count, 0 for a value out of the range of the dimension
+     */
+    public long time(TimeBucket.Dimension dimension, int value) {
+        long[] counts = times[dimension.ordinal()];
+        return value >= 0 && value < counts.length ? counts[value] : 0;
+    }
+
+    /**
+     * Returns the count of a word.
+     *
+     * @param word the word
+     * @return the count, 0 for an unknown word
+     */
+    public long word(String word) {
+        int i = Arrays.binarySearch(words, word);
+        return i >= 0 ? wordCounts[i] : 0;
+    }
+
+    /**
+     * Returns the number of distinct words.
+     *
+     * @return the number of words
+     */
+    public int getWordCount() {
+        return words.length;
+    }
+
+    /**
+     * Returns the most frequent words starting with a prefix.
+     *
+     * @param prefix the prefix of the words, or "" for all the words
+     * @param n      the maximum number of words
+     * @return the words by descending count
+     */
+    public List<Entry> topWords(String prefix, int n) {
+        List<Entry> top = new ArrayList<Entry>();
+        if (prefix.isEmpty()) {
+            for (int i = 0; i < Math.min(n, wordsByCount.length); i++) {
+                top.add(new Entry(words[wordsByCount[i]], wordCounts[wordsByCount[i]]));
+            }
+            return top;
+        }
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + Character.MAX_VALUE);
+        // The n most frequent words of the range in a heap of the least frequent first
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.max(1, n), new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Long.compare(wordCounts[a], wordCounts[b]);
+                return c != 0 ? c : Integer.compare(b, a);
+            }
+        });
+        for (int i = from; i < to && n > 0; i++) {
+            if (heap.size() < n) {
+                heap.add(i);
+            } else if (heap.comparator().compare(i, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(i);
+            }
+        }
+        while (!heap.isEmpty()) {
+            int i = heap.poll();
+            top.add(new Entry(words[i], wordCounts[i]));
+        }
+        Collections.reverse(top);
+        return top;
+    }
+
+    /**
+     * Returns the index of the first word not before a string.
+     */
+    private int lowerBound(String s) {
+        int i = Arrays.binarySearch(words, s);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Returns the count of the events of a time series in a time range.
+     *
+     * @param resolution the resolution of the series
+     * @param dimension  the dimension of the series
+     * @param value      the value of the dimension, e.g. "error" or "E3"
+     * @param from       the start of the range in seconds since the epoch,
+     *                   inclusive
+     * @param to         the end of the range in seconds since the epoch,
+     *                   exclusive
+     * @return the count of the events in the buckets starting in the range
+     */
+    public long range(RollupKey.Resolution resolution, RollupKey.Dimension dimension, String value, long from,
+            long to) {
+        Series s = series.get(seriesKey(resolution.getLabel(), dimension.getLabel(), value));
+        if (s == null || to <= from) {
+            return 0;
+        }
+        return s.sums[lowerBound(s.buckets, to)] - s.sums[lowerBound(s.buckets, from)];
+    }
+
+    /**
+     * Returns the buckets of a time series in a time range.
+     *
+     * @param resolution the resolution of the series
+     * @param dimension  the dimension of the series
+     * @param value      the value of the dimension
+     * @param from       the start of the range in seconds since the epoch,
+     *                   inclusive
+     * @param to         the end of the range in seconds since the epoch,
+     *                   exclusive
+     * @return the start and the count of each bucket starting in the range
+     */
+    public List<long[]> buckets(RollupKey.Resolution resolution, RollupKey.Dimension dimension, String value,
+            long from, long to) {
+        List<long[]> result = new ArrayList<long[]>();
+        Series s = series.get(seriesKey(resolution.getLabel(), dimension.getLabel(), value));
+        if (s == null) {
+            return result;
+        }
+        for (int i = lowerBound(s.buckets, from); i < s.buckets.length && s.buckets[i] < to; i++) {
+            result.add(new long[] { s.buckets[i], s.sums[i + 1] - s.sums[i] });
+        }
+        return result;
+    }
+
+    private static int lowerBound(long[] values, long value) {
+        int i = Arrays.binarySearch(values, value);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Returns the count of a template.
+     *
+     * @param id the id of the template, e.g. "T3"
+     * @return the count, 0 for an unknown template
+     */
+    public long template(String id) {
+        Integer i = templatesById.get(id);
+        return i != null ? templateCounts[i] : 0;
+    }
+
+    /**
+     * Returns a template.
+     *
+     * @param id the id of the template, e.g. "T3"
+     * @return the template, or null for an unknown template
+     */
+    public String templateOf(String id) {
+        Integer i = templatesById.get(id);
+        return i != null ? templates[i] : null;
+    }
+
+    /**
+     * Returns the most frequent templates.
+     *
+     * @param n the maximum number of templates
+     * @return the ids of the templates by descending count
+     */
+    public List<Entry> topTemplates(int n) {
+        List<Entry> top = new ArrayList<Entry>();
+        for (int i = 0; i < Math.min(n, templateIds.length); i++) {
+            top.add(new Entry(templateIds[i], templateCounts[i]));
+        }
+        return top;
+    }
+}
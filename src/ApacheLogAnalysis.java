@@ -1,6 +1,10 @@
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -10,18 +14,40 @@ import org.apache.hadoop.util.GenericOptionsParser;
 
 /**
  * A Hadoop MapReduce to analyze Apache logs.
+ *
+ * After the jobs, a JSON report of the run is written to {@link #REPORT} in the
+ * output path, with the throughput of the jobs and the counters of their
+ * {@link Instrumentation}.
  */
 public class ApacheLogAnalysis {
+
+    /**
+     * The name of the JSON run report of {@link Instrumentation} in the output
+     * path, hidden from the readers of the outputs.
+     */
+    public static final String REPORT = "_report.json";
+
     public static void main(String[] args) throws Exception {
         // Parse paths
         Configuration conf = new Configuration();
         String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
         if (otherArgs.length != 2) {
-            System.err.println("Usage: ApacheLogAnalysis <in> <out>");
+            System.err.println("Usage: ApacheLogAnalysis [-D " + FusedAnalysis.FUSED_KEY + "=true] [-D "
+                    + IncrementalAnalysis.INCREMENTAL_KEY + "=true] [-D " + TopWords.K_KEY + "=<k>] [-D "
+                    + FusedAnalysis.SELECTED_KEY + "=<analysis,...>] [-D " + Instrumentation.SAMPLE_KEY
+                    + "=<lines>] [-D " + WordCount.SORTED_KEY + "=true] [-D " + LogInputFormat.COMBINE_KEY
+                    + "=true] [-D " + CombineLogInputFormat.SIZE_KEY + "=<bytes>] <in> <out>");
             System.exit(2);
         }
         Path input = new Path(otherArgs[0]);
         Path output = new Path(otherArgs[1]);
+
+        // Process only the data appended since the previous run, keeping the output
+        if (conf.getBoolean(IncrementalAnalysis.INCREMENTAL_KEY, false)) {
+            long processed = IncrementalAnalysis.run(conf, input, output);
+            System.out.println("Processed " + processed + " bytes");
+            System.exit(0);
+        }
         
         // Delete output path if exists
         FileSystem fs = FileSystem.get(conf);
@@ -32,16 +58,122 @@ public class ApacheLogAnalysis {
             fs.delete(output, true);
         }
 
-        // Run jobs
-        Job job1 = WordCount.getJob(conf, input, Path.mergePaths(output, new Path("/WordCount")));
-        Job job2 = TimeStatistic.getJob(conf, input, Path.mergePaths(output, new Path("/TimeStatistic")));
-        Job job3 = ErrorStatistic.getJob(conf, input, Path.mergePaths(output, new Path("/ErrorStatistic")));
-        Job job4 = LogStructuring.getJob(conf, input, Path.mergePaths(output, new Path("/LogStructuring")));
-        job1.submit();
-        job2.submit();
-        job3.submit();
-        job4.submit();
-        System.exit(job1.waitForCompletion(true) && job2.waitForCompletion(true) && job3.waitForCompletion(true)
-                && job4.waitForCompletion(true) ? 0 : 1);
+        List<Job> jobs = getJobs(conf, input, output);
+        long start = System.nanoTime();
+        boolean success = run(jobs, true);
+        Path report = new Path(output, REPORT);
+        Instrumentation.writeReport(conf, jobs, (System.nanoTime() - start) / 1e9, report);
+        System.out.println("Run report written to " + report);
+        System.exit(success ? 0 : 1);
+    }
+
+    /**
+     * Configures the jobs of the selected analyses, each writing to a
+     * subdirectory of the output path named after its analysis, or a single
+     * fused job if {@link FusedAnalysis#FUSED_KEY} is set.
+     *
+     * @param conf   the Hadoop configuration to use for the jobs
+     * @param input  the input path for the jobs
+     * @param output the output path for the jobs
+     * @return the configured jobs, not submitted
+     */
+    public static List<Job> getJobs(Configuration conf, Path input, Path output) throws IOException {
+        List<Job> jobs = new ArrayList<Job>();
+        // Run all selected analyses in a single job
+        if (conf.getBoolean(FusedAnalysis.FUSED_KEY, false)) {
+            jobs.add(FusedAnalysis.getJob(conf, input, output));
+            return jobs;
+        }
+
+        // Or a job per selected analysis
+        for (FusedAnalysis.Analysis analysis : FusedAnalysis.selected(conf)) {
+            Path path = Path.mergePaths(output, new Path("/" + analysis.name()));
+            switch (analysis) {
+            case WordCount:
+                // The approximate top words, if their number is set
+                jobs.add(conf.get(TopWords.K_KEY) != null ? TopWords.getJob(conf, input, path)
+                        : WordCount.getJob(conf, input, path));
+                break;
+            case TimeStatistic:
+                jobs.add(TimeStatistic.getJob(conf, input, path));
+                break;
+            case ErrorStatistic:
+                jobs.add(ErrorStatistic.getJob(conf, input, path));
+                break;
+            case LogStructuring:
+                jobs.add(LogStructuring.getJob(conf, input, path));
+                break;
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Submits jobs to run in parallel and waits for all of them. A
+     * {@link ChainedJob} is submitted once its prerequisite is complete, the
+     * prerequisite being submitted with the other jobs if it is not one of
+     * them, and is not run if its prerequisite failed. The jobs are polled
+     * until they are complete, and timed from their submission to their
+     * completion for the report of {@link Instrumentation}.
+     *
+     * @param jobs    the jobs to run
+     * @param verbose whether to print the progress and the counters of the
+     *                jobs
+     * @return true if all the jobs succeeded, false otherwise
+     */
+    public static boolean run(List<Job> jobs, boolean verbose) throws IOException, InterruptedException, ClassNotFoundException {
+        List<ChainedJob> chained = new ArrayList<ChainedJob>();
+        List<Job> running = new ArrayList<Job>();
+        for (Job job : jobs) {
+            if (job instanceof ChainedJob) {
+                chained.add((ChainedJob) job);
+            } else {
+                submit(job, running);
+            }
+        }
+        for (ChainedJob job : chained) {
+            Job prerequisite = job.getPrerequisite();
+            if (prerequisite != null && !ChainedJob.isSubmitted(prerequisite)) {
+                submit(prerequisite, running);
+            }
+        }
+        boolean success = true;
+        while (!chained.isEmpty() || !running.isEmpty()) {
+            for (Iterator<Job> i = running.iterator(); i.hasNext();) {
+                Job job = i.next();
+                if (job.isComplete()) {
+                    Instrumentation.finished(job);
+                    i.remove();
+                }
+            }
+            for (Iterator<ChainedJob> i = chained.iterator(); i.hasNext();) {
+                ChainedJob job = i.next();
+                if (job.isReady()) {
+                    i.remove();
+                    try {
+                        submit(job, running);
+                    } catch (IOException e) {
+                        System.err.println(e.getMessage());
+                        success = false;
+                    }
+                }
+            }
+            if (!chained.isEmpty() || !running.isEmpty()) {
+                Thread.sleep(100);
+            }
+        }
+        for (Job job : jobs) {
+            if (ChainedJob.isSubmitted(job)) {
+                success = job.waitForCompletion(verbose) && success;
+            }
+        }
+        return success;
+    }
+
+    private static void submit(Job job, List<Job> running)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Instrumentation.submitted(job);
+        job.submit();
+        running.add(job);
     }
 }
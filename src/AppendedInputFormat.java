@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+
+/**
+ * The input format of the incremental mode of {@link IncrementalAnalysis},
+ * which reads only a range of complete lines of each input file, e.g. the
+ * lines appended since the previous run.
+ *
+ * The range of a file is set by {@link #setRange}, from a start to an end
+ * offset which are both at the start of a line, and is cut into file splits
+ * of about the split size. The line reader of a split skips the rest of the
+ * line at its start and reads the line starting at its end, so the splits of
+ * a range are shifted back by a byte: the first split starts on the line feed
+ * before the range, and the last split ends on the last line feed of the
+ * range. A file without a range is not read.
+ *
+ * A compressed file cannot be read from an offset, so its range is the whole
+ * file or nothing, and it is read by a single split.
+ */
+public class AppendedInputFormat extends LogInputFormat {
+
+    /**
+     * The prefix of the configuration keys of the start offsets, followed by
+     * the path of a file.
+     */
+    static final String START_KEY = "analysis.input.start.";
+
+    /**
+     * The prefix of the configuration keys of the end offsets, followed by the
+     * path of a file.
+     */
+    static final String END_KEY = "analysis.input.end.";
+
+    /**
+     * Sets the range of a file to read.
+     *
+     * @param conf  the configuration of the job
+     * @param file  the qualified path of the file
+     * @param start the start of the first line to read
+     * @param end   the end of the last line to read, after its line feed
+     */
+    public static void setRange(Configuration conf, Path file, long start, long end) {
+        conf.setLong(START_KEY + file, start);
+        conf.setLong(END_KEY + file, end);
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+        for (FileStatus status : listStatus(job)) {
+            Path file = status.getPath();
+            long start = conf.getLong(START_KEY + file, -1);
+            long end = conf.getLong(END_KEY + file, -1);
+            if (start < 0 || end <= start) {
+                continue;
+            }
+            FileSystem fs = file.getFileSystem(conf);
+            BlockLocation[] blocks = fs.getFileBlockLocations(status, 0, status.getLen());
+            if (new CompressionCodecFactory(conf).getCodec(file) != null) {
+                splits.add(makeSplit(file, 0, status.getLen(), blocks[0].getHosts()));
+                continue;
+            }
+            long splitSize = computeSplitSize(status.getBlockSize(), minSize, getMaxSplitSize(job));
+            long position = start == 0 ? 0 : start - 1;
+            long last = end - 1;
+            while (position < last) {
+                long length = last - position <= splitSize * 11 / 10 ? last - position : splitSize;
+                splits.add(makeSplit(file, position, length, blocks[getBlockIndex(blocks, position)].getHosts()));
+                position += length;
+            }
+            if (start == 0 && end == 1) {
+                // A single empty line at the start of the file
+                splits.add(makeSplit(file, 0, 0, blocks[0].getHosts()));
+            }
+        }
+        return splits;
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * A Hadoop MapReduce to find the bursts of events by level and by event type
+ * in the logs, with a {@link BurstDetector} in each mapper.
+ *
+ * It is a map-only job: each mapper detects the bursts in the events of its
+ * split, in the order of the log, and writes a record of each burst, see
+ * {@link BurstDetector.Burst#toString()}. The baselines are learned again at
+ * the start of each split, so the bursts in the first windows of a split, see
+ * {@link BurstDetector#WARMUP_KEY}, are not found. The larger the splits, e.g.
+ * with a larger minimum split size, the fewer such windows. A combined split
+ * of {@link CombineLogInputFormat} holds chunks of several files, which overlap
+ * in time, e.g. the logs of several hosts, so the detector is started again at
+ * each chunk as at each split: the events of a file are never late for the
+ * events of another. The numbers of bursts, of late events and of events of
+ * levels not counted are the counters of the "Bursts" group.
+ */
+public class BurstDetection {
+
+    /**
+     * <p>
+     * MyMapper is a static inner class that extends the Mapper class. It finds
+     * the bursts of the events of its split.
+     * </p>
+     *
+     * <p>
+     * The <code>map</code> method parses each line into a reused Event object and
+     * adds it to the detector of the mapper, which writes the bursts as they are
+     * found. At the first line of each chunk of a combined split, the detector
+     * of the previous chunk is finished and a new one started. The
+     * <code>cleanup</code> method closes the last window.
+     * </p>
+     *
+     * <p>
+     * Key: Object (input key, not used in this implementation) Value: Text (a line
+     * of text from the input)
+     * </p>
+     *
+     * <p>
+     * Output Key: Text (the record of a burst) Output Value: NullWritable
+     * </p>
+     */
+    private static class MyMapper extends Mapper<Object, Text, Text, NullWritable> {
+        private Event event = new Event();
+        private BurstDetector detector;
+        private int chunk = 0;
+
+        @Override
+        public void setup(Context context) {
+            start(context);
+        }
+
+        /**
+         * Starts a new detector.
+         */
+        private void start(final Context context) {
+            final Text record = new Text();
+            detector = new BurstDetector(context.getConfiguration(), new BurstDetector.Listener() {
+                @Override
+                public void burst(BurstDetector.Burst burst) throws IOException {
+                    record.set(burst.toString());
+                    try {
+                        context.write(record, NullWritable.get());
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Burst detection interrupted");
+                    }
+                    context.getCounter("Bursts", "bursts").increment(1);
+                }
+            });
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context) throws IOException {
+            if (key instanceof CombineLogInputFormat.ChunkKey
+                    && ((CombineLogInputFormat.ChunkKey) key).getChunk() != chunk) {
+                chunk = ((CombineLogInputFormat.ChunkKey) key).getChunk();
+                finish(context);
+                start(context);
+            }
+            event.set(value);
+            detector.add(event);
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException {
+            finish(context);
+        }
+
+        /**
+         * Closes the last window of the detector and counts its late and
+         * dropped events.
+         */
+        private void finish(Context context) throws IOException {
+            detector.finish();
+            context.getCounter("Bursts", "late events").increment(detector.getLate());
+            context.getCounter("Bursts", "events of levels not counted").increment(detector.getDropped());
+        }
+    }
+
+    /**
+     * Configures and returns a new Hadoop Job for BurstDetection.
+     *
+     * @param conf   the Hadoop configuration to use for the job, with the
+     *               settings of {@link BurstDetector}
+     * @param input  the input path for the job
+     * @param output the output path for the job
+     * @return a configured Job instance for burst detection
+     */
+    public static Job getJob(Configuration conf, Path input, Path output) throws IOException {
+        Job job = new Job(conf, "burst detection");
+        job.setJarByClass(BurstDetection.class);
+        job.setMapperClass(MyMapper.class);
+        job.setNumReduceTasks(0);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+        LogInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: BurstDetection [-D " + BurstDetector.WINDOW_KEY + "=<s>] [-D "
+                    + BurstDetector.SLOT_KEY + "=<s>] [-D " + BurstDetector.THRESHOLD_KEY + "=<deviations>] [-D "
+                    + BurstDetector.MIN_COUNT_KEY + "=<events>] <in> <out>");
+            System.exit(2);
+        }
+        Job job = getJob(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
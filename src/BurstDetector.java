@@ -0,0 +1,412 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The BurstDetector class detects the bursts of events by level and by event
+ * type, e.g. of "mod_jk child workerEnv in error state" (E3), in sliding windows
+ * of the times of the events.
+ *
+ * The time is divided into slots of {@link #SLOT_KEY} seconds, and a window is
+ * the last {@link #WINDOW_KEY} seconds of slots. The events of each level and
+ * event type are counted in a ring buffer of the slots of the window, with the
+ * sum of the window kept up to date. When the time of an event passes the
+ * current slot, the window ending at the slot is closed: the count of each
+ * level and event type in the window is compared to its baseline, an
+ * exponentially weighted moving average and variance of the counts of the
+ * previous windows, and a window of at least {@link #MIN_COUNT_KEY} events more
+ * than {@link #THRESHOLD_KEY} standard deviations above the average is a burst.
+ * A {@link Burst} is reported to the {@link Listener} when a level or an event
+ * type starts bursting, with the bounds of the window, and not again until it
+ * stops. No burst is reported in the first {@link #WARMUP_KEY} windows, while
+ * the baselines are learned.
+ *
+ * The cost of an event is constant: a slot of a ring buffer is incremented for
+ * its level and for its event type. The windows are closed once per slot, at
+ * most a window of slots at a time, in a time bounded by the number of slots
+ * times the number of levels and event types, which also bounds the memory.
+ * The levels beyond the first {@link #LEVELS_KEY} ones are not counted. The
+ * time is the time of the events, not of the clock, so the detector runs the
+ * same in a mapper on a log as on a live log followed by {@link LogTail}. An
+ * event older than the window, out of order, is not counted.
+ *
+ * An instance reuses its parsing objects, so it must not be shared between
+ * threads.
+ */
+public class BurstDetector {
+
+    /**
+     * The configuration key of the length of the windows in seconds.
+     */
+    public static final String WINDOW_KEY = "analysis.burst.window";
+
+    /**
+     * The configuration key of the length of the slots of the windows in
+     * seconds, which is the step of the windows.
+     */
+    public static final String SLOT_KEY = "analysis.burst.slot";
+
+    /**
+     * The configuration key of the weight of a window in the baselines, from 0
+     * to 1.
+     */
+    public static final String ALPHA_KEY = "analysis.burst.alpha";
+
+    /**
+     * The configuration key of the number of standard deviations above the
+     * baseline of a burst.
+     */
+    public static final String THRESHOLD_KEY = "analysis.burst.threshold";
+
+    /**
+     * The configuration key of the minimum number of events in the window of a
+     * burst.
+     */
+    public static final String MIN_COUNT_KEY = "analysis.burst.minCount";
+
+    /**
+     * The configuration key of the number of windows to learn the baselines
+     * from before reporting bursts.
+     */
+    public static final String WARMUP_KEY = "analysis.burst.warmup";
+
+    /**
+     * The configuration key of the maximum number of levels counted.
+     */
+    public static final String LEVELS_KEY = "analysis.burst.levels";
+
+    public static final int DEFAULT_WINDOW = 120;
+    public static final int DEFAULT_SLOT = 10;
+    public static final float DEFAULT_ALPHA = 0.05f;
+    public static final float DEFAULT_THRESHOLD = 4;
+    public static final int DEFAULT_MIN_COUNT = 10;
+    public static final int DEFAULT_WARMUP = 30;
+    public static final int DEFAULT_LEVELS = 16;
+
+    private static final Event.EventId[] EVENT_IDS = Event.EventId.values();
+
+    /**
+     * A listener of the bursts found by a detector.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a level or an event type starts bursting.
+         *
+         * @param burst the burst, which is not reused
+         * @throws IOException if the burst cannot be handled
+         */
+        void burst(Burst burst) throws IOException;
+    }
+
+    /**
+     * A burst of a level or an event type in a window.
+     */
+    public static class Burst {
+        private final RollupKey.Dimension dimension;
+        private final String value;
+        private final long start;
+        private final long end;
+        private final int count;
+        private final double mean;
+        private final double deviation;
+
+        Burst(RollupKey.Dimension dimension, String value, long start, long end, int count, double mean,
+                double deviation) {
+            this.dimension = dimension;
+            this.value = value;
+            this.start = start;
+            this.end = end;
+            this.count = count;
+            this.mean = mean;
+            this.deviation = deviation;
+        }
+
+        public RollupKey.Dimension getDimension() {
+            return dimension;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Returns the start of the window, inclusive, in seconds since the
+         * epoch.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the end of the window, exclusive, in seconds since the epoch.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getDeviation() {
+            return deviation;
+        }
+
+        /**
+         * Returns the record of the burst.
+         *
+         * @return the dimension, the value, the start and the end of the window
+         *         in seconds since the epoch, the count of the events in the
+         *         window, and the average and the standard deviation of the
+         *         baseline, separated by tabs
+         */
+        @Override
+        public String toString() {
+            return String.format("%s\t%s\t%d\t%d\t%d\t%.2f\t%.2f", dimension.getLabel(), value, start, end, count,
+                    mean, deviation);
+        }
+    }
+
+    /**
+     * The counts of a level or an event type in the slots of the window, and
+     * its baseline.
+     */
+    private static class Series {
+        final RollupKey.Dimension dimension;
+        final byte[] value;
+        final int[] slots;
+        int sum;
+        double mean;
+        double variance;
+        boolean bursting;
+
+        Series(RollupKey.Dimension dimension, byte[] value, int slots) {
+            this.dimension = dimension;
+            this.value = value;
+            this.slots = new int[slots];
+        }
+    }
+
+    private final Listener listener;
+    private final int slotSeconds;
+    private final int slots;
+    private final double alpha;
+    private final double threshold;
+    private final int minCount;
+    private final int warmup;
+    private final Series[] eventIds = new Series[EVENT_IDS.length];
+    private Series[] levels;
+    private int levelsUsed;
+    private final LogTime.Parser parser = new LogTime.Parser();
+    private boolean started;
+    private long slot; // the current slot, in slots since the epoch
+    private long windows; // the number of windows closed
+    private long late;
+    private long dropped;
+
+    /**
+     * Constructs a detector.
+     *
+     * @param conf     the configuration of the detector
+     * @param listener the listener of the bursts
+     */
+    public BurstDetector(Configuration conf, Listener listener) {
+        this.listener = listener;
+        this.slotSeconds = Math.max(1, conf.getInt(SLOT_KEY, DEFAULT_SLOT));
+        this.slots = Math.max(1, conf.getInt(WINDOW_KEY, DEFAULT_WINDOW) / slotSeconds);
+        this.alpha = conf.getFloat(ALPHA_KEY, DEFAULT_ALPHA);
+        this.threshold = conf.getFloat(THRESHOLD_KEY, DEFAULT_THRESHOLD);
+        this.minCount = conf.getInt(MIN_COUNT_KEY, DEFAULT_MIN_COUNT);
+        this.warmup = conf.getInt(WARMUP_KEY, DEFAULT_WARMUP);
+        this.levels = new Series[conf.getInt(LEVELS_KEY, DEFAULT_LEVELS)];
+        for (Event.EventId eventType : EVENT_IDS) {
+            eventIds[eventType.ordinal()] = new Series(RollupKey.Dimension.EVENT_ID,
+                    eventType.name().getBytes(StandardCharsets.UTF_8), slots);
+        }
+    }
+
+    /**
+     * Adds an event, closing the windows before its slot first.
+     *
+     * @param event the event, parsed or not
+     * @return true if the event is counted, false if it is not parsed, has no
+     *         valid time or is older than the window
+     * @throws IOException if the listener fails
+     */
+    public boolean add(Event event) throws IOException {
+        if (!event.isParsed()) {
+            return false;
+        }
+        long time = parser.parse(event.getBytes(), event.getTimeStart(), event.getTimeLength());
+        if (time == LogTime.INVALID) {
+            return false;
+        }
+        long eventSlot = Math.floorDiv(time, slotSeconds);
+        if (!started) {
+            slot = eventSlot;
+            started = true;
+        } else if (eventSlot > slot) {
+            advance(eventSlot);
+        } else if (slot - eventSlot >= slots) {
+            late++;
+            return false;
+        }
+        int cell = (int) Math.floorMod(eventSlot, (long) slots);
+        count(eventIds[event.gerEventId().ordinal()], cell);
+        Series level = level(event.getBytes(), event.getLevelStart(), event.getLevelLength());
+        if (level != null) {
+            count(level, cell);
+        }
+        return true;
+    }
+
+    private static void count(Series series, int cell) {
+        series.slots[cell]++;
+        series.sum++;
+    }
+
+    /**
+     * Returns the series of a level, adding it if it is not in the list and
+     * the list is not full.
+     */
+    private Series level(byte[] bytes, int start, int length) {
+        for (int i = 0; i < levelsUsed; i++) {
+            byte[] value = levels[i].value;
+            if (value.length == length && equals(value, bytes, start)) {
+                return levels[i];
+            }
+        }
+        if (levelsUsed == levels.length) {
+            dropped++;
+            return null;
+        }
+        levels[levelsUsed] = new Series(RollupKey.Dimension.LEVEL, Arrays.copyOfRange(bytes, start, start + length),
+                slots);
+        return levels[levelsUsed++];
+    }
+
+    private static boolean equals(byte[] value, byte[] bytes, int start) {
+        for (int i = 0; i < value.length; i++) {
+            if (value[i] != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the windows of the slots from the current slot to the slot before
+     * a later slot. After a gap of more than a window, the windows are empty,
+     * and the baselines only decay with them.
+     */
+    private void advance(long target) throws IOException {
+        long steps = target - slot;
+        for (long i = 0; i < Math.min(steps, slots); i++) {
+            close();
+            slot++;
+            int cell = (int) Math.floorMod(slot, (long) slots);
+            for (Series series : eventIds) {
+                clear(series, cell);
+            }
+            for (int j = 0; j < levelsUsed; j++) {
+                clear(levels[j], cell);
+            }
+        }
+        if (steps > slots) {
+            // The empty windows as observations of 0: the average and the
+            // variance decay, approximately for the variance
+            long empty = steps - slots;
+            double decay = Math.pow(1 - alpha, empty);
+            for (Series series : eventIds) {
+                decay(series, decay);
+            }
+            for (int j = 0; j < levelsUsed; j++) {
+                decay(levels[j], decay);
+            }
+            windows += empty;
+            slot = target;
+        }
+    }
+
+    private static void clear(Series series, int cell) {
+        series.sum -= series.slots[cell];
+        series.slots[cell] = 0;
+    }
+
+    private static void decay(Series series, double decay) {
+        series.mean *= decay;
+        series.variance *= decay;
+        series.bursting = false;
+    }
+
+    /**
+     * Closes the window ending at the current slot, reporting the series
+     * starting to burst and updating the baselines.
+     */
+    private void close() throws IOException {
+        long end = (slot + 1) * slotSeconds;
+        long start = end - (long) slots * slotSeconds;
+        for (Series series : eventIds) {
+            close(series, start, end);
+        }
+        for (int i = 0; i < levelsUsed; i++) {
+            close(levels[i], start, end);
+        }
+        windows++;
+    }
+
+    private void close(Series series, long start, long end) throws IOException {
+        int count = series.sum;
+        double deviation = Math.sqrt(series.variance);
+        boolean burst = windows >= warmup && count >= minCount && count > series.mean + threshold * deviation;
+        if (burst && !series.bursting) {
+            listener.burst(new Burst(series.dimension, new String(series.value, StandardCharsets.UTF_8), start,
+                    end, count, series.mean, deviation));
+        }
+        series.bursting = burst;
+
+        // Exponentially weighted moving average and variance
+        double difference = count - series.mean;
+        double increment = alpha * difference;
+        series.mean += increment;
+        series.variance = (1 - alpha) * (series.variance + difference * increment);
+    }
+
+    /**
+     * Closes the window ending at the current slot, at the end of the events.
+     *
+     * @throws IOException if the listener fails
+     */
+    public void finish() throws IOException {
+        if (started) {
+            close();
+        }
+    }
+
+    /**
+     * Returns the number of events not counted because they were older than
+     * the window.
+     *
+     * @return the number of late events
+     */
+    public long getLate() {
+        return late;
+    }
+
+    /**
+     * Returns the number of events whose level was not counted because the
+     * list of levels was full.
+     *
+     * @return the number of events of dropped levels
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
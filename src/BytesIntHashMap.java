@@ -0,0 +1,182 @@
+import java.util.Arrays;
+
+/**
+ * The BytesIntHashMap class is a hash map from byte strings to int counts,
+ * specialized for primitive types.
+ *
+ * The keys are copied into a single byte array, and the entries are kept in
+ * parallel int arrays indexed by an open-addressing table with linear probing,
+ * so there is no object per entry. The memory used by the map is bounded: when
+ * adding a new key would exceed the bound, the key is refused and the caller is
+ * expected to drain the map with {@link #clear()}.
+ */
+public class BytesIntHashMap {
+    private final long maxBytes;
+    private byte[] keys = new byte[1024];
+    private int keysLength = 0;
+    private int[] offsets = new int[64];
+    private int[] lengths = new int[64];
+    private int[] hashes = new int[64];
+    private int[] counts = new int[64];
+    private int size = 0;
+    private int[] table = new int[128]; // entry index + 1, or 0 if empty
+
+    /**
+     * Constructs an empty map.
+     *
+     * @param maxBytes the bound of the memory used by the map in bytes
+     */
+    public BytesIntHashMap(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds a delta to the count of a key, adding the key if it is absent.
+     *
+     * @param bytes  the bytes containing the key
+     * @param start  the start offset of the key in the bytes
+     * @param length the length of the key in bytes
+     * @param delta  the delta to add to the count
+     * @return true if the count is updated, false if the key is absent and there
+     *         is no more memory for it
+     */
+    public boolean increment(byte[] bytes, int start, int length, int delta) {
+        int hash = hash(bytes, start, length);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+            entry--;
+            if (hashes[entry] == hash && equals(entry, bytes, start, length)) {
+                counts[entry] += delta;
+                return true;
+            }
+        }
+        if (size > 0 && memoryToAdd(length) > maxBytes) {
+            return false;
+        }
+        if (keysLength + length > keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keysLength + length));
+        }
+        System.arraycopy(bytes, start, keys, keysLength, length);
+        if (size == offsets.length) {
+            int capacity = size * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        offsets[size] = keysLength;
+        lengths[size] = length;
+        hashes[size] = hash;
+        counts[size] = delta;
+        keysLength += length;
+        table[slot] = ++size;
+        if (size * 4 > table.length * 3) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of keys in the map.
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the bytes containing the keys, which the offsets of the entries
+     * refer to.
+     *
+     * @return the bytes of the keys
+     */
+    public byte[] keyBytes() {
+        return keys;
+    }
+
+    /**
+     * Returns the start offset of the key of an entry.
+     *
+     * @param entry the index of the entry, from 0 to {@link #size()} - 1, in the
+     *              order the keys were added
+     * @return the start offset of the key in {@link #keyBytes()}
+     */
+    public int keyOffset(int entry) {
+        return offsets[entry];
+    }
+
+    public int keyLength(int entry) {
+        return lengths[entry];
+    }
+
+    public int count(int entry) {
+        return counts[entry];
+    }
+
+    /**
+     * Returns the estimated memory used by the map in bytes.
+     *
+     * @return the memory used by the arrays of the map
+     */
+    public long memory() {
+        return keys.length + (long) offsets.length * 4 * 4 + (long) table.length * 4;
+    }
+
+    /**
+     * Returns the estimated memory used by the map after adding a new key, taking
+     * into account the arrays to grow.
+     */
+    private long memoryToAdd(int length) {
+        long keysCapacity = keysLength + length > keys.length ? Math.max(keys.length * 2, keysLength + length)
+                : keys.length;
+        long entriesCapacity = size == offsets.length ? size * 2 : offsets.length;
+        long tableCapacity = (size + 1) * 4 > table.length * 3 ? table.length * 2 : table.length;
+        return keysCapacity + entriesCapacity * 4 * 4 + tableCapacity * 4;
+    }
+
+    /**
+     * Removes all keys from the map, keeping the allocated arrays.
+     */
+    public void clear() {
+        Arrays.fill(table, 0);
+        keysLength = 0;
+        size = 0;
+    }
+
+    private boolean equals(int entry, byte[] bytes, int start, int length) {
+        if (lengths[entry] != length) {
+            return false;
+        }
+        int offset = offsets[entry];
+        for (int i = 0; i < length; i++) {
+            if (keys[offset + i] != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = hashes[entry] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = entry + 1;
+        }
+    }
+
+    private static int hash(byte[] bytes, int start, int length) {
+        int hash = 1;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spread the bits, since the table is indexed by the low bits
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
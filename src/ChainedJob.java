@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * A job which is prepared when it is submitted, after the job it depends on,
+ * if any, has succeeded.
+ *
+ * The preparation configures the job from the results of its prerequisite, or
+ * from the input at the time of the submission, e.g. the row numbers of
+ * {@link RowNumbering} or the partitions of the sorted words of
+ * {@link WordCount}. The factories of the jobs thus only configure them, and
+ * a chained job can be run as any job: submitting it submits its prerequisite
+ * first if it was not submitted yet, and waits for it.
+ * {@link ApacheLogAnalysis#run(java.util.List, boolean)} submits the chained
+ * jobs as soon as their prerequisites are complete instead, so the other jobs
+ * do not wait for them.
+ */
+public class ChainedJob extends Job {
+
+    /**
+     * The preparation of a chained job.
+     */
+    public interface Preparation {
+        /**
+         * Prepares a job before its submission, after its prerequisite has
+         * succeeded.
+         *
+         * @param job the job to prepare
+         * @throws IOException if the job cannot be prepared
+         */
+        void prepare(Job job) throws IOException, InterruptedException;
+    }
+
+    private final Job prerequisite;
+    private final Preparation preparation;
+
+    /**
+     * Constructs a chained job.
+     *
+     * @param conf         the Hadoop configuration to use for the job
+     * @param name         the name of the job
+     * @param prerequisite the job to run before, or null
+     * @param preparation  the preparation of the job
+     * @throws IOException if the job cannot be created
+     */
+    public ChainedJob(Configuration conf, String name, Job prerequisite, Preparation preparation)
+            throws IOException {
+        super(conf, name);
+        this.prerequisite = prerequisite;
+        this.preparation = preparation;
+    }
+
+    /**
+     * Returns the job to run before this job.
+     *
+     * @return the prerequisite, or null if there is none
+     */
+    public Job getPrerequisite() {
+        return prerequisite;
+    }
+
+    /**
+     * Returns jobs with their prerequisites, each before the jobs chained to
+     * it, e.g. to sum the counters of all the jobs run.
+     *
+     * @param jobs the jobs
+     * @return the jobs and their prerequisites, in the order they run
+     */
+    public static List<Job> withPrerequisites(List<Job> jobs) {
+        List<Job> all = new ArrayList<Job>();
+        for (Job job : jobs) {
+            add(job, all);
+        }
+        return all;
+    }
+
+    private static void add(Job job, List<Job> all) {
+        if (job instanceof ChainedJob && ((ChainedJob) job).prerequisite != null) {
+            add(((ChainedJob) job).prerequisite, all);
+        }
+        if (!all.contains(job)) {
+            all.add(job);
+        }
+    }
+
+    /**
+     * Checks if the job can be submitted without waiting, i.e. if it has no
+     * prerequisite or if its prerequisite is complete.
+     *
+     * @return true if the job is ready to be submitted
+     * @throws IOException if the state of the prerequisite cannot be read
+     */
+    public boolean isReady() throws IOException {
+        return prerequisite == null || isSubmitted(prerequisite) && prerequisite.isComplete();
+    }
+
+    /**
+     * Checks if a job has been submitted.
+     *
+     * @param job a job
+     * @return true if the job has been submitted
+     */
+    public static boolean isSubmitted(Job job) {
+        return job.getJobID() != null;
+    }
+
+    /**
+     * Runs the prerequisite, if it was not run yet, and prepares and submits
+     * the job.
+     *
+     * @throws IOException if the prerequisite failed or the job cannot be
+     *                     prepared or submitted
+     */
+    @Override
+    public void submit() throws IOException, InterruptedException, ClassNotFoundException {
+        if (prerequisite != null && !prerequisite.waitForCompletion(false)) {
+            throw new IOException("Job " + getJobName() + " not run: job " + prerequisite.getJobName() + " failed");
+        }
+        preparation.prepare(this);
+        super.submit();
+    }
+}
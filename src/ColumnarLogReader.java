@@ -0,0 +1,390 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The ColumnarLogReader class reads the structured events written by
+ * {@link ColumnarLogWriter}, row by row.
+ *
+ * The row numbers, event types, levels and times of a block are decoded when
+ * the block is read, while the compressed contents are only decompressed when
+ * the content of a row of the block is accessed. A scan which does not need the
+ * contents, e.g. counting the events of a type per hour, thus reads the
+ * contents without decompressing them.
+ *
+ * The main method converts files back to the CSV output of
+ * {@link LogStructuring}.
+ */
+public class ColumnarLogReader implements Closeable {
+    private static final Event.EventId[] EVENT_IDS = Event.EventId.values();
+
+    private final DataInputStream in;
+    private final List<byte[]> levels = new ArrayList<byte[]>();
+    private final DataInputBuffer column = new DataInputBuffer();
+    private byte[] columnBytes = new byte[0];
+    private final Inflater inflater = new Inflater();
+
+    // The columns of the current block
+    private int rows;
+    private long[] ids = new long[0];
+    private int[] events = new int[0];
+    private int[] levelCodes = new int[0];
+    private long[] times = new long[0];
+    private int[] rawTimeStarts = new int[0];
+    private int[] rawTimeLengths = new int[0];
+    private byte[] rawTimes = new byte[0];
+    private byte[] compressed = new byte[0];
+    private int compressedLength;
+    private byte[] contents = new byte[0];
+    private int[] contentStarts = new int[0];
+    private int[] contentLengths = new int[0];
+    private boolean inflated;
+
+    private int row = -1;
+    private boolean ended;
+    private byte[] fields = new byte[256];
+
+    /**
+     * Constructs a reader and checks the beginning of the file.
+     *
+     * @param in the input stream, which is closed with the reader
+     * @throws IOException if the input is not a columnar file
+     */
+    public ColumnarLogReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 1 << 16));
+        byte[] magic = new byte[ColumnarLogWriter.MAGIC.length];
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, ColumnarLogWriter.MAGIC)) {
+            throw new IOException("Not a columnar log file");
+        }
+    }
+
+    /**
+     * Moves to the next row.
+     *
+     * @return true if there is a next row, false at the end of the file
+     * @throws IOException if the input cannot be read
+     */
+    public boolean next() throws IOException {
+        while (++row >= rows) {
+            if (ended || !readBlock()) {
+                ended = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean readBlock() throws IOException {
+        int blockRows = WritableUtils.readVInt(in);
+        if (blockRows == 0) {
+            return false;
+        }
+        if (blockRows > ids.length) {
+            ids = new long[blockRows];
+            events = new int[blockRows];
+            levelCodes = new int[blockRows];
+            times = new long[blockRows];
+            rawTimeStarts = new int[blockRows];
+            rawTimeLengths = new int[blockRows];
+            contentStarts = new int[blockRows];
+            contentLengths = new int[blockRows];
+        }
+        rows = blockRows;
+        row = -1;
+        long id = WritableUtils.readVLong(in);
+        for (int i = WritableUtils.readVInt(in); i > 0; i--) {
+            byte[] level = new byte[WritableUtils.readVInt(in)];
+            in.readFully(level);
+            levels.add(level);
+        }
+
+        readColumn();
+        for (int i = 0; i < rows; i++) {
+            id += i == 0 ? 0 : WritableUtils.readVLong(column);
+            ids[i] = id;
+        }
+        readColumn();
+        for (int i = 0; i < rows; i++) {
+            events[i] = column.readUnsignedByte();
+        }
+        readColumn();
+        for (int i = 0; i < rows; i++) {
+            levelCodes[i] = events[i] == ColumnarLogWriter.UNPARSED ? -1 : WritableUtils.readVInt(column);
+        }
+        readColumn();
+        long time = 0;
+        int rawTimeCount = 0;
+        for (int i = 0; i < rows; i++) {
+            if (events[i] == ColumnarLogWriter.UNPARSED) {
+                continue;
+            }
+            long value = WritableUtils.readVLong(column);
+            if (value == ColumnarLogWriter.RAW_TIME) {
+                times[i] = LogTime.INVALID;
+                rawTimeCount++;
+            } else {
+                value >>>= 1;
+                time += (value >>> 1) ^ -(value & 1);
+                times[i] = time;
+            }
+        }
+        int rawLength = WritableUtils.readVInt(in);
+        rawTimes = readBytes(rawTimes, rawLength);
+        column.reset(rawTimes, rawLength);
+        for (int i = 0; i < rows && rawTimeCount > 0; i++) {
+            if (events[i] != ColumnarLogWriter.UNPARSED && times[i] == LogTime.INVALID) {
+                rawTimeLengths[i] = WritableUtils.readVInt(column);
+                rawTimeStarts[i] = column.getPosition();
+                column.skip(rawTimeLengths[i]);
+            }
+        }
+
+        compressedLength = WritableUtils.readVInt(in);
+        compressed = readBytes(compressed, compressedLength);
+        inflated = false;
+        return true;
+    }
+
+    private void readColumn() throws IOException {
+        int length = WritableUtils.readVInt(in);
+        columnBytes = readBytes(columnBytes, length);
+        column.reset(columnBytes, length);
+    }
+
+    private byte[] readBytes(byte[] bytes, int length) throws IOException {
+        if (length > bytes.length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        in.readFully(bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * Decompresses the contents of the current block.
+     */
+    private void inflate() throws IOException {
+        column.reset(compressed, compressedLength);
+        int length = WritableUtils.readVInt(column);
+        if (length > contents.length) {
+            contents = new byte[Math.max(length, contents.length * 2)];
+        }
+        inflater.reset();
+        inflater.setInput(compressed, column.getPosition(), compressedLength - column.getPosition());
+        try {
+            int n = 0;
+            while (n < length) {
+                int inflatedBytes = inflater.inflate(contents, n, length - n);
+                if (inflatedBytes == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new EOFException("Truncated contents");
+                }
+                n += inflatedBytes;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        column.reset(contents, length);
+        for (int i = 0; i < rows; i++) {
+            if (events[i] != ColumnarLogWriter.UNPARSED) {
+                contentLengths[i] = WritableUtils.readVInt(column);
+                contentStarts[i] = column.getPosition();
+                column.skip(contentLengths[i]);
+            }
+        }
+        inflated = true;
+    }
+
+    /**
+     * Returns the row number of the current row.
+     *
+     * @return the row number
+     */
+    public long getId() {
+        return ids[row];
+    }
+
+    /**
+     * Checks if the event of the current row is parsed.
+     *
+     * @return true if the event is parsed, false otherwise
+     */
+    public boolean isParsed() {
+        return events[row] != ColumnarLogWriter.UNPARSED;
+    }
+
+    /**
+     * Returns the event type of the current row.
+     *
+     * @return the event type, or null if the event is not parsed
+     */
+    public Event.EventId getEventId() {
+        return isParsed() ? EVENT_IDS[events[row]] : null;
+    }
+
+    /**
+     * Returns the time of the current row in seconds since the epoch.
+     *
+     * @return the time, or {@link LogTime#INVALID} if the event is not parsed
+     *         or the time is not in the usual format
+     * @see LogTime
+     */
+    public long getEpochSecond() {
+        return isParsed() ? times[row] : LogTime.INVALID;
+    }
+
+    /**
+     * Returns the time of the current row as in the logs.
+     *
+     * @return the time, or null if the event is not parsed
+     */
+    public String getTime() {
+        if (!isParsed()) {
+            return null;
+        }
+        return times[row] != LogTime.INVALID ? LogTime.format(times[row]) : rawTime();
+    }
+
+    private String rawTime() {
+        return new String(rawTimes, rawTimeStarts[row], rawTimeLengths[row], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the level of the current row.
+     *
+     * @return the level, or null if the event is not parsed
+     */
+    public String getLevel() {
+        return isParsed() ? new String(levels.get(levelCodes[row]), StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Returns the content of the current row, decompressing the contents of the
+     * block if needed.
+     *
+     * @return the content, or null if the event is not parsed
+     * @throws IOException if the contents cannot be decompressed
+     */
+    public String getContent() throws IOException {
+        if (!isParsed()) {
+            return null;
+        }
+        if (!inflated) {
+            inflate();
+        }
+        return new String(contents, contentStarts[row], contentLengths[row], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sets an Event object to the event of the current row, decompressing the
+     * contents of the block if needed.
+     *
+     * @param event the Event object to set, which refers to a buffer of the
+     *              reader until the next call
+     * @throws IOException if the contents cannot be decompressed
+     */
+    public void get(Event event) throws IOException {
+        if (!isParsed()) {
+            event.set(fields, 0, 0, 0, null);
+            return;
+        }
+        if (!inflated) {
+            inflate();
+        }
+        byte[] level = levels.get(levelCodes[row]);
+        int timeLength = times[row] != LogTime.INVALID ? LogTime.LENGTH : rawTimeLengths[row];
+        int length = timeLength + level.length + contentLengths[row];
+        if (length > fields.length) {
+            fields = new byte[Math.max(length, fields.length * 2)];
+        }
+        if (times[row] != LogTime.INVALID) {
+            LogTime.format(times[row], fields, 0);
+        } else {
+            System.arraycopy(rawTimes, rawTimeStarts[row], fields, 0, timeLength);
+        }
+        System.arraycopy(level, 0, fields, timeLength, level.length);
+        System.arraycopy(contents, contentStarts[row], fields, timeLength + level.length, contentLengths[row]);
+        event.set(fields, timeLength, level.length, contentLengths[row], EVENT_IDS[events[row]]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    /**
+     * Converts columnar files to the CSV output of {@link LogStructuring},
+     * with the header and the row numbers.
+     *
+     * @param inputs the columnar files in the order of the rows
+     * @param out    the output stream of the CSV
+     * @throws IOException if the files cannot be read or the CSV cannot be
+     *                     written
+     */
+    public static void toCsv(List<File> inputs, OutputStream out) throws IOException {
+        out.write(("0," + LogStructuring.HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+        Event event = new Event();
+        Text row = new Text();
+        for (File input : inputs) {
+            try (ColumnarLogReader reader = new ColumnarLogReader(new FileInputStream(input))) {
+                while (reader.next()) {
+                    reader.get(event);
+                    row.set(Long.toString(reader.getId()));
+                    row.append(new byte[] { ',' }, 0, 1);
+                    event.appendCsv(row);
+                    out.write(row.getBytes(), 0, row.getLength());
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: ColumnarLogReader <in> <out.csv>");
+            System.exit(2);
+        }
+        // The files of the map tasks, in the order of their rows
+        List<File> inputs = new ArrayList<File>();
+        final Map<File, Long> firstIds = new HashMap<File, Long>();
+        for (File file : LocalAnalysis.listInputs(new File(args[0]))) {
+            if (file.getName().endsWith(ColumnarOutputFormat.EXTENSION)) {
+                try (ColumnarLogReader reader = new ColumnarLogReader(new FileInputStream(file))) {
+                    firstIds.put(file, reader.next() ? reader.getId() : -1);
+                }
+                inputs.add(file);
+            }
+        }
+        Collections.sort(inputs, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(firstIds.get(a), firstIds.get(b));
+            }
+        });
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 16)) {
+            toCsv(inputs, out);
+        }
+    }
+}
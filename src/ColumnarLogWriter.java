@@ -0,0 +1,210 @@
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The ColumnarLogWriter class writes structured events in a compact binary
+ * columnar format, as an alternative to the CSV output of
+ * {@link LogStructuring}. The file is read by {@link ColumnarLogReader}.
+ *
+ * The rows are written in blocks of a fixed number of rows, and the values of
+ * each column of a block are stored together:
+ * <ul>
+ * <li>the row numbers, as deltas from the previous row;</li>
+ * <li>the event types, as one byte per row, which also marks the unparsed
+ * rows;</li>
+ * <li>the levels, as codes of a dictionary of the file, whose new entries are
+ * stored with each block;</li>
+ * <li>the times, as seconds since the epoch in deltas from the previous row,
+ * with the times not in the usual format stored as text aside;</li>
+ * <li>the contents, compressed by block with <code>Deflater</code>.</li>
+ * </ul>
+ * The templates are not stored, as they are given by the event types. Each
+ * column is prefixed by its length, so a reader can skip the columns it does
+ * not need, e.g. the contents to count the events per hour.
+ *
+ * <pre>
+ * file    = MAGIC block* 0
+ * block   = vint rows, vlong firstRow, vint newLevels, text*, column{6}
+ * column  = vint length, bytes
+ * </pre>
+ */
+public class ColumnarLogWriter implements Closeable {
+
+    /**
+     * The bytes at the beginning of a file, with the version of the format.
+     */
+    static final byte[] MAGIC = { 'L', 'S', 'C', 1 };
+
+    /**
+     * The default number of rows of a block.
+     */
+    public static final int DEFAULT_BLOCK_ROWS = 4096;
+
+    /**
+     * The event type of an unparsed row in the event column.
+     */
+    static final int UNPARSED = 0xFF;
+
+    /**
+     * The value of a time stored as text in the time column. The other values
+     * are the zigzag-encoded deltas shifted left by one bit.
+     */
+    static final long RAW_TIME = 1;
+
+    private final DataOutputStream out;
+    private final int blockRows;
+    private final Map<Text, Integer> levels = new HashMap<Text, Integer>();
+    private final Text level = new Text();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private byte[] compressed = new byte[1 << 16];
+
+    // The columns of the current block
+    private final DataOutputBuffer ids = new DataOutputBuffer();
+    private final DataOutputBuffer events = new DataOutputBuffer();
+    private final DataOutputBuffer levelCodes = new DataOutputBuffer();
+    private final DataOutputBuffer newLevels = new DataOutputBuffer();
+    private final DataOutputBuffer times = new DataOutputBuffer();
+    private final DataOutputBuffer rawTimes = new DataOutputBuffer();
+    private final DataOutputBuffer contents = new DataOutputBuffer();
+    private int rows;
+    private int newLevelCount;
+    private long firstId;
+    private long lastId;
+    private long lastTime;
+
+    /**
+     * Constructs a writer and writes the beginning of the file.
+     *
+     * @param out       the output stream, which is closed with the writer
+     * @param blockRows the number of rows of a block
+     * @throws IOException if the output cannot be written
+     */
+    public ColumnarLogWriter(OutputStream out, int blockRows) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.blockRows = blockRows;
+        this.out.write(MAGIC);
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param id    the row number, greater than the previous one
+     * @param event the event of the row
+     * @throws IOException if the output cannot be written
+     */
+    public void append(long id, Event event) throws IOException {
+        if (rows == 0) {
+            firstId = id;
+        } else {
+            WritableUtils.writeVLong(ids, id - lastId);
+        }
+        lastId = id;
+        rows++;
+        if (!event.isParsed()) {
+            events.writeByte(UNPARSED);
+        } else {
+            byte[] bytes = event.getBytes();
+            events.writeByte(event.gerEventId().ordinal());
+            WritableUtils.writeVInt(levelCodes, code(bytes, event.getLevelStart(), event.getLevelLength()));
+            long time = LogTime.parse(bytes, event.getTimeStart(), event.getTimeLength());
+            if (time == LogTime.INVALID) {
+                WritableUtils.writeVLong(times, RAW_TIME);
+                WritableUtils.writeVInt(rawTimes, event.getTimeLength());
+                rawTimes.write(bytes, event.getTimeStart(), event.getTimeLength());
+            } else {
+                long delta = time - lastTime;
+                WritableUtils.writeVLong(times, ((delta << 1) ^ (delta >> 63)) << 1);
+                lastTime = time;
+            }
+            WritableUtils.writeVInt(contents, event.getContentLength());
+            contents.write(bytes, event.getContentStart(), event.getContentLength());
+        }
+        if (rows == blockRows) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Returns the dictionary code of a level, adding the level to the
+     * dictionary if it is new.
+     */
+    private int code(byte[] bytes, int start, int length) throws IOException {
+        level.set(bytes, start, length);
+        Integer code = levels.get(level);
+        if (code == null) {
+            code = levels.size();
+            levels.put(new Text(level), code);
+            level.write(newLevels);
+            newLevelCount++;
+        }
+        return code;
+    }
+
+    private void writeBlock() throws IOException {
+        WritableUtils.writeVInt(out, rows);
+        WritableUtils.writeVLong(out, firstId);
+        WritableUtils.writeVInt(out, newLevelCount);
+        out.write(newLevels.getData(), 0, newLevels.getLength());
+        writeColumn(ids);
+        writeColumn(events);
+        writeColumn(levelCodes);
+        writeColumn(times);
+        writeColumn(rawTimes);
+
+        // The contents, compressed with the length of the uncompressed bytes
+        deflater.reset();
+        deflater.setInput(contents.getData(), 0, contents.getLength());
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                byte[] larger = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, larger, 0, length);
+                compressed = larger;
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        WritableUtils.writeVInt(out, WritableUtils.getVIntSize(contents.getLength()) + length);
+        WritableUtils.writeVInt(out, contents.getLength());
+        out.write(compressed, 0, length);
+
+        for (DataOutputBuffer column : new DataOutputBuffer[] { ids, events, levelCodes, newLevels, times, rawTimes,
+                contents }) {
+            column.reset();
+        }
+        rows = 0;
+        newLevelCount = 0;
+        lastTime = 0;
+    }
+
+    private void writeColumn(DataOutputBuffer column) throws IOException {
+        WritableUtils.writeVInt(out, column.getLength());
+        out.write(column.getData(), 0, column.getLength());
+    }
+
+    /**
+     * Writes the last block and the end of the file, and closes the output
+     * stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rows > 0) {
+                writeBlock();
+            }
+            WritableUtils.writeVInt(out, 0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+}
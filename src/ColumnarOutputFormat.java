@@ -0,0 +1,45 @@
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * An output format writing the structured events of {@link LogStructuring}
+ * with a {@link ColumnarLogWriter}, to <code>part-m-NNNNN.lsc</code> files,
+ * one per map task of the map-only job.
+ */
+public class ColumnarOutputFormat extends FileOutputFormat<LongWritable, Event> {
+
+    /**
+     * The configuration key of the number of rows of a block.
+     */
+    public static final String BLOCK_ROWS_KEY = "analysis.columnar.block.rows";
+
+    /**
+     * The extension of the files.
+     */
+    public static final String EXTENSION = ".lsc";
+
+    @Override
+    public RecordWriter<LongWritable, Event> getRecordWriter(TaskAttemptContext job) throws IOException {
+        Path file = getDefaultWorkFile(job, EXTENSION);
+        FSDataOutputStream out = file.getFileSystem(job.getConfiguration()).create(file, false);
+        final ColumnarLogWriter writer = new ColumnarLogWriter(out,
+                job.getConfiguration().getInt(BLOCK_ROWS_KEY, ColumnarLogWriter.DEFAULT_BLOCK_ROWS));
+        return new RecordWriter<LongWritable, Event>() {
+            @Override
+            public void write(LongWritable key, Event value) throws IOException {
+                writer.append(key.get(), value);
+            }
+
+            @Override
+            public void close(TaskAttemptContext context) throws IOException {
+                writer.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * The input format of many small logs, which packs them into splits of up to
+ * a target size, so the number of mappers follows the size of the logs rather
+ * than their number.
+ *
+ * The files, or their blocks for large splittable files, are grouped by node,
+ * then by rack, then the rest, by {@link CombineFileInputFormat}, into splits
+ * of up to {@link #SIZE_KEY} bytes. The minimum sizes of the splits of a node
+ * and of a rack are set by the keys of {@link CombineFileInputFormat}. Each
+ * file chunk of a split is read by the record reader of {@link LogInputFormat},
+ * so compressed logs are read as well, with a gzip file as one chunk.
+ *
+ * The keys are {@link ChunkKey}s, which are the keys of the lines in their
+ * files and hold the index of their chunk in the split, so a mapper can keep
+ * state per file chunk, such as the row numbers of {@link RowNumbering}.
+ */
+public class CombineLogInputFormat extends CombineFileInputFormat<LongWritable, Text> {
+
+    /**
+     * The configuration key of the target size of the splits, in bytes, e.g.
+     * 128m.
+     */
+    public static final String SIZE_KEY = "analysis.input.combine.size";
+
+    public static final long DEFAULT_SIZE = 128 * 1024 * 1024;
+
+    /**
+     * The key of a line of a combined split: the offset of the line in its file,
+     * and the index of the file chunk in the split.
+     */
+    public static class ChunkKey extends LongWritable {
+        private int chunk;
+
+        /**
+         * Returns the index of the file chunk of the line in the split.
+         *
+         * @return the index, as in {@link CombineFileSplit#getPath(int)}
+         */
+        public int getChunk() {
+            return chunk;
+        }
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        setMaxSplitSize(job.getConfiguration().getLongBytes(SIZE_KEY, DEFAULT_SIZE));
+        return super.getSplits(job);
+    }
+
+    @Override
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        return new ChunkRecordReader();
+    }
+
+    /**
+     * Returns the file split of a chunk of a combined split.
+     *
+     * @param split the combined split
+     * @param chunk the index of the chunk
+     * @return the file split
+     * @throws IOException if the locations of the split cannot be found
+     */
+    public static FileSplit getChunk(CombineFileSplit split, int chunk) throws IOException {
+        return new FileSplit(split.getPath(chunk), split.getOffset(chunk), split.getLength(chunk),
+                split.getLocations());
+    }
+
+    /**
+     * <p>
+     * A RecordReader class that reads the file chunks of a combined split one
+     * after another.
+     * </p>
+     *
+     * <p>
+     * Each chunk is read by a record reader of {@link LogInputFormat} for its
+     * file split, and its keys are copied into a {@link ChunkKey} with the index
+     * of the chunk. The progress is the ratio of the bytes of the chunks done,
+     * plus the progress of the current chunk.
+     * </p>
+     */
+    private static class ChunkRecordReader extends RecordReader<LongWritable, Text> {
+        private final LogInputFormat format = new LogInputFormat();
+        private CombineFileSplit split;
+        private TaskAttemptContext context;
+        private RecordReader<LongWritable, Text> reader;
+        private int chunk = -1;
+        private long done;
+        private ChunkKey key = new ChunkKey();
+
+        @Override
+        public void initialize(InputSplit genericSplit, TaskAttemptContext context)
+                throws IOException, InterruptedException {
+            this.split = (CombineFileSplit) genericSplit;
+            this.context = context;
+            nextChunk();
+        }
+
+        /**
+         * Closes the reader of the current chunk and opens the next one.
+         *
+         * @return false if there is no more chunk
+         */
+        private boolean nextChunk() throws IOException, InterruptedException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+                done += split.getLength(chunk);
+            }
+            if (++chunk >= split.getNumPaths()) {
+                return false;
+            }
+            FileSplit fileSplit = getChunk(split, chunk);
+            reader = format.createRecordReader(fileSplit, context);
+            reader.initialize(fileSplit, context);
+            key.chunk = chunk;
+            return true;
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            while (reader != null) {
+                if (reader.nextKeyValue()) {
+                    key.set(reader.getCurrentKey().get());
+                    return true;
+                }
+                nextChunk();
+            }
+            return false;
+        }
+
+        @Override
+        public LongWritable getCurrentKey() {
+            return key;
+        }
+
+        @Override
+        public Text getCurrentValue() throws IOException, InterruptedException {
+            return reader.getCurrentValue();
+        }
+
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            long current = reader != null ? (long) (reader.getProgress() * split.getLength(chunk)) : 0;
+            return split.getLength() == 0 ? 1 : Math.min(1, (done + current) / (float) split.getLength());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The CountKey class is a key of a word and its count, ordered by descending
+ * count and then by word, used to sort the output of {@link WordCount}.
+ *
+ * It is serialized as the inverted count, <code>Long.MAX_VALUE - count</code>,
+ * in a long, followed by the word as a vint length and its bytes. The inverted
+ * count of a count from 0 is not negative, so the bytes of the larger counts
+ * are before the bytes of the smaller ones, and a registered raw comparator
+ * compares the serialized bytes of the counts directly, and then the bytes of
+ * the words, without deserializing. The words of the same count are thus
+ * ordered, so the keys of a count can be split between partitions.
+ */
+public class CountKey implements WritableComparable<CountKey> {
+    private long count;
+    private Text word = new Text();
+
+    static {
+        WritableComparator.define(CountKey.class, new Comparator());
+    }
+
+    public CountKey() {
+    }
+
+    /**
+     * Sets the key, copying the bytes of the word.
+     *
+     * @param word  the word
+     * @param count the count of the word, not negative
+     */
+    public void set(Text word, long count) {
+        this.word.set(word);
+        this.count = count;
+    }
+
+    public Text getWord() {
+        return word;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(Long.MAX_VALUE - count);
+        WritableUtils.writeVInt(out, word.getLength());
+        out.write(word.getBytes(), 0, word.getLength());
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        count = Long.MAX_VALUE - in.readLong();
+        word.readFields(in);
+    }
+
+    @Override
+    public int compareTo(CountKey other) {
+        if (count != other.count) {
+            return Long.compare(other.count, count);
+        }
+        return word.compareTo(other.word);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CountKey && compareTo((CountKey) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return word.hashCode() * 31 + Long.hashCode(count);
+    }
+
+    /**
+     * Returns the word and its count, as in the output of {@link WordCount}.
+     *
+     * @return the word and the count, separated by a tab
+     */
+    @Override
+    public String toString() {
+        return word + "\t" + count;
+    }
+
+    /**
+     * A raw comparator of CountKey, which compares the serialized bytes
+     * directly, the inverted counts and then the words after their lengths.
+     */
+    public static class Comparator extends WritableComparator {
+        public Comparator() {
+            super(CountKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int c = compareBytes(b1, s1, 8, b2, s2, 8);
+            if (c != 0) {
+                return c;
+            }
+            int n1 = WritableUtils.decodeVIntSize(b1[s1 + 8]);
+            int n2 = WritableUtils.decodeVIntSize(b2[s2 + 8]);
+            return compareBytes(b1, s1 + 8 + n1, l1 - 8 - n1, b2, s2 + 8 + n2, l2 - 8 - n2);
+        }
+    }
+}
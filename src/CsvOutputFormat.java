@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * An output format writing the structured events of {@link LogStructuring} as
+ * CSV rows, each row number followed by a comma and the event.
+ *
+ * The header is written, as row 0, before row 1. As the rows are numbered
+ * across the splits by {@link RowNumbering}, the header is written once, by the
+ * task of the first split, however many tasks write rows.
+ *
+ * With {@link #INDEX_KEY} set, a sparse {@link TimeIndex} of the times of the
+ * rows is written along with each file, to be queried by
+ * {@link TimeRangeQuery}.
+ */
+public class CsvOutputFormat extends FileOutputFormat<LongWritable, Text> {
+
+    /**
+     * The configuration key to write a time index along with each file.
+     */
+    public static final String INDEX_KEY = "analysis.structuring.index";
+
+    /**
+     * The configuration key of the maximum number of rows of a block of the
+     * time index.
+     */
+    public static final String INDEX_BLOCK_ROWS_KEY = "analysis.structuring.index.rows";
+
+    private static final byte[] HEADER = ("0," + LogStructuring.HEADER + "\n").getBytes(StandardCharsets.UTF_8);
+
+    @Override
+    public RecordWriter<LongWritable, Text> getRecordWriter(TaskAttemptContext job) throws IOException {
+        Path file = getDefaultWorkFile(job, "");
+        FileSystem fs = file.getFileSystem(job.getConfiguration());
+        final FSDataOutputStream out = fs.create(file, false);
+        final TimeIndex.Writer index = job.getConfiguration().getBoolean(INDEX_KEY, false)
+                ? new TimeIndex.Writer(fs.create(TimeIndex.indexPath(file), false),
+                        job.getConfiguration().getInt(INDEX_BLOCK_ROWS_KEY, TimeIndex.DEFAULT_BLOCK_ROWS))
+                : null;
+        return new RecordWriter<LongWritable, Text>() {
+            @Override
+            public void write(LongWritable key, Text value) throws IOException {
+                if (key.get() == 1) {
+                    out.write(HEADER);
+                }
+                long offset = out.getPos();
+                out.write(Long.toString(key.get()).getBytes(StandardCharsets.UTF_8));
+                out.write(',');
+                out.write(value.getBytes(), 0, value.getLength());
+                out.write('\n');
+                if (index != null) {
+                    index.add(offset, (int) (out.getPos() - offset), time(value));
+                }
+            }
+
+            @Override
+            public void close(TaskAttemptContext context) throws IOException {
+                try {
+                    out.close();
+                } finally {
+                    if (index != null) {
+                        index.close();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the time of a row, which starts with the time followed by a comma.
+     *
+     * @param row the row, without its row number
+     * @return the time in seconds since the epoch, or {@link LogTime#INVALID}
+     */
+    static long time(Text row) {
+        if (row.getLength() <= LogTime.LENGTH || row.getBytes()[LogTime.LENGTH] != ',') {
+            return LogTime.INVALID;
+        }
+        return LogTime.parse(row.getBytes(), 0, LogTime.LENGTH);
+    }
+}
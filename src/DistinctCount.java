@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * A Hadoop MapReduce to estimate the number of distinct values of the
+ * parameters of the events, e.g. of the child PIDs, the scoreboard slots or the
+ * client IPs, per event type, per level and per hour.
+ *
+ * The parameters are the parts of the contents matched by the
+ * <code>\S+</code> of the templates, named by {@link Event.EventId}. The
+ * distinct values of a parameter in a group are counted in a
+ * {@link HyperLogLog} sketch of a fixed size, so the memory and the shuffle
+ * size depend on the number of groups, not on the number of distinct values.
+ * Each mapper keeps a sketch per group and writes the sketches of its split,
+ * which are merged by the combiner and the reducer.
+ *
+ * Each output line is the group, e.g. "Hour: 04", the name of the parameter,
+ * e.g. "pid", and the estimated number of distinct values, separated by tabs.
+ * The parameters of the same name are counted together in a level or an hour,
+ * e.g. the PIDs of both E1 and E5.
+ */
+public class DistinctCount {
+
+    /**
+     * The configuration key of the precision of the sketches, see
+     * {@link HyperLogLog}.
+     */
+    public static final String PRECISION_KEY = "analysis.distinct.precision";
+
+    private static int precision(Configuration conf) {
+        return conf.getInt(PRECISION_KEY, HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    private static final byte[] EVENT_ID = "EventId: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LEVEL = "Level: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TAB = { '\t' };
+    private static final byte[][] EVENT_IDS = new byte[Event.EventId.values().length][];
+    private static final byte[][][] PARAMETERS = new byte[Event.EventId.values().length][][];
+    private static final byte[][] HOURS = new byte[TimeBucket.Dimension.HOUR.size()][];
+
+    static {
+        for (Event.EventId eventType : Event.EventId.values()) {
+            EVENT_IDS[eventType.ordinal()] = eventType.name().getBytes(StandardCharsets.UTF_8);
+            PARAMETERS[eventType.ordinal()] = new byte[eventType.getParameterCount()][];
+            for (int i = 0; i < eventType.getParameterCount(); i++) {
+                PARAMETERS[eventType.ordinal()][i] = eventType.getParameter(i).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        for (int i = 0; i < HOURS.length; i++) {
+            HOURS[i] = new TimeBucket(TimeBucket.Dimension.HOUR, i).toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * <p>
+     * MyMapper is a static inner class that extends the Mapper class. It counts
+     * the distinct values of the parameters of its split in a sketch per group.
+     * </p>
+     *
+     * <p>
+     * The <code>map</code> method parses each line into a reused Event object,
+     * and adds each parameter of a parsed event to the sketches of its event
+     * type, its level and its hour. The sketches are found by a reused key,
+     * without allocating once the groups are known. The <code>cleanup</code>
+     * method writes the sketches.
+     * </p>
+     *
+     * <p>
+     * Output Key: Text (the group and the name of the parameter) Output Value:
+     * HyperLogLog (the sketch of the values of the parameter in the group)
+     * </p>
+     */
+    private static class MyMapper extends Mapper<Object, Text, Text, HyperLogLog> {
+        private Event event = new Event();
+        private TimeBucket timeHour = new TimeBucket();
+        private TimeBucket timeDay = new TimeBucket();
+        private TimeBucket timeWeekDay = new TimeBucket();
+        private TimeBucket timeMonth = new TimeBucket();
+        private Text group = new Text();
+        private Map<Text, HyperLogLog> sketches = new HashMap<Text, HyperLogLog>();
+        private int precision;
+
+        @Override
+        public void setup(Context context) {
+            precision = precision(context.getConfiguration());
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context) {
+            if (!event.set(value)) {
+                return;
+            }
+            Event.EventId eventId = event.gerEventId();
+            if (eventId.getParameterCount() == 0) {
+                return;
+            }
+            byte[] bytes = event.getBytes();
+            byte[] hour = TimeStatistic.extract(bytes, event.getTimeStart(), event.getTimeLength(), timeWeekDay,
+                    timeMonth, timeDay, timeHour) ? HOURS[timeHour.getValue()] : null;
+            for (int i = 0; i < eventId.getParameterCount(); i++) {
+                byte[] parameter = PARAMETERS[eventId.ordinal()][i];
+                long hash = HyperLogLog.hash(bytes, event.getParameterStart(i), event.getParameterLength(i));
+                group.set(EVENT_ID);
+                group.append(EVENT_IDS[eventId.ordinal()], 0, EVENT_IDS[eventId.ordinal()].length);
+                add(parameter, hash);
+                group.set(LEVEL);
+                group.append(bytes, event.getLevelStart(), event.getLevelLength());
+                add(parameter, hash);
+                if (hour != null) {
+                    group.set(hour);
+                    add(parameter, hash);
+                }
+            }
+        }
+
+        /**
+         * Adds a hashed value to the sketch of the parameter in the group set
+         * in the reused key.
+         */
+        private void add(byte[] parameter, long hash) {
+            group.append(TAB, 0, 1);
+            group.append(parameter, 0, parameter.length);
+            HyperLogLog sketch = sketches.get(group);
+            if (sketch == null) {
+                sketch = new HyperLogLog(precision);
+                sketches.put(new Text(group), sketch);
+            }
+            sketch.addHash(hash);
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            for (Map.Entry<Text, HyperLogLog> entry : sketches.entrySet()) {
+                context.write(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * A combiner class that merges the sketches of the map outputs of a mapper.
+     */
+    private static class MyCombiner extends Reducer<Text, HyperLogLog, Text, HyperLogLog> {
+        @Override
+        public void reduce(Text key, Iterable<HyperLogLog> values, Context context)
+                throws IOException, InterruptedException {
+            context.write(key, merge(values, precision(context.getConfiguration())));
+        }
+    }
+
+    /**
+     * <p>
+     * A Reducer class that merges the sketches of all mappers.
+     * </p>
+     *
+     * <p>
+     * The <code>reduce</code> method merges the sketches of a group and writes
+     * the estimated number of distinct values.
+     * </p>
+     *
+     * <p>
+     * Output Key: Text (the group and the name of the parameter) Output Value:
+     * LongWritable (the estimated number of distinct values)
+     * </p>
+     */
+    private static class MyReducer extends Reducer<Text, HyperLogLog, Text, LongWritable> {
+        private LongWritable result = new LongWritable();
+
+        @Override
+        public void reduce(Text key, Iterable<HyperLogLog> values, Context context)
+                throws IOException, InterruptedException {
+            result.set(merge(values, precision(context.getConfiguration())).estimate());
+            context.write(key, result);
+        }
+    }
+
+    /**
+     * Merges sketches, which are read into a reused object by Hadoop, into a
+     * new sketch.
+     */
+    private static HyperLogLog merge(Iterable<HyperLogLog> values, int precision) {
+        HyperLogLog merged = new HyperLogLog(precision);
+        for (HyperLogLog value : values) {
+            merged.merge(value);
+        }
+        return merged;
+    }
+
+    /**
+     * Configures and returns a new Hadoop Job for the distinct counts.
+     *
+     * @param conf   the Hadoop configuration to use for the job
+     * @param input  the input path for the job
+     * @param output the output path for the job
+     * @return a configured Job instance for the distinct counts
+     */
+    public static Job getJob(Configuration conf, Path input, Path output) throws IOException {
+        Job job = new Job(conf, "distinct count");
+        job.setJarByClass(DistinctCount.class);
+        job.setMapperClass(MyMapper.class);
+        job.setCombinerClass(MyCombiner.class);
+        job.setReducerClass(MyReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(HyperLogLog.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(LongWritable.class);
+        LogInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: DistinctCount [-D " + PRECISION_KEY + "=<bits>] <in> <out>");
+            System.exit(2);
+        }
+        Job job = getJob(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
@@ -7,7 +7,6 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
@@ -24,9 +23,17 @@ public class ErrorStatistic {
      * 
      * <p>
      * The <code>map</code> method processes each line of the input, parses it into
-     * an Event object, and checks if the event is parsed successfully. If the event
+     * a reused Event object, and checks if the event is parsed successfully. If the event
      * is parsed successfully, the method sets the event level as the output key and
-     * writes the key-value pair to the context. Else, the method ignores the event.
+     * writes the key-value pair to the context. Else, the method ignores the event,
+     * which is only counted as unparsed by the {@link Instrumentation} of the
+     * mapper, as the events by type and level, with the stages of sampled lines
+     * timed.
+     * </p>
+     * 
+     * <p>
+     * If the in-mapper combining is enabled, the keys are counted locally by an
+     * {@link InMapperCombiner} and written with their counts instead.
      * </p>
      * 
      * <p>
@@ -43,15 +50,41 @@ public class ErrorStatistic {
      */
     private static class MyMapper extends Mapper<Object, Text, Text, IntWritable> {
         private final static IntWritable one = new IntWritable(1);
+        private Event event = new Event();
         private Text eventLevel = new Text();
+        private InMapperCombiner combiner;
+        private Instrumentation instrumentation;
+
+        @Override
+        public void setup(Context context) throws IOException, InterruptedException {
+            combiner = InMapperCombiner.get(context.getConfiguration());
+            instrumentation = new Instrumentation(context.getConfiguration());
+        }
 
         public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-            String line = value.toString();
-            Event event = new Event(line);
-            if (event.isParsed()) {
-                eventLevel.set(event.getLevel());
-                context.write(eventLevel, one);
+            instrumentation.start();
+            if (instrumentation.set(event, value)) {
+                instrumentation.emit();
+                eventLevel.set(event.getBytes(), event.getLevelStart(), event.getLevelLength());
+                write(eventLevel, context);
+            }
+            instrumentation.end();
+        }
+
+        private void write(Text key, Context context) throws IOException, InterruptedException {
+            if (combiner != null) {
+                combiner.write(key, context);
+            } else {
+                context.write(key, one);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            if (combiner != null) {
+                combiner.flush(context);
             }
+            instrumentation.flush(context);
         }
     }
 
@@ -117,7 +150,7 @@ public class ErrorStatistic {
         job.setReducerClass(MyReducer.class);
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(IntWritable.class);
-        FileInputFormat.addInputPath(job, input);
+        LogInputFormat.addInputPath(job, input);
         FileOutputFormat.setOutputPath(job, output);
         return job;
     }
@@ -1,106 +1,623 @@
-import java.util.regex.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
 
 /**
  * The Event class represents a log event with a specific time, level, content, and event ID.
  * It parses a log line to extract these details and determine the event ID based on predefined patterns.
+ *
+ * An Event is a reusable flyweight: {@link #set(Text)} parses a line by scanning its UTF-8 bytes,
+ * and the fields are kept as offset and length views of the bytes of the line, so parsing a line
+ * allocates nothing. The String getters decode the fields on demand.
+ *
+ * An Event is also a Writable of its parsed fields, so it can be passed from the mappers to the
+ * output format without being formatted to CSV.
  */
-public class Event {
-    private String time;
-    private String level;
-    private String content;
+public class Event implements Writable {
+    private static final EventId[] EVENT_IDS = EventId.values();
+    private static final int MAX_PARAMETERS = maxParameters();
+
+    private byte[] bytes = new byte[0];
+    private byte[] fields = new byte[0]; // the bytes of the fields set without a line
+    private int timeStart, timeLength;
+    private int levelStart, levelLength;
+    private int contentStart, contentLength;
+    private boolean found;
     private EventId eventId;
+    private final int[] parameterStarts = new int[MAX_PARAMETERS];
+    private final int[] parameterLengths = new int[MAX_PARAMETERS];
+    private final long[] parameterValues = new long[MAX_PARAMETERS];
+    private boolean parametersFound;
+    private boolean valuesFound;
+
+    private final TemplateMatcher templateMatcher = new TemplateMatcher();
+
+    private static final byte[] UNPARSED = "Unparsed".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] COMMA = { ',' };
+    private static final byte[][] TEMPLATES = new byte[EventId.values().length][];
+
+    static {
+        for (EventId eventType : EventId.values()) {
+            TEMPLATES[eventType.ordinal()] = (eventType.name() + "," + eventType.getTemplate())
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * The value of a parameter which is not a number, see
+     * {@link #getParameterValue(int)}.
+     */
+    public static final long NO_VALUE = Long.MIN_VALUE;
+
+    /**
+     * The types of the parameters of the events, which tell how the bytes of a
+     * parameter are read into its value when the content is matched.
+     */
+    public enum ParameterType {
+        /**
+         * A decimal integer, e.g. a PID or a scoreboard slot, read into a long.
+         */
+        INT,
+        /**
+         * A dotted IPv4 address, read into the unsigned 32-bit address.
+         */
+        IP,
+        /**
+         * Any other text, e.g. a path, kept as the byte range of the parameter.
+         */
+        BYTES
+    }
+
+    /**
+     * A named and typed parameter of an event type.
+     */
+    public static final class Parameter {
+        private final String name;
+        private final ParameterType type;
+
+        private Parameter(String name, ParameterType type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        static Parameter integer(String name) {
+            return new Parameter(name, ParameterType.INT);
+        }
+
+        static Parameter ip(String name) {
+            return new Parameter(name, ParameterType.IP);
+        }
+
+        static Parameter bytes(String name) {
+            return new Parameter(name, ParameterType.BYTES);
+        }
+    }
 
     /**
      * Enum representing various event identifiers with their associated regular expressions.
-     * Each event identifier corresponds to a specific log pattern.
+     * Each event identifier corresponds to a specific log pattern, whose variable parts, the
+     * <code>\\S+</code> in the regular expression, are the named and typed parameters of the event.
      */
     public enum EventId {
-        E1("jk2_init\\(\\) Found child \\S+ in scoreboard slot \\S+"), E2("workerEnv\\.init\\(\\) ok \\S+"),
-        E3("mod_jk child workerEnv in error state \\S+"),
-        E4("\\[client \\S+\\] Directory index forbidden by rule: \\S+"),
-        E5("jk2_init\\(\\) Can't find child \\S+ in scoreboard"), E6("mod_jk child init \\S+ \\S+"), OTHER(".*");
+        E1("jk2_init\\(\\) Found child \\S+ in scoreboard slot \\S+", Parameter.integer("pid"),
+                Parameter.integer("slot")),
+        E2("workerEnv\\.init\\(\\) ok \\S+", Parameter.bytes("config")),
+        E3("mod_jk child workerEnv in error state \\S+", Parameter.integer("state")),
+        E4("\\[client \\S+\\] Directory index forbidden by rule: \\S+", Parameter.ip("client"),
+                Parameter.bytes("rule")),
+        E5("jk2_init\\(\\) Can't find child \\S+ in scoreboard", Parameter.integer("pid")),
+        E6("mod_jk child init \\S+ \\S+", Parameter.integer("arg1"), Parameter.integer("arg2")),
+        OTHER(".*");
 
         private final String regex;
+        private final String template;
+        private final Parameter[] parameters;
 
-        EventId(String regex) {
+        EventId(String regex, Parameter... parameters) {
             this.regex = regex;
+            this.template = regex.replace("\\S+", "<*>");
+            this.parameters = parameters;
         }
 
         public String getRegex() {
             return regex;
         }
 
+        /**
+         * Returns the template of the event type, the regular expression with
+         * its parameters replaced by <code>&lt;*&gt;</code>, as in the
+         * EventTemplate column of {@link LogStructuring}. It is computed once
+         * with the event type.
+         *
+         * @return the template
+         */
+        public String getTemplate() {
+            return template;
+        }
+
+        /**
+         * Returns the number of parameters of the event type.
+         *
+         * @return the number of parameters
+         */
+        public int getParameterCount() {
+            return parameters.length;
+        }
+
+        /**
+         * Returns the name of a parameter of the event type.
+         *
+         * @param index the index of the parameter, in the order of the regular
+         *              expression
+         * @return the name of the parameter, e.g. "pid"
+         */
+        public String getParameter(int index) {
+            return parameters[index].name;
+        }
+
+        /**
+         * Returns the type of a parameter of the event type.
+         *
+         * @param index the index of the parameter, as in
+         *              {@link #getParameter(int)}
+         * @return the type of the parameter
+         */
+        public ParameterType getParameterType(int index) {
+            return parameters[index].type;
+        }
+    }
+
+    private static int maxParameters() {
+        int max = 0;
+        for (EventId eventType : EventId.values()) {
+            max = Math.max(max, eventType.getParameterCount());
+        }
+        return max;
+    }
+
+    /**
+     * Constructs an empty Event object, to be reused by {@link #set(Text)} for
+     * each line.
+     */
+    public Event() {
     }
 
     /**
      * Constructs an Event object by parsing a log line.
      *
      * @param line the log line to be parsed
-     * 
+     *
+     * @see #set(Text)
+     */
+    Event(String line) {
+        set(new Text(line));
+    }
+
+    /**
+     * Parses a log line into this Event object, replacing the previous one.
+     *
      * The log line is expected to be in the format:
      * [time] [level] content
-     * 
-     * The constructor uses a regular expression to extract these components
-     * and assigns them to the corresponding fields. It also attempts to match
-     * the content against predefined event types (EventId) and assigns the
-     * matching event type to the eventId field.
+     *
+     * The line is scanned byte by byte with the same result as the regular
+     * expression <code>\[(.*?)\] \[(.*?)\] (.*)</code> found in the line, and
+     * the components are kept as views of the bytes of the line. It also
+     * attempts to match the content against predefined event types (EventId)
+     * with a {@link TemplateMatcher}, and assigns the matching event type to
+     * the eventId field.
+     *
+     * The bytes of the line are referenced rather than copied, so the line must
+     * not be modified while this Event object is in use.
+     *
+     * @param line the log line to be parsed
+     * @return true if the event is parsed successfully, false otherwise
      */
-    Event(String line) {
-        final Pattern pattern = Pattern.compile("\\[(.*?)\\] \\[(.*?)\\] (.*)");
-        final Matcher matcher = pattern.matcher(line);
-
-        if (matcher.find()) {
-            time = matcher.group(1);
-            level = matcher.group(2);
-            content = matcher.group(3);
-            for (EventId eventType : EventId.values()) {
-                if (content.matches(eventType.getRegex())) {
-                    eventId = eventType;
-                    break;
+    public boolean set(Text line) {
+        setHeader(line);
+        return setEventId();
+    }
+
+    /**
+     * Finds the time, the level and the content of a log line, the first step
+     * of {@link #set(Text)}, which is followed by {@link #setEventId()}.
+     *
+     * @param line the log line to be parsed
+     * @return true if the components are found, false otherwise
+     */
+    boolean setHeader(Text line) {
+        bytes = line.getBytes();
+        found = find(bytes, line.getLength());
+        eventId = null;
+        return found;
+    }
+
+    /**
+     * Matches the content found by {@link #setHeader(Text)} against the
+     * templates, the second step of {@link #set(Text)}.
+     *
+     * @return true if the event is parsed successfully, false otherwise
+     */
+    boolean setEventId() {
+        eventId = found ? templateMatcher.match(bytes, contentStart, contentLength) : null;
+        if (eventId != null) {
+            setParameters();
+        }
+        return isParsed();
+    }
+
+    /**
+     * Keeps the parameters of the content last matched by the template matcher.
+     */
+    private void setParameters() {
+        for (int i = 0; i < eventId.getParameterCount(); i++) {
+            int start = templateMatcher.parameterStart(i);
+            parameterStarts[i] = contentStart + start;
+            parameterLengths[i] = templateMatcher.parameterEnd(i) - start;
+        }
+        parametersFound = true;
+        valuesFound = false;
+    }
+
+    /**
+     * Sets this Event object to parsed fields, replacing the previous one.
+     *
+     * The time, the level and the content are laid out one after another at
+     * the beginning of the bytes, which are referenced rather than copied.
+     *
+     * @param bytes         the bytes of the fields
+     * @param timeLength    the length of the time in bytes
+     * @param levelLength   the length of the level in bytes
+     * @param contentLength the length of the content in bytes
+     * @param eventId       the event type, or null if the event is not parsed
+     */
+    void set(byte[] bytes, int timeLength, int levelLength, int contentLength, EventId eventId) {
+        this.bytes = bytes;
+        this.timeStart = 0;
+        this.timeLength = timeLength;
+        this.levelStart = timeLength;
+        this.levelLength = levelLength;
+        this.contentStart = timeLength + levelLength;
+        this.contentLength = contentLength;
+        this.found = eventId != null;
+        this.eventId = eventId;
+        this.parametersFound = false;
+    }
+
+    /**
+     * Writes the parsed fields of the event, or only a mark if the event is not
+     * parsed.
+     */
+    @Override
+    public void write(DataOutput out) throws IOException {
+        if (!isParsed()) {
+            out.writeByte(-1);
+            return;
+        }
+        out.writeByte(eventId.ordinal());
+        WritableUtils.writeVInt(out, timeLength);
+        WritableUtils.writeVInt(out, levelLength);
+        WritableUtils.writeVInt(out, contentLength);
+        out.write(bytes, timeStart, timeLength);
+        out.write(bytes, levelStart, levelLength);
+        out.write(bytes, contentStart, contentLength);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int ordinal = in.readByte();
+        if (ordinal < 0) {
+            set(fields, 0, 0, 0, null);
+            return;
+        }
+        int timeLength = WritableUtils.readVInt(in);
+        int levelLength = WritableUtils.readVInt(in);
+        int contentLength = WritableUtils.readVInt(in);
+        int length = timeLength + levelLength + contentLength;
+        if (length > fields.length) {
+            fields = new byte[Math.max(length, fields.length * 2)];
+        }
+        in.readFully(fields, 0, length);
+        set(fields, timeLength, levelLength, contentLength, EVENT_IDS[ordinal]);
+    }
+
+    /**
+     * Finds the time, level and content in the bytes of a line.
+     */
+    private boolean find(byte[] bytes, int length) {
+        for (int p = 0; p < length; p++) {
+            if (bytes[p] != '[') {
+                continue;
+            }
+            // Lazily find "] [" after the time, then "] " after the level
+            for (int k = p + 1; k < length && !isTerminator(bytes, k, length); k++) {
+                if (k + 2 >= length || bytes[k] != ']' || bytes[k + 1] != ' ' || bytes[k + 2] != '[') {
+                    continue;
+                }
+                for (int m = k + 3; m < length && !isTerminator(bytes, m, length); m++) {
+                    if (m + 1 < length && bytes[m] == ']' && bytes[m + 1] == ' ') {
+                        int end = m + 2;
+                        while (end < length && !isTerminator(bytes, end, length)) {
+                            end++;
+                        }
+                        timeStart = p + 1;
+                        timeLength = k - timeStart;
+                        levelStart = k + 3;
+                        levelLength = m - levelStart;
+                        contentStart = m + 2;
+                        contentLength = end - contentStart;
+                        return true;
+                    }
                 }
+                // A longer time leaves fewer bytes for the level, so it fails as well
+                break;
             }
         }
+        return false;
+    }
+
+    /**
+     * Checks if a line terminator, which is not matched by ".", starts at the
+     * offset.
+     */
+    private static boolean isTerminator(byte[] bytes, int offset, int length) {
+        byte b = bytes[offset];
+        if (b == '\n' || b == '\r') {
+            return true;
+        }
+        if (b == (byte) 0xC2) {
+            return offset + 1 < length && bytes[offset + 1] == (byte) 0x85;
+        }
+        if (b == (byte) 0xE2) {
+            return offset + 2 < length && bytes[offset + 1] == (byte) 0x80
+                    && (bytes[offset + 2] == (byte) 0xA8 || bytes[offset + 2] == (byte) 0xA9);
+        }
+        return false;
     }
 
     /**
      * Checks if the event has been parsed successfully.
-     * 
+     *
      * @return true if all required fields (time, level, content, eventId) are not null, false otherwise.
      */
     public Boolean isParsed() {
-        if (time == null || level == null || content == null || eventId == null) {
-            return false;
-        }
-        return true;
+        return found && eventId != null;
     }
 
     /**
      * Returns a string representation of the Event object in CSV format.
-     * 
+     *
      * @return a string representation of the Event object.
      */
     @Override
     public String toString() {
-        return isParsed()
-                ? time + "," + level + "," + content + "," + eventId.name() + ","
-                        + eventId.getRegex().replaceAll("\\\\S\\+", "<*>")
-                : "Unparsed";
+        Text csv = new Text();
+        appendCsv(csv);
+        return csv.toString();
+    }
+
+    /**
+     * Appends the CSV representation of the Event object, the same as
+     * {@link #toString()}, to a Text without decoding the bytes.
+     *
+     * @param csv the Text to append to
+     */
+    public void appendCsv(Text csv) {
+        appendCsv(csv, isParsed() ? TEMPLATES[eventId.ordinal()] : null);
+    }
+
+    /**
+     * Appends the CSV representation of the Event object with another event
+     * type and template, e.g. a template learned by a {@link TemplateMiner}.
+     *
+     * @param csv      the Text to append to
+     * @param template the UTF-8 bytes of the event type and the template,
+     *                 separated by a comma
+     */
+    public void appendCsv(Text csv, byte[] template) {
+        if (!isParsed()) {
+            csv.append(UNPARSED, 0, UNPARSED.length);
+            return;
+        }
+        csv.append(bytes, timeStart, timeLength);
+        csv.append(COMMA, 0, 1);
+        csv.append(bytes, levelStart, levelLength);
+        csv.append(COMMA, 0, 1);
+        csv.append(bytes, contentStart, contentLength);
+        csv.append(COMMA, 0, 1);
+        csv.append(template, 0, template.length);
     }
 
     public String getTime() {
-        return time;
+        return found ? decode(timeStart, timeLength) : null;
     }
 
     public String getContent() {
-        return content;
+        return found ? decode(contentStart, contentLength) : null;
     }
 
     public String getLevel() {
-        return level;
+        return found ? decode(levelStart, levelLength) : null;
     }
 
     public EventId gerEventId() {
         return eventId;
     }
+
+    private String decode(int start, int length) {
+        return new String(bytes, start, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the bytes of the line, which the offsets of the fields refer to.
+     *
+     * @return the bytes of the last parsed line
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getTimeStart() {
+        return timeStart;
+    }
+
+    public int getTimeLength() {
+        return timeLength;
+    }
+
+    public int getLevelStart() {
+        return levelStart;
+    }
+
+    public int getLevelLength() {
+        return levelLength;
+    }
+
+    public int getContentStart() {
+        return contentStart;
+    }
+
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Returns the start of a parameter of the content, i.e. of the part matched
+     * by the <code>\\S+</code> of the template. The parameters of fields set
+     * without a line are found by matching the content again on first use.
+     *
+     * @param index the index of the parameter, less than the
+     *              {@link EventId#getParameterCount()} of the event type
+     * @return the offset of the parameter in the bytes
+     */
+    public int getParameterStart(int index) {
+        findParameters();
+        return parameterStarts[index];
+    }
+
+    /**
+     * Returns the length of a parameter of the content.
+     *
+     * @param index the index of the parameter, as in
+     *              {@link #getParameterStart(int)}
+     * @return the length of the parameter in bytes
+     */
+    public int getParameterLength(int index) {
+        findParameters();
+        return parameterLengths[index];
+    }
+
+    /**
+     * Returns the value of a numeric parameter: the value of an
+     * {@link ParameterType#INT} parameter, or the address of an
+     * {@link ParameterType#IP} parameter as an unsigned 32-bit value, e.g.
+     * 0x0A000001 for "10.0.0.1". The values of all the
+     * parameters of the event are read from the bytes found by the template
+     * matcher on first use, without matching the content again.
+     *
+     * @param index the index of the parameter, as in
+     *              {@link #getParameterStart(int)}
+     * @return the value of the parameter, or {@link #NO_VALUE} for a
+     *         {@link ParameterType#BYTES} parameter or bytes not of the type
+     *         of the parameter
+     */
+    public long getParameterValue(int index) {
+        findParameters();
+        if (!valuesFound) {
+            for (int i = 0; i < eventId.getParameterCount(); i++) {
+                parameterValues[i] = parseValue(eventId.getParameterType(i), parameterStarts[i], parameterLengths[i]);
+            }
+            valuesFound = true;
+        }
+        return parameterValues[index];
+    }
+
+    /**
+     * Reads the value of a parameter of a type from its bytes, without decoding
+     * them.
+     */
+    private long parseValue(ParameterType type, int start, int length) {
+        switch (type) {
+        case INT:
+            return parseInt(bytes, start, length);
+        case IP:
+            return parseIp(bytes, start, length);
+        default:
+            return NO_VALUE;
+        }
+    }
+
+    /**
+     * Reads a decimal integer with an optional minus sign, of at most 18
+     * digits so it cannot overflow.
+     */
+    private static long parseInt(byte[] bytes, int start, int length) {
+        int end = start + length;
+        boolean negative = length > 0 && bytes[start] == '-';
+        int p = negative ? start + 1 : start;
+        if (p == end || end - p > 18) {
+            return NO_VALUE;
+        }
+        long value = 0;
+        for (; p < end; p++) {
+            int digit = bytes[p] - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Reads a dotted IPv4 address of four decimal octets.
+     */
+    private static long parseIp(byte[] bytes, int start, int length) {
+        int end = start + length;
+        long address = 0;
+        int octets = 0;
+        int p = start;
+        while (octets < 4) {
+            int octet = 0;
+            int digits = 0;
+            for (; p < end && bytes[p] >= '0' && bytes[p] <= '9' && digits < 3; p++, digits++) {
+                octet = octet * 10 + bytes[p] - '0';
+            }
+            if (digits == 0 || octet > 255) {
+                return NO_VALUE;
+            }
+            address = address << 8 | octet;
+            if (++octets < 4) {
+                if (p == end || bytes[p] != '.') {
+                    return NO_VALUE;
+                }
+                p++;
+            }
+        }
+        return p == end ? address : NO_VALUE;
+    }
+
+    /**
+     * Formats an unsigned 32-bit IPv4 address, as returned by
+     * {@link #getParameterValue(int)}, in dotted form.
+     *
+     * @param address the address
+     * @return the address in dotted form, e.g. "10.0.0.1"
+     */
+    public static String formatIp(long address) {
+        return (address >>> 24 & 0xFF) + "." + (address >>> 16 & 0xFF) + "." + (address >>> 8 & 0xFF) + "."
+                + (address & 0xFF);
+    }
+
+    private void findParameters() {
+        if (!parametersFound && isParsed()) {
+            templateMatcher.match(bytes, contentStart, contentLength);
+            setParameters();
+        }
+    }
 }
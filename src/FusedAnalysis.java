@@ -0,0 +1,361 @@
+import java.io.IOException;
+import java.util.EnumSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * A Hadoop MapReduce to run the analyses of {@link WordCount},
+ * {@link TimeStatistic}, {@link ErrorStatistic} and {@link LogStructuring} in a
+ * single pass over the logs.
+ *
+ * Each line is read and parsed into an {@link Event} only once. The results of
+ * each analysis are written to a sub directory named after the analysis, with
+ * the same content as running the analysis on its own, except for the numbers
+ * of the structured rows: to read the input once, they are not counted before
+ * the job, so the rows of each split are numbered from a first number
+ * reserved for the split by {@link RowNumbering#numberSplits}. They are
+ * unique and in the order of the input, but consecutive only within a split.
+ */
+public class FusedAnalysis {
+
+    /**
+     * The configuration key of the analyses to run, as a comma separated list of
+     * {@link Analysis} names. All analyses are run if it is not set.
+     */
+    public static final String SELECTED_KEY = "analysis.selected";
+
+    /**
+     * The configuration key to run the analyses in a single fused job.
+     */
+    public static final String FUSED_KEY = "analysis.fused";
+
+    /**
+     * Enum representing the analyses that can be fused. The tag is prefixed to
+     * the intermediate keys to tell the analyses apart in the reducer.
+     */
+    public enum Analysis {
+        WordCount('W'), TimeStatistic('T'), ErrorStatistic('E'), LogStructuring('L');
+
+        private final byte tag;
+        private final byte[] tagBytes;
+
+        Analysis(char tag) {
+            this.tag = (byte) tag;
+            this.tagBytes = new byte[] { this.tag };
+        }
+
+        public byte getTag() {
+            return tag;
+        }
+
+        public byte[] getTagBytes() {
+            return tagBytes;
+        }
+
+        /**
+         * Returns the analysis of the given tag.
+         *
+         * @param tag the tag of an intermediate key
+         * @return the analysis, or null if the tag is unknown
+         */
+        public static Analysis of(byte tag) {
+            for (Analysis analysis : values()) {
+                if (analysis.tag == tag) {
+                    return analysis;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final TimeBucket.Dimension[] DIMENSIONS = TimeBucket.Dimension.values();
+
+    /**
+     * Returns the analyses selected in the configuration.
+     *
+     * @param conf the Hadoop configuration
+     * @return the selected analyses
+     * @throws IllegalArgumentException if an unknown analysis is selected
+     */
+    public static EnumSet<Analysis> selected(Configuration conf) {
+        String[] names = conf.getTrimmedStrings(SELECTED_KEY);
+        if (names.length == 0) {
+            return EnumSet.allOf(Analysis.class);
+        }
+        EnumSet<Analysis> analyses = EnumSet.noneOf(Analysis.class);
+        for (String name : names) {
+            analyses.add(Analysis.valueOf(name));
+        }
+        return analyses;
+    }
+
+    /**
+     * <p>
+     * MyMapper is a static inner class that extends the Mapper class. It processes
+     * input key-value pairs to generate a set of intermediate key-value pairs.
+     * </p>
+     *
+     * <p>
+     * The <code>map</code> method parses each line of the input into an Event
+     * object once, and emits the intermediate key-value pairs of every selected
+     * counting analysis, with the keys prefixed by the tag of the analysis. The
+     * structured logs need no reducing, so they are written to the
+     * <code>LogStructuring</code> named output directly, numbered from the first
+     * row reserved for the split by {@link RowNumbering}. If the in-mapper
+     * combining is enabled, the tagged keys are counted locally by an
+     * {@link InMapperCombiner} and written with their counts instead. The
+     * events are counted and the stages of sampled lines timed by an
+     * {@link Instrumentation}.
+     * </p>
+     *
+     * <p>
+     * Key: Object (input key, not used in this implementation) Value: Text (a line
+     * of text from the input)
+     * </p>
+     *
+     * <p>
+     * Output Key: Text (the tagged key of an analysis) Output Value: IntWritable
+     * (the count of the key, which is always 1 in this case)
+     * </p>
+     */
+    private static class MyMapper extends Mapper<Object, Text, Text, IntWritable> {
+        private final static IntWritable one = new IntWritable(1);
+        private EnumSet<Analysis> analyses;
+        private Event event = new Event();
+        private MultipleOutputs<Text, IntWritable> outputs;
+        private WordTokenizer tokenizer = new WordTokenizer();
+        private Text word = new Text();
+        private Text eventLevel = new Text();
+        private TimeBucket timeHour = new TimeBucket();
+        private TimeBucket timeDay = new TimeBucket();
+        private TimeBucket timeWeekDay = new TimeBucket();
+        private TimeBucket timeMonth = new TimeBucket();
+        private byte[] bucket = new byte[2];
+        private Text tagged = new Text();
+        private LongWritable id = new LongWritable();
+        private Text row = new Text();
+        private RowNumbering.Rows rows;
+        private InMapperCombiner combiner;
+        private Instrumentation instrumentation;
+
+        @Override
+        public void setup(Context context) throws IOException, InterruptedException {
+            analyses = selected(context.getConfiguration());
+            combiner = InMapperCombiner.get(context.getConfiguration());
+            instrumentation = new Instrumentation(context.getConfiguration());
+            outputs = new MultipleOutputs<Text, IntWritable>(context);
+            if (analyses.contains(Analysis.LogStructuring)) {
+                rows = new RowNumbering.Rows(context.getConfiguration(), context.getInputSplit());
+            }
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+            instrumentation.start();
+            instrumentation.set(event, value);
+            instrumentation.emit();
+            if (analyses.contains(Analysis.WordCount)) {
+                tokenizer.reset(value);
+                while (tokenizer.next(word)) {
+                    write(Analysis.WordCount, word.getBytes(), word.getLength(), context);
+                }
+            }
+            if (event.isParsed()) {
+                if (analyses.contains(Analysis.TimeStatistic) && TimeStatistic.extract(event.getBytes(),
+                        event.getTimeStart(), event.getTimeLength(), timeWeekDay, timeMonth, timeDay, timeHour)) {
+                    write(timeWeekDay, context);
+                    write(timeMonth, context);
+                    write(timeDay, context);
+                    write(timeHour, context);
+                }
+                if (analyses.contains(Analysis.ErrorStatistic)) {
+                    eventLevel.set(event.getBytes(), event.getLevelStart(), event.getLevelLength());
+                    write(Analysis.ErrorStatistic, eventLevel.getBytes(), eventLevel.getLength(), context);
+                }
+            }
+            if (analyses.contains(Analysis.LogStructuring)) {
+                id.set(rows.next(key));
+                row.clear();
+                event.appendCsv(row);
+                outputs.write(Analysis.LogStructuring.name(), id, row, Analysis.LogStructuring.name() + "/part");
+            }
+            instrumentation.end();
+        }
+
+        /**
+         * Writes a time feature, tagged and followed by its dimension and value as
+         * in the serialized {@link TimeBucket}, which keeps the natural order.
+         */
+        private void write(TimeBucket key, Context context) throws IOException, InterruptedException {
+            bucket[0] = (byte) key.getDimension().ordinal();
+            bucket[1] = (byte) key.getValue();
+            write(Analysis.TimeStatistic, bucket, bucket.length, context);
+        }
+
+        private void write(Analysis analysis, byte[] key, int length, Context context)
+                throws IOException, InterruptedException {
+            tagged.clear();
+            tagged.append(analysis.getTagBytes(), 0, 1);
+            tagged.append(key, 0, length);
+            if (combiner != null) {
+                combiner.write(tagged, context);
+            } else {
+                context.write(tagged, one);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            if (combiner != null) {
+                combiner.flush(context);
+            }
+            instrumentation.flush(context);
+            outputs.close();
+        }
+    }
+
+    /**
+     * A combiner class that sums up the values of the same tagged key.
+     *
+     * Unlike the other analyses, it is not an alias of {@link MyReducer}, since the
+     * reducer writes to the named outputs.
+     */
+    private static class MyCombiner extends Reducer<Text, IntWritable, Text, IntWritable> {
+        private IntWritable result = new IntWritable();
+
+        @Override
+        public void reduce(Text key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int sum = 0;
+            for (IntWritable val : values) {
+                sum += val.get();
+            }
+            result.set(sum);
+            context.write(key, result);
+        }
+    }
+
+    /**
+     * <p>
+     * MyReducer is a static inner class that extends the Reducer class. It
+     * processes a set of intermediate key-value pairs to generate a set of output
+     * key-value pairs.
+     * </p>
+     *
+     * <p>
+     * The <code>reduce</code> method sums up the values of the same tagged key,
+     * strips the tag and writes the key and the sum to the named output of the
+     * analysis. The time features are rendered to their labels here.
+     * </p>
+     *
+     * <p>
+     * Input Key: Text (the tagged key of an analysis) Input Value: IntWritable (the
+     * count of the key)
+     * </p>
+     *
+     * <p>
+     * Output Key: Text (the key of an analysis) Output Value: IntWritable (the
+     * total count of the key)
+     * </p>
+     */
+    private static class MyReducer extends Reducer<Text, IntWritable, Text, IntWritable> {
+        private MultipleOutputs<Text, IntWritable> outputs;
+        private IntWritable result = new IntWritable();
+        private Text untagged = new Text();
+        private TimeBucket bucket = new TimeBucket();
+
+        @Override
+        public void setup(Context context) throws IOException, InterruptedException {
+            outputs = new MultipleOutputs<Text, IntWritable>(context);
+        }
+
+        @Override
+        public void reduce(Text key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int sum = 0;
+            for (IntWritable val : values) {
+                sum += val.get();
+            }
+            Analysis analysis = Analysis.of(key.getBytes()[0]);
+            if (analysis == Analysis.TimeStatistic) {
+                bucket.set(DIMENSIONS[key.getBytes()[1]], key.getBytes()[2] & 0xFF);
+                untagged.set(bucket.toString());
+            } else {
+                untagged.set(key.getBytes(), 1, key.getLength() - 1);
+            }
+            result.set(sum);
+            outputs.write(analysis.name(), untagged, result, analysis.name() + "/part");
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            outputs.close();
+        }
+    }
+
+    /**
+     * Configures and returns a new Hadoop Job for the fused analyses.
+     *
+     * @param conf   the Hadoop configuration to use for the job
+     * @param input  the input path for the job
+     * @param output the output path for the job, under which each analysis writes
+     *               to a sub directory named after it
+     * @return a configured Job instance for the fused analyses, which numbers
+     *         the splits of the structured rows when it is submitted
+     */
+    public static Job getJob(Configuration conf, Path input, Path output) throws IOException {
+        Job job;
+        if (selected(conf).contains(Analysis.LogStructuring)) {
+            job = new ChainedJob(conf, "fused analysis", null, new ChainedJob.Preparation() {
+                @Override
+                public void prepare(Job job) throws IOException, InterruptedException {
+                    RowNumbering.numberSplits(job);
+                }
+            });
+        } else {
+            job = new Job(conf, "fused analysis");
+        }
+        job.setJarByClass(FusedAnalysis.class);
+        job.setMapperClass(MyMapper.class);
+        job.setCombinerClass(MyCombiner.class);
+        job.setReducerClass(MyReducer.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(IntWritable.class);
+        for (Analysis analysis : Analysis.values()) {
+            if (analysis == Analysis.LogStructuring) {
+                MultipleOutputs.addNamedOutput(job, analysis.name(), CsvOutputFormat.class, LongWritable.class,
+                        Text.class);
+            } else {
+                MultipleOutputs.addNamedOutput(job, analysis.name(), TextOutputFormat.class, Text.class,
+                        IntWritable.class);
+            }
+        }
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+        LogInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: FusedAnalysis [-D " + SELECTED_KEY + "=<analysis,...>] <in> <out>");
+            System.exit(2);
+        }
+        Job job = getJob(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
@@ -0,0 +1,542 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * The GzipIndex class is an index of the members of a gzip file, so the file
+ * can be read from the start of any of its members, and split into as many
+ * inputs by {@link LogInputFormat}.
+ *
+ * A gzip file is a sequence of members, each compressed on its own, which
+ * decompress into the concatenation of their contents. The deflate stream of a
+ * member cannot be entered in the middle, but a member can be decompressed from
+ * its start. The index holds the compressed and the uncompressed offsets of
+ * the members starting at the start of a line, and the end of the last member,
+ * so a file can be split at these offsets into inputs of whole lines.
+ *
+ * A gzip file written by a single stream, as by gzip or logrotate, has a single
+ * member. Such a file is rewritten by {@link #rechunk} into members of a given
+ * size, ending at the ends of lines, which decompress into the same contents.
+ *
+ * The index of a file is stored next to it, in a file named after it with a
+ * leading "_", so it is ignored as an input by Hadoop, as the
+ * {@link TimeIndex}. It holds the length of the file, so the index of a file
+ * which was changed since is not used.
+ */
+public class GzipIndex {
+
+    /**
+     * The extension of the index files.
+     */
+    public static final String EXTENSION = ".idx";
+
+    /**
+     * The configuration key of the uncompressed size of the members written by
+     * {@link #rechunk}.
+     */
+    public static final String MEMBER_SIZE_KEY = "analysis.gzip.member";
+
+    /**
+     * The configuration key to rewrite the gzip files with too few members
+     * into members of {@link #MEMBER_SIZE_KEY} when indexing them.
+     */
+    public static final String RECHUNK_KEY = "analysis.gzip.rechunk";
+
+    public static final long DEFAULT_MEMBER_SIZE = 16 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long length;
+    private final long[] compressedOffsets; // and the end of the last member
+    private final long[] uncompressedOffsets; // and the uncompressed length
+
+    private GzipIndex(long length, long[] compressedOffsets, long[] uncompressedOffsets) {
+        this.length = length;
+        this.compressedOffsets = compressedOffsets;
+        this.uncompressedOffsets = uncompressedOffsets;
+    }
+
+    /**
+     * Returns the path of the index of a file.
+     *
+     * @param file the path of the indexed file
+     * @return the path of the index
+     */
+    public static Path indexPath(Path file) {
+        return new Path(file.getParent(), "_" + file.getName() + EXTENSION);
+    }
+
+    /**
+     * Returns the number of members starting at the start of a line.
+     *
+     * @return the number of members
+     */
+    public int getMembers() {
+        return compressedOffsets.length - 1;
+    }
+
+    /**
+     * Returns the compressed offset of a member, or the end of the last member.
+     *
+     * @param member the index of the member, up to {@link #getMembers()}
+     * @return the offset in the file
+     */
+    public long getCompressedOffset(int member) {
+        return compressedOffsets[member];
+    }
+
+    /**
+     * Returns the uncompressed offset of a member, or the uncompressed length.
+     *
+     * @param member the index of the member, up to {@link #getMembers()}
+     * @return the offset in the uncompressed contents
+     */
+    public long getUncompressedOffset(int member) {
+        return uncompressedOffsets[member];
+    }
+
+    /**
+     * Writes the index.
+     *
+     * @param out the output stream of the index, which is not closed
+     * @throws IOException if the index cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeLong(length);
+        data.writeInt(getMembers());
+        for (int i = 0; i <= getMembers(); i++) {
+            data.writeLong(compressedOffsets[i]);
+            data.writeLong(uncompressedOffsets[i]);
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads an index.
+     *
+     * @param in the input stream of the index, which is not closed
+     * @return the index
+     * @throws IOException if the index cannot be read
+     */
+    public static GzipIndex read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        long length = data.readLong();
+        int members = data.readInt();
+        long[] compressedOffsets = new long[members + 1];
+        long[] uncompressedOffsets = new long[members + 1];
+        for (int i = 0; i <= members; i++) {
+            compressedOffsets[i] = data.readLong();
+            uncompressedOffsets[i] = data.readLong();
+        }
+        return new GzipIndex(length, compressedOffsets, uncompressedOffsets);
+    }
+
+    /**
+     * Reads the index of a file, if it has one up to date.
+     *
+     * @param fs   the file system of the file
+     * @param file the status of the file
+     * @return the index, or null if the file has no index or the file was
+     *         changed since it was indexed
+     * @throws IOException if the index cannot be read
+     */
+    public static GzipIndex load(FileSystem fs, FileStatus file) throws IOException {
+        Path path = indexPath(file.getPath());
+        if (!fs.exists(path)) {
+            return null;
+        }
+        GzipIndex index;
+        try (InputStream in = fs.open(path)) {
+            index = read(in);
+        }
+        return index.length == file.getLen() ? index : null;
+    }
+
+    /**
+     * Builds the index of a gzip file by decompressing its members.
+     *
+     * @param in     the input stream of the file, which is not closed
+     * @param length the length of the file
+     * @return the index
+     * @throws IOException if the file is not in the gzip format
+     */
+    public static GzipIndex build(InputStream in, long length) throws IOException {
+        MemberScanner scanner = new MemberScanner(in);
+        LongList compressed = new LongList();
+        LongList uncompressed = new LongList();
+        boolean lineStart = true;
+        while (scanner.hasMember()) {
+            if (lineStart) {
+                compressed.add(scanner.compressed);
+                uncompressed.add(scanner.uncompressed);
+            }
+            lineStart = scanner.skipMember();
+        }
+        compressed.add(scanner.compressed);
+        uncompressed.add(scanner.uncompressed);
+        return new GzipIndex(length, compressed.toArray(), uncompressed.toArray());
+    }
+
+    /**
+     * Rewrites the contents of a gzip file into members of a given size,
+     * ending at the ends of lines, and builds their index.
+     *
+     * @param in         the decompressed contents
+     * @param out        the output stream of the gzip file, which is not closed
+     * @param memberSize the uncompressed size of the members, exceeded by less
+     *                   than a line
+     * @return the index of the written file
+     * @throws IOException if the contents cannot be read or written
+     */
+    public static GzipIndex rechunk(InputStream in, OutputStream out, long memberSize) throws IOException {
+        CountingOutputStream counting = new CountingOutputStream(out);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        LongList compressed = new LongList();
+        LongList uncompressed = new LongList();
+        long total = 0;
+        GZIPOutputStream member = null;
+        long memberLength = 0;
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) > 0) {
+            int start = 0;
+            while (start < n) {
+                if (member == null) {
+                    compressed.add(counting.count);
+                    uncompressed.add(total);
+                    member = new GZIPOutputStream(counting, BUFFER_SIZE);
+                    memberLength = 0;
+                }
+                // Write up to the end of the first line past the member size
+                int end = n;
+                if (memberLength + (n - start) >= memberSize) {
+                    int i = (int) Math.max(start, Math.min(n, start + memberSize - memberLength - 1));
+                    while (i < n && buffer[i] != '\n') {
+                        i++;
+                    }
+                    end = i < n ? i + 1 : n;
+                }
+                member.write(buffer, start, end - start);
+                memberLength += end - start;
+                total += end - start;
+                if (memberLength >= memberSize && buffer[end - 1] == '\n') {
+                    member.close();
+                    member = null;
+                }
+                start = end;
+            }
+        }
+        if (member != null) {
+            member.close();
+        }
+        compressed.add(counting.count);
+        uncompressed.add(total);
+        return new GzipIndex(counting.count, compressed.toArray(), uncompressed.toArray());
+    }
+
+    /**
+     * Indexes a gzip file, rewriting it first if it should be rechunked and its
+     * members are larger than twice the member size.
+     *
+     * @param conf the configuration of the file system and the keys of this
+     *             class
+     * @param file the path of the file
+     * @return the index
+     * @throws IOException if the file cannot be read or written
+     */
+    public static GzipIndex index(Configuration conf, Path file) throws IOException {
+        FileSystem fs = file.getFileSystem(conf);
+        FileStatus status = fs.getFileStatus(file);
+        GzipIndex index;
+        try (InputStream in = fs.open(file)) {
+            index = build(in, status.getLen());
+        }
+        long memberSize = conf.getLongBytes(MEMBER_SIZE_KEY, DEFAULT_MEMBER_SIZE);
+        if (conf.getBoolean(RECHUNK_KEY, false) && index.getLargestMember() > 2 * memberSize) {
+            // Rewrite to a temporary file, renamed over the file when complete
+            Path temporary = new Path(file.getParent(), "_" + file.getName() + ".tmp");
+            CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+            Decompressor decompressor = CodecPool.getDecompressor(codec);
+            try (InputStream in = codec.createInputStream(fs.open(file), decompressor);
+                    FSDataOutputStream out = fs.create(temporary, true)) {
+                index = rechunk(in, out, memberSize);
+            } catch (IOException e) {
+                fs.delete(temporary, false);
+                throw e;
+            } finally {
+                CodecPool.returnDecompressor(decompressor);
+            }
+            replace(fs, file, temporary);
+        }
+        try (FSDataOutputStream out = fs.create(indexPath(file), true)) {
+            index.write(out);
+        }
+        return index;
+    }
+
+    /**
+     * Replaces a file by a rewritten copy. The file is moved aside first, as a
+     * rename does not replace an existing file on every file system, and moved
+     * back if the copy cannot take its place, so the file is never lost: it is
+     * either the original or the copy.
+     */
+    private static void replace(FileSystem fs, Path file, Path copy) throws IOException {
+        Path original = new Path(file.getParent(), "_" + file.getName() + ".orig");
+        if (!fs.rename(file, original)) {
+            fs.delete(copy, false);
+            throw new IOException("Cannot replace " + file + " by " + copy);
+        }
+        if (!fs.rename(copy, file)) {
+            if (!fs.rename(original, file)) {
+                throw new IOException("Cannot replace " + file + " by " + copy + ", nor restore it from " + original);
+            }
+            fs.delete(copy, false);
+            throw new IOException("Cannot replace " + file + " by " + copy + ", the original was restored");
+        }
+        fs.delete(original, false);
+    }
+
+    /**
+     * Returns the largest uncompressed size between two members of the index.
+     *
+     * @return the size in bytes
+     */
+    public long getLargestMember() {
+        long largest = 0;
+        for (int i = 0; i < getMembers(); i++) {
+            largest = Math.max(largest, uncompressedOffsets[i + 1] - uncompressedOffsets[i]);
+        }
+        return largest;
+    }
+
+    /**
+     * The MemberScanner class reads the members of a gzip stream one by one,
+     * keeping the compressed and the uncompressed offsets of the next member.
+     */
+    private static class MemberScanner {
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private final byte[] output = new byte[BUFFER_SIZE];
+        private final Inflater inflater = new Inflater(true);
+        private int position;
+        private int limit;
+        private long compressed; // the offset of the buffer position
+        private long uncompressed;
+
+        MemberScanner(InputStream in) {
+            this.in = in;
+        }
+
+        private boolean fill() throws IOException {
+            if (position < limit) {
+                return true;
+            }
+            int n = in.read(buffer, 0, buffer.length);
+            if (n <= 0) {
+                return false;
+            }
+            position = 0;
+            limit = n;
+            return true;
+        }
+
+        private int readByte() throws IOException {
+            if (!fill()) {
+                throw new EOFException("Truncated gzip member at " + compressed);
+            }
+            compressed++;
+            return buffer[position++] & 0xFF;
+        }
+
+        private void skip(int n) throws IOException {
+            for (int i = 0; i < n; i++) {
+                readByte();
+            }
+        }
+
+        /**
+         * Checks if another member follows, ignoring a trailing padding of
+         * zeros.
+         */
+        boolean hasMember() throws IOException {
+            if (!fill()) {
+                return false;
+            }
+            if (buffer[position] == 0) {
+                return false;
+            }
+            if ((buffer[position] & 0xFF) != 0x1F) {
+                throw new IOException("Not a gzip member at " + compressed);
+            }
+            return true;
+        }
+
+        /**
+         * Decompresses a member.
+         *
+         * @return true if the contents of the member are empty or end with a
+         *         line feed
+         */
+        boolean skipMember() throws IOException {
+            // The header, see RFC 1952
+            if (readByte() != 0x1F || readByte() != 0x8B || readByte() != 8) {
+                throw new IOException("Not a deflate gzip member before " + compressed);
+            }
+            int flags = readByte();
+            skip(6);
+            if ((flags & 4) != 0) {
+                skip(readByte() | readByte() << 8);
+            }
+            if ((flags & 8) != 0) {
+                while (readByte() != 0) {
+                }
+            }
+            if ((flags & 16) != 0) {
+                while (readByte() != 0) {
+                }
+            }
+            if ((flags & 2) != 0) {
+                skip(2);
+            }
+            // The deflate stream
+            boolean lineEnd = true;
+            inflater.reset();
+            try {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        if (!fill()) {
+                            throw new EOFException("Truncated gzip member at " + compressed);
+                        }
+                        inflater.setInput(buffer, position, limit - position);
+                    }
+                    int n = inflater.inflate(output);
+                    if (n > 0) {
+                        uncompressed += n;
+                        lineEnd = output[n - 1] == '\n';
+                    } else if (inflater.needsDictionary()) {
+                        throw new IOException("Unsupported gzip member before " + compressed);
+                    }
+                    int consumed = limit - position - inflater.getRemaining();
+                    position += consumed;
+                    compressed += consumed;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt gzip member before " + compressed, e);
+            }
+            // The trailer, the CRC-32 and the size
+            skip(8);
+            return lineEnd;
+        }
+    }
+
+    /**
+     * The CountingOutputStream class counts the bytes written to a stream, and
+     * only flushes it when closed, so each member can be closed.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * A growable array of longs.
+     */
+    private static class LongList {
+        private long[] values = new long[16];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                long[] newValues = new long[size * 2];
+                System.arraycopy(values, 0, newValues, 0, size);
+                values = newValues;
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            long[] array = new long[size];
+            System.arraycopy(values, 0, array, 0, size);
+            return array;
+        }
+    }
+
+    /**
+     * Returns if a file is compressed by gzip, by its extension.
+     *
+     * @param conf the configuration of the codecs
+     * @param file the path of the file
+     * @return true if the file is a gzip file
+     */
+    public static boolean isGzip(Configuration conf, Path file) {
+        return new CompressionCodecFactory(conf).getCodec(file) instanceof GzipCodec;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length < 1) {
+            System.err.println("Usage: GzipIndex [-D " + RECHUNK_KEY + "=true] [-D " + MEMBER_SIZE_KEY
+                    + "=<size, e.g. 16m>] <file.gz or directory>...");
+            System.exit(2);
+        }
+        for (String arg : otherArgs) {
+            Path path = new Path(arg);
+            FileSystem fs = path.getFileSystem(conf);
+            for (FileStatus status : fs.listStatus(path)) {
+                String name = status.getPath().getName();
+                if (!status.isFile() || name.startsWith("_") || name.startsWith(".")
+                        || !isGzip(conf, status.getPath())) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                GzipIndex index = index(conf, status.getPath());
+                System.out.printf("%s: %d members, %s uncompressed, largest %s, in %.1f s%n", status.getPath(),
+                        index.getMembers(),
+                        StringUtils.TraditionalBinaryPrefix.long2String(index.getUncompressedOffset(index.getMembers()), "B", 1),
+                        StringUtils.TraditionalBinaryPrefix.long2String(index.getLargestMember(), "B", 1),
+                        (System.nanoTime() - start) / 1e9);
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The HyperLogLog class is a HyperLogLog sketch of the number of distinct
+ * values of a stream, in a fixed number of small registers.
+ *
+ * Each value is hashed to 64 bits. The first bits of the hash select a
+ * register, which keeps the largest position of the first 1 bit of the other
+ * bits seen so far. With 2^p registers, the relative standard error of the
+ * estimate is about 1.04 / sqrt(2^p), e.g. 1.6% with p = 12, whatever the
+ * number of values, and a sketch takes 2^p bytes, e.g. 4 KB.
+ *
+ * Sketches are mergeable: the register by register maximum of the sketches of
+ * two streams is the sketch of both streams, so sketches of splits can be
+ * merged in any order with no loss. The estimate is computed from the histogram
+ * of the registers as by Ertl, "New cardinality estimation algorithms for
+ * HyperLogLog sketches" (2017), which is unbiased from small to large numbers
+ * without empirical correction tables.
+ *
+ * A sketch with few set registers is serialized sparsely, as the set registers
+ * only, so the sketches of small groups stay small in the shuffle.
+ */
+public class HyperLogLog implements Writable {
+
+    /**
+     * The default precision, i.e. the number of bits selecting a register.
+     */
+    public static final int DEFAULT_PRECISION = 12;
+
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 18;
+    private static final long SEED = 0x9747b28cL;
+
+    private int precision;
+    private byte[] registers = new byte[0];
+
+    /**
+     * Constructs an empty sketch, to be read by {@link #readFields(DataInput)}.
+     */
+    public HyperLogLog() {
+    }
+
+    /**
+     * Constructs an empty sketch.
+     *
+     * @param precision the number of bits selecting a register, from 4 to 18
+     */
+    public HyperLogLog(int precision) {
+        setPrecision(precision);
+    }
+
+    private void setPrecision(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid precision " + precision);
+        }
+        this.precision = precision;
+        if (registers.length != 1 << precision) {
+            registers = new byte[1 << precision];
+        } else {
+            clear();
+        }
+    }
+
+    /**
+     * Removes all the values.
+     */
+    public void clear() {
+        Arrays.fill(registers, (byte) 0);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param bytes  the bytes containing the value
+     * @param start  the start offset of the value in the bytes
+     * @param length the length of the value in bytes
+     */
+    public void add(byte[] bytes, int start, int length) {
+        addHash(hash(bytes, start, length));
+    }
+
+    /**
+     * Adds a value given by its hash.
+     *
+     * @param hash the hash of the value, as by {@link #hash(byte[], int, int)}
+     */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // A sentinel bit bounds the rank by 64 - p + 1
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Merges another sketch into this sketch.
+     *
+     * @param other the sketch to merge, of the same precision, which is not
+     *              modified
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge a sketch of precision " + other.precision
+                    + " into a sketch of precision " + precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Estimates the number of distinct values.
+     *
+     * @return the estimate
+     */
+    public long estimate() {
+        int q = 64 - precision;
+        int m = registers.length;
+        int[] histogram = new int[q + 2];
+        for (byte register : registers) {
+            histogram[register]++;
+        }
+        if (histogram[0] == m) {
+            return 0;
+        }
+        double z = m * tau(1 - (double) histogram[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z = 0.5 * (z + histogram[k]);
+        }
+        z += m * sigma((double) histogram[0] / m);
+        return Math.round(m / (2 * Math.log(2)) * m / z);
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+
+    /**
+     * Hashes bytes to 64 bits by MurmurHash64A, finalized as MurmurHash3. The
+     * finalization of MurmurHash64A mixes values differing in the last bytes,
+     * e.g. close IPs or PIDs, too little into the bits selecting a register.
+     *
+     * @param bytes  the bytes containing the value
+     * @param start  the start offset of the value in the bytes
+     * @param length the length of the value in bytes
+     * @return the hash
+     */
+    public static long hash(byte[] bytes, int start, int length) {
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+        long h = SEED ^ (length * m);
+        int end = start + (length & ~7);
+        for (int i = start; i < end; i += 8) {
+            long k = (bytes[i] & 0xFFL) | (bytes[i + 1] & 0xFFL) << 8 | (bytes[i + 2] & 0xFFL) << 16
+                    | (bytes[i + 3] & 0xFFL) << 24 | (bytes[i + 4] & 0xFFL) << 32 | (bytes[i + 5] & 0xFFL) << 40
+                    | (bytes[i + 6] & 0xFFL) << 48 | (bytes[i + 7] & 0xFFL) << 56;
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h ^= k;
+            h *= m;
+        }
+        int rest = length & 7;
+        if (rest > 0) {
+            for (int i = rest - 1; i >= 0; i--) {
+                h ^= (bytes[end + i] & 0xFFL) << (8 * i);
+            }
+            h *= m;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, precision);
+        int set = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                set++;
+            }
+        }
+        // An index delta and a register take at most 4 bytes
+        if (set * 4 < registers.length) {
+            WritableUtils.writeVInt(out, set);
+            int previous = 0;
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != 0) {
+                    WritableUtils.writeVInt(out, i - previous);
+                    out.writeByte(registers[i]);
+                    previous = i;
+                }
+            }
+        } else {
+            WritableUtils.writeVInt(out, -1);
+            out.write(registers);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        setPrecision(WritableUtils.readVInt(in));
+        int set = WritableUtils.readVInt(in);
+        if (set < 0) {
+            in.readFully(registers);
+            return;
+        }
+        int index = 0;
+        for (int n = 0; n < set; n++) {
+            index += WritableUtils.readVInt(in);
+            registers[index] = in.readByte();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * The InMapperCombiner class counts the keys of a mapper locally before they
+ * are written to the context.
+ *
+ * Instead of writing <code>(key, 1)</code> for every key and leaving it to the
+ * combiner, the counts are kept in a {@link BytesIntHashMap} and written as
+ * <code>(key, count)</code> when the map is full and when the mapper finishes.
+ * This saves the serialization, sort buffer and spills of the repeated keys,
+ * which matters most for keys with a low cardinality such as the log level.
+ */
+public class InMapperCombiner {
+
+    /**
+     * The configuration key to enable the in-mapper combining.
+     */
+    public static final String ENABLED_KEY = "analysis.inmapper.enabled";
+
+    /**
+     * The configuration key of the bound of the memory used by the local counts
+     * of a mapper, in bytes.
+     */
+    public static final String MEMORY_KEY = "analysis.inmapper.memory";
+
+    public static final long DEFAULT_MEMORY = 16 * 1024 * 1024;
+
+    private final BytesIntHashMap counts;
+    private Text key = new Text();
+    private IntWritable count = new IntWritable();
+
+    private InMapperCombiner(long maxBytes) {
+        counts = new BytesIntHashMap(maxBytes);
+    }
+
+    /**
+     * Returns an InMapperCombiner configured for a mapper.
+     *
+     * @param conf the Hadoop configuration of the mapper
+     * @return a new InMapperCombiner, or null if the in-mapper combining is not
+     *         enabled
+     */
+    public static InMapperCombiner get(Configuration conf) {
+        if (!conf.getBoolean(ENABLED_KEY, false)) {
+            return null;
+        }
+        return new InMapperCombiner(conf.getLong(MEMORY_KEY, DEFAULT_MEMORY));
+    }
+
+    /**
+     * Counts a key once, writing out the local counts first if there is no more
+     * memory for the key.
+     *
+     * @param key     the key to count
+     * @param context the context to write to
+     */
+    public void write(Text key, TaskInputOutputContext<?, ?, Text, IntWritable> context)
+            throws IOException, InterruptedException {
+        write(key.getBytes(), 0, key.getLength(), context);
+    }
+
+    /**
+     * Counts a key given as bytes once, writing out the local counts first if
+     * there is no more memory for the key.
+     *
+     * @param bytes   the bytes containing the key
+     * @param start   the start offset of the key in the bytes
+     * @param length  the length of the key in bytes
+     * @param context the context to write to
+     */
+    public void write(byte[] bytes, int start, int length, TaskInputOutputContext<?, ?, Text, IntWritable> context)
+            throws IOException, InterruptedException {
+        if (!counts.increment(bytes, start, length, 1)) {
+            flush(context);
+            counts.increment(bytes, start, length, 1);
+        }
+    }
+
+    /**
+     * Writes out the local counts and clears them. It should be called in the
+     * <code>cleanup</code> method of the mapper.
+     *
+     * @param context the context to write to
+     */
+    public void flush(TaskInputOutputContext<?, ?, Text, IntWritable> context)
+            throws IOException, InterruptedException {
+        byte[] keys = counts.keyBytes();
+        for (int entry = 0; entry < counts.size(); entry++) {
+            key.set(keys, counts.keyOffset(entry), counts.keyLength(entry));
+            count.set(counts.count(entry));
+            context.write(key, count);
+        }
+        counts.clear();
+    }
+}
@@ -0,0 +1,443 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * An incremental mode to analyze append-only Apache logs, which only processes
+ * the data appended since the previous run.
+ *
+ * A checkpoint is kept in the output directory, in a <code>_checkpoint</code>
+ * file ignored by Hadoop as an input. It holds the byte offset read so far in
+ * each input file and the {@link Aggregates} of the counting analyses and of
+ * the events by template up to those offsets. A run processes the appended
+ * ranges with a {@link FusedAnalysis} job reading them through
+ * {@link AppendedInputFormat}, merges its results into the checkpointed
+ * aggregates, and rewrites the results. The counts of the events by template
+ * are written to the {@link Aggregates#EVENT_IDS_OUTPUT} sub directory.
+ *
+ * The structured rows of each run are added to the LogStructuring output as
+ * files of their own, <code>part-m-RRRRR-NNNNN</code> for the run R, numbered
+ * as in the fused job from the first number after the rows reserved by the
+ * previous runs, so the numbers are unique and in the order of the input.
+ *
+ * Only complete lines are checkpointed. A last line without a line feed is
+ * included in the results of the run, but is read again by the next run, as
+ * more of it may be appended: there is at most one such line per file, which
+ * is read by the client, and its row is written to the file
+ * <code>part-m-tail</code>, replaced by each run. The results are thus the
+ * same as a full run on the same input, except for the numbers of the rows.
+ *
+ * If an input file was removed, became shorter or was replaced by another file,
+ * its counts cannot be taken back, so the checkpoint is dropped and everything
+ * is processed again. So is it if the rows of the LogStructuring output are
+ * missing or shorter than checkpointed, as the earlier rows cannot be written
+ * again otherwise. A compressed file cannot be read from an offset, so it is
+ * processed whole when it appears and must not change afterwards.
+ */
+public class IncrementalAnalysis {
+
+    /**
+     * The configuration key to run the analyses incrementally in
+     * {@link ApacheLogAnalysis}.
+     */
+    public static final String INCREMENTAL_KEY = "analysis.incremental";
+
+    static final String CHECKPOINT = "_checkpoint";
+
+    private static final String TAIL = "part-m-tail";
+
+    private static final int VERSION = 2;
+
+    /**
+     * The number of bytes at the beginning of a file used to recognize it.
+     */
+    private static final int FINGERPRINT_LENGTH = 1024;
+
+    /**
+     * The state of the previous run.
+     */
+    static class Checkpoint {
+        EnumSet<FusedAnalysis.Analysis> analyses;
+        Map<String, long[]> files = new LinkedHashMap<String, long[]>(); // path -> { offset, fingerprint }
+        int runs; // the number of runs with structured rows
+        long nextRow = 1; // the first number after the rows reserved by the runs
+        long rowsLength; // the length of the LogStructuring files of the runs
+        Aggregates aggregates;
+
+        Checkpoint(EnumSet<FusedAnalysis.Analysis> analyses) {
+            this.analyses = analyses;
+            this.aggregates = new Aggregates(analyses);
+        }
+
+        static Checkpoint read(FileSystem fs, Path file) throws IOException {
+            try (DataInputStream in = fs.open(file)) {
+                if (in.readInt() != VERSION) {
+                    return null;
+                }
+                EnumSet<FusedAnalysis.Analysis> analyses = EnumSet.noneOf(FusedAnalysis.Analysis.class);
+                for (int i = in.readInt(); i > 0; i--) {
+                    analyses.add(FusedAnalysis.Analysis.of(in.readByte()));
+                }
+                Checkpoint checkpoint = new Checkpoint(analyses);
+                for (int i = in.readInt(); i > 0; i--) {
+                    checkpoint.files.put(in.readUTF(), new long[] { in.readLong(), in.readLong() });
+                }
+                checkpoint.runs = in.readInt();
+                checkpoint.nextRow = in.readLong();
+                checkpoint.rowsLength = in.readLong();
+                checkpoint.aggregates.readFields(in);
+                return checkpoint;
+            }
+        }
+
+        /**
+         * Writes the checkpoint to a temporary file and renames it, so a
+         * failed write leaves the previous checkpoint or none, never a partial
+         * one.
+         */
+        void write(FileSystem fs, Path file) throws IOException {
+            Path temporary = new Path(file.getParent(), file.getName() + ".tmp");
+            try (DataOutputStream out = fs.create(temporary, true)) {
+                out.writeInt(VERSION);
+                out.writeInt(analyses.size());
+                for (FusedAnalysis.Analysis analysis : analyses) {
+                    out.writeByte(analysis.getTag());
+                }
+                out.writeInt(files.size());
+                for (Map.Entry<String, long[]> entry : files.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue()[0]);
+                    out.writeLong(entry.getValue()[1]);
+                }
+                out.writeInt(runs);
+                out.writeLong(nextRow);
+                out.writeLong(rowsLength);
+                aggregates.write(out);
+            }
+            fs.delete(file, false);
+            if (!fs.rename(temporary, file)) {
+                throw new IOException("Cannot rename " + temporary + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Runs the selected analyses on the data appended to the input since the
+     * previous run, and updates the results in the output directory.
+     *
+     * @param conf   the configuration of the analyses
+     * @param input  the input file or directory
+     * @param output the output directory, which is created by the first run
+     * @return the number of bytes processed
+     * @throws IOException if the input cannot be read, the output cannot be
+     *                     written or the job fails
+     */
+    public static long run(Configuration conf, Path input, Path output)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        EnumSet<FusedAnalysis.Analysis> analyses = FusedAnalysis.selected(conf);
+        FileSystem inputFs = input.getFileSystem(conf);
+        FileSystem fs = output.getFileSystem(conf);
+        Path checkpointFile = new Path(output, CHECKPOINT);
+        Checkpoint checkpoint = fs.exists(checkpointFile) ? Checkpoint.read(fs, checkpointFile) : null;
+        List<FileStatus> inputs = listInputs(inputFs, input);
+        String reason = checkpoint == null ? null : validate(checkpoint, analyses, inputFs, inputs, fs, output);
+        if (checkpoint == null || reason != null) {
+            if (reason != null) {
+                System.out.println("Processing everything again: " + reason);
+            }
+            checkpoint = new Checkpoint(analyses);
+            fs.delete(new Path(output, FusedAnalysis.Analysis.LogStructuring.name()), true);
+        }
+
+        // Set the appended ranges of complete lines for the job, and keep the
+        // last lines without a line feed for the client
+        Configuration jobConf = new Configuration(conf);
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+        Map<Path, long[]> tails = new LinkedHashMap<Path, long[]>();
+        long processed = 0;
+        long appended = 0;
+        for (FileStatus status : inputs) {
+            Path file = status.getPath();
+            long[] state = checkpoint.files.get(file.toString());
+            long offset = state != null ? state[0] : 0;
+            long size = status.getLen();
+            long end = codecs.getCodec(file) != null ? size : lineEnd(inputFs, file, offset, size);
+            AppendedInputFormat.setRange(jobConf, file, offset, end);
+            if (end < size) {
+                tails.put(file, new long[] { end, size });
+            }
+            checkpoint.files.put(file.toString(), new long[] { end, fingerprint(inputFs, file, end) });
+            processed += size - offset;
+            appended += end - offset;
+        }
+
+        // Merge the results of the appended lines into the checkpoint, and the
+        // last lines into the results only
+        boolean structuring = analyses.contains(FusedAnalysis.Analysis.LogStructuring);
+        Path temporary = new Path(output, "_incremental");
+        fs.delete(temporary, true);
+        if (appended > 0) {
+            jobConf.setLong(RowNumbering.FIRST_KEY, checkpoint.nextRow);
+            Job job = FusedAnalysis.getJob(jobConf, input, temporary);
+            job.setInputFormatClass(AppendedInputFormat.class);
+            if (!job.waitForCompletion(false)) {
+                throw new IOException("Incremental analysis of " + input + " failed");
+            }
+            checkpoint.aggregates.merge(fs, temporary, job.getCounters());
+            if (structuring) {
+                checkpoint.nextRow = RowNumbering.nextRow(job.getConfiguration());
+                moveRows(fs, new Path(temporary, FusedAnalysis.Analysis.LogStructuring.name()), output,
+                        ++checkpoint.runs);
+            }
+        }
+        Aggregates results = new Aggregates(analyses);
+        results.merge(checkpoint.aggregates);
+        writeTails(inputFs, tails, results, structuring ? fs : null, output, checkpoint.nextRow);
+        if (structuring) {
+            checkpoint.rowsLength = rowsLength(fs, output);
+        }
+        publish(fs, results, analyses, output);
+        checkpoint.write(fs, checkpointFile);
+        fs.delete(temporary, true);
+        return processed;
+    }
+
+    /**
+     * Lists the input files, skipping the hidden files as Hadoop does.
+     */
+    private static List<FileStatus> listInputs(FileSystem fs, Path input) throws IOException {
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        FileStatus[] statuses = fs.listStatus(input);
+        Arrays.sort(statuses);
+        for (FileStatus status : statuses) {
+            String name = status.getPath().getName();
+            if (status.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                files.add(status);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Checks that the input files of a checkpoint have only been appended to,
+     * and that the LogStructuring output still holds the checkpointed rows.
+     *
+     * @return the reason why the checkpoint cannot be used, or null if it can
+     */
+    private static String validate(Checkpoint checkpoint, EnumSet<FusedAnalysis.Analysis> analyses,
+            FileSystem inputFs, List<FileStatus> inputs, FileSystem fs, Path output) throws IOException {
+        if (!checkpoint.analyses.equals(analyses)) {
+            return "the analyses changed";
+        }
+        if (analyses.contains(FusedAnalysis.Analysis.LogStructuring)
+                && rowsLength(fs, output) < checkpoint.rowsLength) {
+            return "the LogStructuring output was removed or truncated";
+        }
+        Map<String, FileStatus> files = new LinkedHashMap<String, FileStatus>();
+        for (FileStatus status : inputs) {
+            files.put(status.getPath().toString(), status);
+        }
+        for (Map.Entry<String, long[]> entry : checkpoint.files.entrySet()) {
+            FileStatus status = files.get(entry.getKey());
+            if (status == null) {
+                return entry.getKey() + " was removed";
+            }
+            long offset = entry.getValue()[0];
+            if (status.getLen() < offset
+                    || fingerprint(inputFs, status.getPath(), offset) != entry.getValue()[1]) {
+                return entry.getKey() + " was rewritten";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the total length of the LogStructuring files of the runs, without
+     * the row of the last lines.
+     */
+    private static long rowsLength(FileSystem fs, Path output) throws IOException {
+        Path dir = new Path(output, FusedAnalysis.Analysis.LogStructuring.name());
+        long length = 0;
+        if (fs.exists(dir)) {
+            for (FileStatus status : fs.listStatus(dir)) {
+                if (status.getPath().getName().startsWith("part-") && !status.getPath().getName().equals(TAIL)) {
+                    length += status.getLen();
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Moves the structured rows written by the job of a run to the
+     * LogStructuring output, prefixing the names of the files with the run.
+     */
+    private static void moveRows(FileSystem fs, Path rows, Path output, int run) throws IOException {
+        Path dir = new Path(output, FusedAnalysis.Analysis.LogStructuring.name());
+        fs.mkdirs(dir);
+        if (!fs.exists(rows)) {
+            return;
+        }
+        for (FileStatus status : fs.listStatus(rows)) {
+            String name = status.getPath().getName();
+            if (name.startsWith("part-m-")) {
+                Path target = new Path(dir, String.format("part-m-%05d-%s", run, name.substring(7)));
+                if (!fs.rename(status.getPath(), target)) {
+                    throw new IOException("Cannot rename " + status.getPath() + " to " + target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the last lines without a line feed to the results, and writes their
+     * rows to the tail file of the LogStructuring output, numbered from the
+     * first number after the rows of the runs, if the file system is given.
+     */
+    private static void writeTails(FileSystem inputFs, Map<Path, long[]> tails, Aggregates results,
+            FileSystem fs, Path output, long nextRow) throws IOException {
+        Path tail = new Path(new Path(output, FusedAnalysis.Analysis.LogStructuring.name()), TAIL);
+        if (fs != null) {
+            fs.delete(tail, false);
+        }
+        if (tails.isEmpty()) {
+            return;
+        }
+        OutputStream out = fs != null ? fs.create(tail, true) : null;
+        try {
+            Text line = new Text();
+            Text row = new Text();
+            for (Map.Entry<Path, long[]> entry : tails.entrySet()) {
+                try (FSDataInputStream in = inputFs.open(entry.getKey())) {
+                    in.seek(entry.getValue()[0]);
+                    new LineReader(in).readLine(line);
+                }
+                Event event = results.add(line);
+                if (out != null) {
+                    if (nextRow == 1) {
+                        out.write(("0," + LogStructuring.HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                    row.clear();
+                    event.appendCsv(row);
+                    out.write((nextRow++ + ",").getBytes(StandardCharsets.UTF_8));
+                    out.write(row.getBytes(), 0, row.getLength());
+                    out.write('\n');
+                }
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Replaces the results of the counting analyses and the counts of the
+     * events by template in the output directory. Each file is written to a
+     * temporary file first, and its <code>_SUCCESS</code> file is written
+     * after it.
+     */
+    private static void publish(FileSystem fs, Aggregates results, EnumSet<FusedAnalysis.Analysis> analyses,
+            Path output) throws IOException {
+        for (FusedAnalysis.Analysis analysis : analyses) {
+            if (analysis != FusedAnalysis.Analysis.LogStructuring) {
+                try (OutputStream out = create(fs, output, analysis.name())) {
+                    results.write(analysis, out);
+                }
+                commit(fs, output, analysis.name());
+            }
+        }
+        try (OutputStream out = create(fs, output, Aggregates.EVENT_IDS_OUTPUT)) {
+            results.writeEventIds(out);
+        }
+        commit(fs, output, Aggregates.EVENT_IDS_OUTPUT);
+        if (analyses.contains(FusedAnalysis.Analysis.LogStructuring)) {
+            fs.create(new Path(new Path(output, FusedAnalysis.Analysis.LogStructuring.name()), "_SUCCESS"), true)
+                    .close();
+        }
+    }
+
+    private static OutputStream create(FileSystem fs, Path output, String name) throws IOException {
+        return fs.create(new Path(new Path(output, name), "_part-r-00000"), true);
+    }
+
+    private static void commit(FileSystem fs, Path output, String name) throws IOException {
+        Path dir = new Path(output, name);
+        Path part = new Path(dir, "part-r-00000");
+        fs.delete(part, false);
+        if (!fs.rename(new Path(dir, "_part-r-00000"), part)) {
+            throw new IOException("Cannot write " + part);
+        }
+        fs.create(new Path(dir, "_SUCCESS"), true).close();
+    }
+
+    /**
+     * Returns the end of the last complete line in a range of a file, i.e. the
+     * position after its last line feed, or the start of the range if there is
+     * no line feed.
+     */
+    static long lineEnd(FileSystem fs, Path file, long start, long end) throws IOException {
+        try (FSDataInputStream in = fs.open(file)) {
+            byte[] buffer = new byte[8192];
+            while (end > start) {
+                int n = (int) Math.min(buffer.length, end - start);
+                in.readFully(end - n, buffer, 0, n);
+                for (int i = n - 1; i >= 0; i--) {
+                    if (buffer[i] == '\n') {
+                        return end - n + i + 1;
+                    }
+                }
+                end -= n;
+            }
+            return start;
+        }
+    }
+
+    /**
+     * Returns a hash of the first bytes of a file up to a length, which do not
+     * change as long as the file is only appended to.
+     */
+    static long fingerprint(FileSystem fs, Path file, long length) throws IOException {
+        byte[] bytes = new byte[(int) Math.min(length, FINGERPRINT_LENGTH)];
+        try (FSDataInputStream in = fs.open(file)) {
+            in.readFully(0, bytes);
+        }
+        long hash = 1125899906842597L;
+        for (byte b : bytes) {
+            hash = 31 * hash + b;
+        }
+        return hash;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: IncrementalAnalysis [-D " + FusedAnalysis.SELECTED_KEY
+                    + "=<analysis,...>] <in> <out>");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        long processed = run(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
+        System.out.printf("Processed %d bytes in %.3f s%n", processed, (System.nanoTime() - start) / 1e9);
+    }
+}
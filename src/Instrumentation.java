@@ -0,0 +1,483 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormatCounter;
+
+/**
+ * The Instrumentation class counts the events of a mapper and times the
+ * stages of its lines, into the counters of the job.
+ *
+ * Every line is counted as parsed or not, and a parsed line by its event type
+ * and its level. The counts are kept in local arrays and added to the counters
+ * when the mapper finishes, so counting a line costs a few increments.
+ *
+ * One line of every {@link #SAMPLE_KEY} lines is timed by stage: the decoding
+ * of the line by the record reader, from the end of the previous line, the
+ * parsing of its header, the matching of its content against the templates,
+ * and the emission of its outputs. The times go into histograms of buckets
+ * growing by powers of 4 from 256 ns, with the number of samples and their
+ * total time, so a timed line costs a few calls to {@link System#nanoTime()}
+ * and the others none.
+ *
+ * A mapper calls {@link #start()} at the beginning of each line,
+ * {@link #set(Event, Text)} to parse it, {@link #emit()} before writing its
+ * outputs, if any, and {@link #end()} at the end, then {@link #flush} in its
+ * cleanup.
+ * {@link #writeReport} writes the counters of the jobs as a JSON report.
+ */
+public class Instrumentation {
+
+    /**
+     * The configuration key of the sampling interval of the stage times, in
+     * lines, or 0 to time no line.
+     */
+    public static final String SAMPLE_KEY = "analysis.instrumentation.sample";
+
+    public static final int DEFAULT_SAMPLE = 100;
+
+    /**
+     * The configuration keys of the times a job was submitted and seen
+     * complete by the client, in milliseconds since the epoch.
+     */
+    static final String SUBMIT_TIME_KEY = "analysis.instrumentation.submitTime";
+    static final String FINISH_TIME_KEY = "analysis.instrumentation.finishTime";
+
+    /**
+     * The counter group of the parsed and unparsed lines.
+     */
+    public static final String EVENTS_GROUP = "Events";
+
+    /**
+     * The counter group of the event types of the parsed lines.
+     */
+    public static final String EVENT_IDS_GROUP = "EventId";
+
+    /**
+     * The counter group of the levels of the parsed lines.
+     */
+    public static final String LEVELS_GROUP = "Level";
+
+    /**
+     * The counter group of the number of map tasks and their total time.
+     */
+    public static final String TASKS_GROUP = "Map tasks";
+
+    public static final String PARSED = "parsed";
+    public static final String TASKS = "tasks";
+    public static final String TOTAL_MILLIS = "total ms";
+    public static final String UNPARSED = "unparsed";
+    public static final String SAMPLES = "samples";
+    public static final String TOTAL_NANOS = "total ns";
+
+    /**
+     * The counter name of the levels beyond the first {@link #MAX_LEVELS}, to
+     * bound the number of counters.
+     */
+    public static final String OTHER_LEVELS = "(other)";
+
+    static final int MAX_LEVELS = 16;
+
+    /**
+     * The stages of a line, each timed into the counter group of its label.
+     */
+    public enum Stage {
+        DECODE("line decode"), HEADER("header parse"), MATCH("template match"), EMIT("emit");
+
+        private final String group;
+
+        Stage(String label) {
+            this.group = "Latency: " + label;
+        }
+
+        /**
+         * Returns the counter group of the stage.
+         *
+         * @return the group, e.g. "Latency: header parse"
+         */
+        public String getGroup() {
+            return group;
+        }
+    }
+
+    /**
+     * The labels of the buckets of the stage times: below 2^8 ns, then below
+     * each power of 4 up to 2^20 ns, and the rest.
+     */
+    static final String[] BUCKETS = { "< 256 ns", "< 1 us", "< 4 us", "< 16 us", "< 66 us", "< 262 us", "< 1 ms",
+            ">= 1 ms" };
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final Event.EventId[] EVENT_IDS = Event.EventId.values();
+
+    private final int sample;
+    private long taskStart = System.nanoTime();
+    private int countdown; // lines until the next sampled line, or 0 if none is
+    private boolean sampled;
+    private boolean emitting;
+    private long mark;
+    private long decodeStart;
+
+    private long parsed;
+    private long unparsed;
+    private final long[] eventIds = new long[EVENT_IDS.length];
+    private final byte[][] levels = new byte[MAX_LEVELS][];
+    private final long[] levelCounts = new long[MAX_LEVELS + 1];
+    private int levelCount;
+    private final long[][] buckets = new long[STAGES.length][BUCKETS.length];
+    private final long[] samples = new long[STAGES.length];
+    private final long[] nanos = new long[STAGES.length];
+
+    /**
+     * Constructs an Instrumentation configured for a mapper.
+     *
+     * @param conf the Hadoop configuration of the mapper
+     */
+    public Instrumentation(Configuration conf) {
+        sample = conf.getInt(SAMPLE_KEY, DEFAULT_SAMPLE);
+        countdown = sample > 0 ? 1 : 0;
+    }
+
+    /**
+     * Starts a line, timing its decoding if the line is sampled.
+     */
+    public void start() {
+        sampled = countdown > 0 && --countdown == 0;
+        emitting = false;
+        if (sampled) {
+            countdown = sample;
+            mark = System.nanoTime();
+            if (decodeStart != 0) {
+                record(Stage.DECODE, mark - decodeStart);
+            }
+        }
+    }
+
+    /**
+     * Parses a line into an event and counts it, timing the header parsing
+     * and the template matching if the line is sampled.
+     *
+     * @param event the event to parse the line into
+     * @param line  the line
+     * @return true if the event is parsed successfully, false otherwise
+     */
+    public boolean set(Event event, Text line) {
+        boolean isParsed;
+        if (sampled) {
+            long start = System.nanoTime();
+            boolean found = event.setHeader(line);
+            long headerEnd = System.nanoTime();
+            isParsed = event.setEventId();
+            mark = System.nanoTime();
+            record(Stage.HEADER, headerEnd - start);
+            if (found) {
+                record(Stage.MATCH, mark - headerEnd);
+            }
+        } else {
+            isParsed = event.set(line);
+        }
+        count(event, isParsed);
+        return isParsed;
+    }
+
+    /**
+     * Counts an event parsed from a line.
+     */
+    private void count(Event event, boolean isParsed) {
+        if (!isParsed) {
+            unparsed++;
+            return;
+        }
+        parsed++;
+        eventIds[event.gerEventId().ordinal()]++;
+        byte[] bytes = event.getBytes();
+        int start = event.getLevelStart();
+        int length = event.getLevelLength();
+        for (int i = 0; i < levelCount; i++) {
+            if (equals(levels[i], bytes, start, length)) {
+                levelCounts[i]++;
+                return;
+            }
+        }
+        if (levelCount < MAX_LEVELS) {
+            levels[levelCount] = new byte[length];
+            System.arraycopy(bytes, start, levels[levelCount], 0, length);
+            levelCounts[levelCount++]++;
+        } else {
+            levelCounts[MAX_LEVELS]++;
+        }
+    }
+
+    private static boolean equals(byte[] level, byte[] bytes, int start, int length) {
+        if (level.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (level[i] != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts the emission of the outputs of the line.
+     */
+    public void emit() {
+        if (sampled) {
+            emitting = true;
+            mark = System.nanoTime();
+        }
+    }
+
+    /**
+     * Ends a line, timing the emission of its outputs if the line is sampled
+     * and has outputs.
+     */
+    public void end() {
+        if (sampled || countdown == 1) {
+            long now = System.nanoTime();
+            if (emitting) {
+                record(Stage.EMIT, now - mark);
+            }
+            // Time the decoding of the next line if it is sampled
+            decodeStart = countdown == 1 ? now : 0;
+        }
+    }
+
+    private void record(Stage stage, long time) {
+        int bucket = time < 256 ? 0 : Math.min(BUCKETS.length - 1, (64 - Long.numberOfLeadingZeros(time) - 7) / 2);
+        buckets[stage.ordinal()][bucket]++;
+        samples[stage.ordinal()]++;
+        nanos[stage.ordinal()] += time;
+    }
+
+    /**
+     * Adds the counts and the stage times to the counters of the job.
+     *
+     * @param context the context of the mapper
+     */
+    public void flush(TaskInputOutputContext<?, ?, ?, ?> context) {
+        long now = System.nanoTime();
+        increment(context, TASKS_GROUP, TASKS, 1);
+        increment(context, TASKS_GROUP, TOTAL_MILLIS, (now - taskStart) / 1000000);
+        taskStart = now;
+        increment(context, EVENTS_GROUP, PARSED, parsed);
+        increment(context, EVENTS_GROUP, UNPARSED, unparsed);
+        for (Event.EventId eventId : EVENT_IDS) {
+            increment(context, EVENT_IDS_GROUP, eventId.name(), eventIds[eventId.ordinal()]);
+        }
+        for (int i = 0; i < levelCount; i++) {
+            increment(context, LEVELS_GROUP, new String(levels[i], StandardCharsets.UTF_8), levelCounts[i]);
+        }
+        increment(context, LEVELS_GROUP, OTHER_LEVELS, levelCounts[MAX_LEVELS]);
+        for (Stage stage : STAGES) {
+            for (int i = 0; i < BUCKETS.length; i++) {
+                increment(context, stage.getGroup(), BUCKETS[i], buckets[stage.ordinal()][i]);
+            }
+            increment(context, stage.getGroup(), SAMPLES, samples[stage.ordinal()]);
+            increment(context, stage.getGroup(), TOTAL_NANOS, nanos[stage.ordinal()]);
+        }
+        parsed = unparsed = 0;
+        Arrays.fill(eventIds, 0);
+        Arrays.fill(levelCounts, 0);
+        for (long[] stageBuckets : buckets) {
+            Arrays.fill(stageBuckets, 0);
+        }
+        Arrays.fill(samples, 0);
+        Arrays.fill(nanos, 0);
+    }
+
+    /**
+     * Increments a counter, unless by 0, so only the counters in use exist.
+     */
+    private static void increment(TaskInputOutputContext<?, ?, ?, ?> context, String group, String name,
+            long value) {
+        if (value != 0) {
+            context.getCounter(group, name).increment(value);
+        }
+    }
+
+    /**
+     * Records the time a job is submitted by the client, to time it in the
+     * report whatever the runner, see {@link #finished(Job)}.
+     *
+     * @param job the job about to be submitted
+     */
+    public static void submitted(Job job) {
+        job.getConfiguration().setLong(SUBMIT_TIME_KEY, System.currentTimeMillis());
+    }
+
+    /**
+     * Records the time a job is seen complete by the client.
+     *
+     * @param job the completed job
+     */
+    public static void finished(Job job) {
+        job.getConfiguration().setLong(FINISH_TIME_KEY, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the time of a job: from its submission to its completion as
+     * recorded by the client, or as reported by the cluster, which the local
+     * runner does not.
+     */
+    private static double seconds(Job job) throws IOException, InterruptedException {
+        long submit = job.getConfiguration().getLong(SUBMIT_TIME_KEY, 0);
+        long finish = job.getConfiguration().getLong(FINISH_TIME_KEY, 0);
+        if (submit > 0 && finish >= submit) {
+            return (finish - submit) / 1000.0;
+        }
+        return job.getFinishTime() > 0 ? (job.getFinishTime() - job.getStartTime()) / 1000.0 : Double.NaN;
+    }
+
+    /**
+     * Writes a JSON report of completed jobs and of their prerequisites: for
+     * each job, its time, its throughput, its spilled and shuffled records and
+     * bytes, its events by type and level and its stage times, and the totals
+     * of the run.
+     *
+     * The time of a job is measured by the client if it was run by
+     * {@link ApacheLogAnalysis#run}, from its submission to its completion
+     * seen by polling, so it includes the waits for free task slots. The
+     * throughput of a job is given by the total time of its map tasks too,
+     * from the start of their instrumentation to its flush, which does not
+     * depend on the jobs running at the same time.
+     *
+     * @param conf    the configuration of the file system
+     * @param jobs    the completed jobs
+     * @param seconds the wall time of the run
+     * @param path    the path of the report
+     * @throws IOException if the counters or the report cannot be accessed
+     */
+    public static void writeReport(Configuration conf, List<Job> jobs, double seconds, Path path)
+            throws IOException, InterruptedException {
+        FileSystem fs = path.getFileSystem(conf);
+        try (OutputStream out = fs.create(path, true)) {
+            out.write(report(jobs, seconds).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Returns the JSON report of completed jobs and of their prerequisites,
+     * see {@link #writeReport}. The jobs which were not submitted are left
+     * out.
+     *
+     * @param jobs    the completed jobs
+     * @param seconds the wall time of the run
+     * @return the report
+     * @throws IOException if the counters cannot be read
+     */
+    public static String report(List<Job> jobs, double seconds) throws IOException, InterruptedException {
+        StringBuilder json = new StringBuilder();
+        long totalRecords = 0;
+        long totalBytes = 0;
+        json.append("{\n  \"jobs\": [");
+        int reported = 0;
+        for (Job job : ChainedJob.withPrerequisites(jobs)) {
+            if (!ChainedJob.isSubmitted(job)) {
+                // Not run, as its prerequisite failed
+                continue;
+            }
+            Counters counters = job.getCounters();
+            double jobSeconds = seconds(job);
+            CounterGroup tasks = counters.getGroup(TASKS_GROUP);
+            double taskSeconds = tasks.findCounter(TOTAL_MILLIS).getValue() / 1000.0;
+            long records = counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+            long bytes = counters.findCounter(FileInputFormatCounter.BYTES_READ).getValue();
+            totalRecords += records;
+            totalBytes += bytes;
+            json.append(reported++ == 0 ? "\n" : ",\n").append("    {\n");
+            json.append("      \"name\": ").append(quote(job.getJobName())).append(",\n");
+            json.append("      \"success\": ").append(job.isSuccessful()).append(",\n");
+            json.append("      \"seconds\": ").append(number(jobSeconds)).append(",\n");
+            json.append("      \"input records\": ").append(records).append(",\n");
+            json.append("      \"input bytes\": ").append(bytes).append(",\n");
+            json.append("      \"records/s\": ").append(number(records / jobSeconds)).append(",\n");
+            json.append("      \"bytes/s\": ").append(number(bytes / jobSeconds)).append(",\n");
+            json.append("      \"map tasks\": ").append(tasks.findCounter(TASKS).getValue()).append(",\n");
+            json.append("      \"map task seconds\": ").append(number(taskSeconds)).append(",\n");
+            json.append("      \"records/task s\": ").append(number(records / taskSeconds)).append(",\n");
+            json.append("      \"map output records\": ")
+                    .append(counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue()).append(",\n");
+            json.append("      \"spilled records\": ")
+                    .append(counters.findCounter(TaskCounter.SPILLED_RECORDS).getValue()).append(",\n");
+            json.append("      \"shuffle bytes\": ")
+                    .append(counters.findCounter(TaskCounter.REDUCE_SHUFFLE_BYTES).getValue()).append(",\n");
+            json.append("      \"events\": ").append(group(counters.getGroup(EVENTS_GROUP))).append(",\n");
+            json.append("      \"event ids\": ").append(group(counters.getGroup(EVENT_IDS_GROUP))).append(",\n");
+            json.append("      \"levels\": ").append(group(counters.getGroup(LEVELS_GROUP))).append(",\n");
+            json.append("      \"stages\": {");
+            for (Stage stage : STAGES) {
+                CounterGroup group = counters.getGroup(stage.getGroup());
+                long stageSamples = group.findCounter(SAMPLES).getValue();
+                long stageNanos = group.findCounter(TOTAL_NANOS).getValue();
+                json.append(stage.ordinal() == 0 ? "\n" : ",\n");
+                json.append("        ").append(quote(stage.name().toLowerCase(Locale.ROOT))).append(": {");
+                json.append("\"samples\": ").append(stageSamples);
+                json.append(", \"mean ns\": ").append(number(stageSamples > 0 ? (double) stageNanos / stageSamples : 0));
+                json.append(", \"histogram\": {");
+                for (int i = 0; i < BUCKETS.length; i++) {
+                    json.append(i == 0 ? "" : ", ").append(quote(BUCKETS[i])).append(": ")
+                            .append(group.findCounter(BUCKETS[i]).getValue());
+                }
+                json.append("}}");
+            }
+            json.append("\n      }\n    }");
+        }
+        json.append("\n  ],\n");
+        json.append("  \"seconds\": ").append(number(seconds)).append(",\n");
+        json.append("  \"input records\": ").append(totalRecords).append(",\n");
+        json.append("  \"input bytes\": ").append(totalBytes).append(",\n");
+        json.append("  \"records/s\": ").append(number(totalRecords / seconds)).append(",\n");
+        json.append("  \"bytes/s\": ").append(number(totalBytes / seconds)).append("\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Returns the counters of a group as a JSON object.
+     */
+    private static String group(CounterGroup group) {
+        StringBuilder json = new StringBuilder("{");
+        for (Counter counter : group) {
+            json.append(json.length() == 1 ? "" : ", ").append(quote(counter.getName())).append(": ")
+                    .append(counter.getValue());
+        }
+        return json.append("}").toString();
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Quotes a string as a JSON string.
+     */
+    static String quote(String s) {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,371 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * A standalone multi-core engine to analyze Apache logs on a single machine,
+ * without the Hadoop runtime.
+ *
+ * The log files are memory-mapped and cut into chunks aligned to the lines. The
+ * chunks are processed in parallel on a fork-join pool with the same logic as
+ * the Hadoop jobs, each thread aggregating into its own {@link Aggregates},
+ * which are merged at the end. The results are written to the same output
+ * files as {@link ApacheLogAnalysis}.
+ */
+public class LocalAnalysis {
+
+    /**
+     * The configuration key of the number of threads, which is the number of
+     * processors by default.
+     */
+    public static final String THREADS_KEY = "analysis.local.threads";
+
+    /**
+     * The configuration key of the maximum size of a chunk in bytes.
+     */
+    public static final String CHUNK_KEY = "analysis.local.chunk";
+
+    public static final long DEFAULT_CHUNK = 64 * 1024 * 1024;
+
+    /**
+     * A chunk of a log file, which starts at the beginning of a line and ends at
+     * the end of a line.
+     */
+    static class Chunk {
+        final File file;
+        final long start;
+        final long length;
+        File rows; // the structured rows of the chunk, without row numbers
+        long rowCount;
+
+        Chunk(File file, long start, long length) {
+            this.file = file;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    private final EnumSet<FusedAnalysis.Analysis> analyses;
+    private final File temporary;
+    private final ConcurrentLinkedQueue<Aggregates> partials = new ConcurrentLinkedQueue<Aggregates>();
+    private final ThreadLocal<Aggregates> aggregates = new ThreadLocal<Aggregates>() {
+        @Override
+        protected Aggregates initialValue() {
+            Aggregates partial = new Aggregates(analyses);
+            partials.add(partial);
+            return partial;
+        }
+    };
+
+    private LocalAnalysis(EnumSet<FusedAnalysis.Analysis> analyses, File temporary) {
+        this.analyses = analyses;
+        this.temporary = temporary;
+    }
+
+    /**
+     * Processes a chunk into the aggregates of the current thread.
+     */
+    private class ChunkAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk chunk;
+
+        ChunkAction(Chunk chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                process(chunk, aggregates.get());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void process(Chunk chunk, Aggregates partial) throws IOException {
+        boolean structuring = analyses.contains(FusedAnalysis.Analysis.LogStructuring);
+        OutputStream rows = null;
+        if (structuring) {
+            chunk.rows = File.createTempFile("chunk-", ".csv", temporary);
+            rows = new BufferedOutputStream(new FileOutputStream(chunk.rows), 1 << 16);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(chunk.file, "r")) {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, chunk.start,
+                    chunk.length);
+            LineReader lines = new LineReader(buffer, chunk.start == 0);
+            Text line = new Text();
+            Text row = new Text();
+            while (lines.next(line)) {
+                Event event = partial.add(line);
+                if (structuring) {
+                    row.clear();
+                    event.appendCsv(row);
+                    rows.write(row.getBytes(), 0, row.getLength());
+                    rows.write('\n');
+                    chunk.rowCount++;
+                }
+            }
+        } finally {
+            if (rows != null) {
+                rows.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the lines of a mapped chunk, ended by LF, CR or CRLF as in Hadoop.
+     */
+    static class LineReader {
+        private final MappedByteBuffer buffer;
+        private byte[] bytes = new byte[1024];
+
+        LineReader(MappedByteBuffer buffer, boolean skipBom) {
+            this.buffer = buffer;
+            if (skipBom && buffer.remaining() >= 3 && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB
+                    && buffer.get(2) == (byte) 0xBF) {
+                buffer.position(3);
+            }
+        }
+
+        boolean next(Text line) {
+            if (!buffer.hasRemaining()) {
+                return false;
+            }
+            int start = buffer.position();
+            int limit = buffer.limit();
+            int end = start;
+            while (end < limit && buffer.get(end) != '\n' && buffer.get(end) != '\r') {
+                end++;
+            }
+            int length = end - start;
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            buffer.get(bytes, 0, length);
+            if (end < limit) {
+                buffer.position(end + (buffer.get(end) == '\r' && end + 1 < limit && buffer.get(end + 1) == '\n' ? 2 : 1));
+            }
+            line.set(bytes, 0, length);
+            return true;
+        }
+    }
+
+    /**
+     * Cuts a file into chunks of at most the given size, each ending after a
+     * line terminator or at the end of the file.
+     */
+    static List<Chunk> split(File file, long chunkSize) throws IOException {
+        return split(file, 0, file.length(), chunkSize);
+    }
+
+    /**
+     * Cuts a range of a file into chunks of at most the given size, each ending
+     * after a line terminator, "\n", "\r" or "\r\n", or at the end of the
+     * range.
+     *
+     * @param file      the file
+     * @param start     the start of the range, which must be the beginning of a
+     *                  line
+     * @param end       the end of the range
+     * @param chunkSize the maximum size of a chunk
+     * @return the chunks in order
+     * @throws IOException if the file cannot be read
+     */
+    static List<Chunk> split(File file, long start, long end, long chunkSize) throws IOException {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            while (start < end) {
+                long chunkEnd = Math.min(start + chunkSize, end);
+                if (chunkEnd < end) {
+                    // Move forward to the end of the line, ended as in LineReader
+                    in.seek(chunkEnd - 1);
+                    int b;
+                    while ((b = in.read()) >= 0 && b != '\n' && b != '\r') {
+                        chunkEnd++;
+                    }
+                    if (b == '\r' && in.read() == '\n') {
+                        chunkEnd++;
+                    }
+                    chunkEnd = Math.min(chunkEnd, end);
+                }
+                chunks.add(new Chunk(file, start, chunkEnd - start));
+                start = chunkEnd;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Lists the input files as Hadoop does: a directory stands for the files in
+     * it, skipping hidden files whose names start with "_" or ".".
+     */
+    static List<File> listInputs(File input) {
+        List<File> files = new ArrayList<File>();
+        if (input.isDirectory()) {
+            File[] children = input.listFiles();
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isFile() && !child.getName().startsWith("_") && !child.getName().startsWith(".")) {
+                    files.add(child);
+                }
+            }
+        } else {
+            files.add(input);
+        }
+        return files;
+    }
+
+    /**
+     * Runs the selected analyses on the input and writes the results.
+     *
+     * @param conf   the configuration of the analyses
+     * @param input  the input file or directory
+     * @param output the output directory, which must not exist
+     * @return the merged aggregates of the counting analyses
+     * @throws IOException if the input cannot be read or the output cannot be
+     *                     written
+     */
+    public static Aggregates run(Configuration conf, File input, File output) throws IOException {
+        if (output.exists()) {
+            throw new IOException("Output directory " + output + " already exists");
+        }
+        File temporary = new File(output, "_temporary");
+        if (!temporary.mkdirs()) {
+            throw new IOException("Cannot create directory " + temporary);
+        }
+        EnumSet<FusedAnalysis.Analysis> analyses = FusedAnalysis.selected(conf);
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (File file : listInputs(input)) {
+            chunks.addAll(split(file, conf.getLong(CHUNK_KEY, DEFAULT_CHUNK)));
+        }
+        Aggregates result = analyze(conf, analyses, chunks, temporary);
+        result.write(output);
+        if (analyses.contains(FusedAnalysis.Analysis.LogStructuring)) {
+            try (OutputStream out = Aggregates.create(output, FusedAnalysis.Analysis.LogStructuring)) {
+                out.write(("0," + LogStructuring.HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+                writeRows(chunks, out, 0);
+            }
+        }
+        deleteRows(chunks);
+        temporary.delete();
+        return result;
+    }
+
+    /**
+     * Processes chunks in parallel and merges the aggregates of the threads.
+     *
+     * When LogStructuring is selected, the structured rows of each chunk are
+     * written to a file in the temporary directory, to be concatenated by
+     * {@link #writeRows(List, OutputStream, long)} and deleted by
+     * {@link #deleteRows(List)}.
+     *
+     * @param conf      the configuration of the engine
+     * @param analyses  the analyses to run
+     * @param chunks    the chunks to process
+     * @param temporary the directory of the structured rows
+     * @return the merged aggregates of the chunks
+     */
+    static Aggregates analyze(Configuration conf, EnumSet<FusedAnalysis.Analysis> analyses, List<Chunk> chunks,
+            File temporary) {
+        LocalAnalysis analysis = new LocalAnalysis(analyses, temporary);
+        List<ChunkAction> actions = new ArrayList<ChunkAction>();
+        for (Chunk chunk : chunks) {
+            actions.add(analysis.new ChunkAction(chunk));
+        }
+        ForkJoinPool pool = new ForkJoinPool(conf.getInt(THREADS_KEY, Runtime.getRuntime().availableProcessors()));
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(actions);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+
+        Aggregates result = new Aggregates(analyses);
+        for (Aggregates partial : analysis.partials) {
+            result.merge(partial);
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the files of the structured rows of chunks.
+     */
+    static void deleteRows(List<Chunk> chunks) {
+        for (Chunk chunk : chunks) {
+            if (chunk.rows != null) {
+                chunk.rows.delete();
+            }
+        }
+    }
+
+    /**
+     * Concatenates the structured rows of the chunks in order, numbering the rows
+     * after a given row number as in {@link LogStructuring}.
+     *
+     * @param chunks the chunks
+     * @param out    the output stream of the rows
+     * @param id     the number of the row before the first row
+     * @return the number of the last row
+     * @throws IOException if the rows cannot be read or written
+     */
+    static long writeRows(List<Chunk> chunks, OutputStream out, long id) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        for (Chunk chunk : chunks) {
+            try (InputStream in = new FileInputStream(chunk.rows)) {
+                boolean lineStart = true;
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    int from = 0;
+                    for (int i = 0; i < n; i++) {
+                        if (lineStart) {
+                            out.write(buffer, from, i - from);
+                            out.write((++id + ",").getBytes(StandardCharsets.UTF_8));
+                            from = i;
+                        }
+                        lineStart = buffer[i] == '\n';
+                    }
+                    out.write(buffer, from, n - from);
+                }
+            }
+        }
+        return id;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: LocalAnalysis [-D " + THREADS_KEY + "=<n>] [-D " + FusedAnalysis.SELECTED_KEY
+                    + "=<analysis,...>] <in> <out>");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        run(conf, new File(otherArgs[0]), new File(otherArgs[1]));
+        System.out.printf("Finished in %.3f s%n", (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,316 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * A generator of synthetic Apache error logs of any size, to measure how the
+ * analyses scale.
+ *
+ * The lines follow the templates E1 to E6 of {@link Event.EventId}, drawn by
+ * the weights of {@link #MIX_KEY}, 836:569:539:32:12:12 by default as in
+ * <code>Apache_2k.log</code>. The parameters are drawn as in the sample too,
+ * e.g. the scoreboard slots from 6 to 13 and the error states from 6 to 10,
+ * with random child PIDs and client IPs. Each template has the level of the
+ * sample, notice for E1 and E2 and error for the others, unless a level
+ * distribution is given by {@link #LEVELS_KEY}.
+ *
+ * The times go up from {@link #START_KEY} to the end of {@link #SPAN_KEY} in
+ * proportion to the bytes written, so the whole span is covered whatever the
+ * size. A ratio {@link #UNPARSED_KEY} of the lines are not in the format of the
+ * logs, e.g. truncated lines. The same seed gives the same log.
+ */
+public class LogGenerator {
+
+    /**
+     * The configuration key of the weights of the templates, e.g.
+     * "E1:836,E2:569,E3:539,E4:32,E5:12,E6:12".
+     */
+    public static final String MIX_KEY = "analysis.generator.mix";
+
+    /**
+     * The configuration key of the weights of the levels, e.g.
+     * "notice:70,error:29,warn:1", overriding the levels of the templates.
+     */
+    public static final String LEVELS_KEY = "analysis.generator.levels";
+
+    /**
+     * The configuration key of the time of the first line, e.g.
+     * 2005-12-04T04:47:44.
+     */
+    public static final String START_KEY = "analysis.generator.start";
+
+    /**
+     * The configuration key of the time span of the lines in seconds.
+     */
+    public static final String SPAN_KEY = "analysis.generator.span";
+
+    /**
+     * The configuration key of the ratio of the lines not in the format of the
+     * logs, from 0 to 1.
+     */
+    public static final String UNPARSED_KEY = "analysis.generator.unparsed";
+
+    /**
+     * The configuration key of the seed of the random numbers.
+     */
+    public static final String SEED_KEY = "analysis.generator.seed";
+
+    public static final String DEFAULT_MIX = "E1:836,E2:569,E3:539,E4:32,E5:12,E6:12";
+    public static final String DEFAULT_START = "2005-12-04T04:47:44";
+    public static final long DEFAULT_SPAN = 7 * 86400;
+
+    private static final byte[] NOTICE = bytes("notice");
+    private static final byte[] ERROR = bytes("error");
+    private static final int[] SLOT_WEIGHTS = { 189, 194, 194, 160, 75, 16, 5, 3 }; // slots from 6
+    private static final int[] STATE_WEIGHTS = { 369, 101, 44, 20, 5 }; // states from 6
+    private static final byte[][] UNPARSED = { bytes("Garbled line without time and level"),
+            bytes("[Sun Dec 04 04:4"), bytes("[notice] jk2_init() Found child"), bytes("") };
+
+    private final Event.EventId[] eventIds;
+    private final double[] eventWeights;
+    private final byte[][] levels;
+    private final double[] levelWeights;
+    private final long start;
+    private final long span;
+    private final double unparsed;
+    private final SplittableRandom random;
+    private final double[] slotWeights = cumulative(SLOT_WEIGHTS);
+    private final double[] stateWeights = cumulative(STATE_WEIGHTS);
+
+    private byte[] line = new byte[256];
+    private int length;
+
+    /**
+     * Constructs a generator configured by the keys of this class.
+     *
+     * @param conf the configuration
+     */
+    public LogGenerator(Configuration conf) {
+        String[] mix = conf.getTrimmedStrings(MIX_KEY, DEFAULT_MIX.split(","));
+        eventIds = new Event.EventId[mix.length];
+        eventWeights = new double[mix.length];
+        for (int i = 0; i < mix.length; i++) {
+            String[] pair = weight(mix[i]);
+            eventIds[i] = Event.EventId.valueOf(pair[0]);
+            if (eventIds[i] == Event.EventId.OTHER) {
+                throw new IllegalArgumentException("Not a template: " + pair[0]);
+            }
+            eventWeights[i] = Double.parseDouble(pair[1]);
+        }
+        cumulate(eventWeights);
+        String[] levelMix = conf.getTrimmedStrings(LEVELS_KEY);
+        levels = new byte[levelMix.length][];
+        levelWeights = new double[levelMix.length];
+        for (int i = 0; i < levelMix.length; i++) {
+            String[] pair = weight(levelMix[i]);
+            levels[i] = bytes(pair[0]);
+            levelWeights[i] = Double.parseDouble(pair[1]);
+        }
+        cumulate(levelWeights);
+        start = TimeRangeQuery.parseTime(conf.get(START_KEY, DEFAULT_START));
+        span = conf.getLong(SPAN_KEY, DEFAULT_SPAN);
+        unparsed = conf.getDouble(UNPARSED_KEY, 0);
+        random = new SplittableRandom(conf.getLong(SEED_KEY, 0));
+    }
+
+    private static String[] weight(String pair) {
+        String[] split = pair.split(":");
+        if (split.length != 2) {
+            throw new IllegalArgumentException("Not a name and a weight: " + pair);
+        }
+        return split;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static double[] cumulative(int[] weights) {
+        double[] cumulative = new double[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            cumulative[i] = weights[i];
+        }
+        cumulate(cumulative);
+        return cumulative;
+    }
+
+    /**
+     * Turns weights into cumulative probabilities.
+     */
+    private static void cumulate(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            weights[i] = sum / total;
+        }
+    }
+
+    /**
+     * Draws an index by cumulative probabilities.
+     */
+    private int draw(double[] cumulative) {
+        double p = random.nextDouble();
+        int i = 0;
+        while (i < cumulative.length - 1 && p >= cumulative[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Writes lines of about a given size in total.
+     *
+     * @param out  the output stream of the lines, which is not closed
+     * @param size the number of bytes to write, which is exceeded by less than
+     *             a line
+     * @return the number of lines written
+     * @throws IOException if the lines cannot be written
+     */
+    public long generate(OutputStream out, long size) throws IOException {
+        long written = 0;
+        long lines = 0;
+        while (written < size) {
+            long time = start + (long) ((double) span * written / size);
+            if (unparsed > 0 && random.nextDouble() < unparsed) {
+                byte[] garbage = UNPARSED[random.nextInt(UNPARSED.length)];
+                length = 0;
+                append(garbage);
+            } else {
+                line(time);
+            }
+            append((byte) '\n');
+            out.write(line, 0, length);
+            written += length;
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Lays out a line of a random template at a time.
+     */
+    private void line(long time) {
+        Event.EventId eventId = eventIds[draw(eventWeights)];
+        length = 0;
+        append((byte) '[');
+        LogTime.format(time, line, length);
+        length += LogTime.LENGTH;
+        append((byte) ']');
+        append((byte) ' ');
+        append((byte) '[');
+        if (levels.length > 0) {
+            append(levels[draw(levelWeights)]);
+        } else {
+            append(eventId == Event.EventId.E1 || eventId == Event.EventId.E2 ? NOTICE : ERROR);
+        }
+        append((byte) ']');
+        append((byte) ' ');
+        switch (eventId) {
+        case E1:
+            append("jk2_init() Found child ");
+            append(pid());
+            append(" in scoreboard slot ");
+            append(6 + draw(slotWeights));
+            break;
+        case E2:
+            append("workerEnv.init() ok /etc/httpd/conf/workers2.properties");
+            break;
+        case E3:
+            append("mod_jk child workerEnv in error state ");
+            append(6 + draw(stateWeights));
+            break;
+        case E4:
+            append("[client ");
+            append(1 + random.nextInt(223));
+            for (int i = 0; i < 3; i++) {
+                append((byte) '.');
+                append(random.nextInt(256));
+            }
+            append("] Directory index forbidden by rule: /var/www/html/");
+            break;
+        case E5:
+            append("jk2_init() Can't find child ");
+            append(pid());
+            append(" in scoreboard");
+            break;
+        default:
+            append("mod_jk child init 1 -2");
+            break;
+        }
+    }
+
+    private int pid() {
+        return 1000 + random.nextInt(31000);
+    }
+
+    private void append(byte b) {
+        if (length == line.length) {
+            byte[] newLine = new byte[line.length * 2];
+            System.arraycopy(line, 0, newLine, 0, length);
+            line = newLine;
+        }
+        line[length++] = b;
+    }
+
+    private void append(byte[] bytes) {
+        for (byte b : bytes) {
+            append(b);
+        }
+    }
+
+    private void append(String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            append((byte) ascii.charAt(i));
+        }
+    }
+
+    private void append(int value) {
+        if (value >= 10) {
+            append(value / 10);
+        }
+        append((byte) ('0' + value % 10));
+    }
+
+    /**
+     * Generates a log of a given size into a file.
+     *
+     * @param conf   the configuration of the generator and the file system
+     * @param output the path of the file
+     * @param size   the number of bytes of the log
+     * @return the number of lines written
+     * @throws IOException if the file cannot be written
+     */
+    public static long generate(Configuration conf, Path output, long size) throws IOException {
+        FileSystem fs = output.getFileSystem(conf);
+        try (OutputStream out = new BufferedOutputStream(fs.create(output, true), 1 << 16)) {
+            return new LogGenerator(conf).generate(out, size);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: LogGenerator [-D " + MIX_KEY + "=<event:weight,...>] [-D " + LEVELS_KEY
+                    + "=<level:weight,...>] [-D " + START_KEY + "=<time>] [-D " + SPAN_KEY + "=<seconds>] [-D "
+                    + UNPARSED_KEY + "=<ratio>] [-D " + SEED_KEY + "=<seed>] <size, e.g. 10m or 1g> <out>");
+            System.exit(2);
+        }
+        long size = StringUtils.TraditionalBinaryPrefix.string2long(otherArgs[0]);
+        long start = System.nanoTime();
+        long lines = generate(conf, new Path(otherArgs[1]), size);
+        System.out.printf("%d lines in %.1f s%n", lines, (System.nanoTime() - start) / 1e9);
+    }
+}
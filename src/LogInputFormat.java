@@ -0,0 +1,226 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * The input format of the logs, which reads plain and compressed logs by lines,
+ * splitting the compressed logs where their format allows it.
+ *
+ * The compression of a file is detected by its extension, as by
+ * {@link TextInputFormat}: bzip2 files (".bz2") are split at the blocks of
+ * bzip2, and gzip files (".gz"), such as rotated <code>error_log.N.gz</code>,
+ * are split at their members if they were indexed by {@link GzipIndex}, so a
+ * large archive is read by several mappers. The members are grouped into
+ * splits of about the split size in uncompressed bytes, so the mappers get as
+ * much work whatever the compression, and the time of a job is bound by the
+ * number of mappers running at once rather than by its largest file. A gzip
+ * file without an up to date index is read whole by one mapper.
+ *
+ * The splits are file splits, numbered by {@link RowNumbering} as the splits
+ * of plain files. The keys of the lines of an indexed gzip file are their
+ * offsets in the uncompressed contents.
+ */
+public class LogInputFormat extends TextInputFormat {
+
+    /**
+     * The configuration key to pack the input files into fewer splits with
+     * {@link CombineLogInputFormat}.
+     */
+    public static final String COMBINE_KEY = "analysis.input.combine";
+
+    /**
+     * Adds an input path of logs to a job, and sets this input format, or
+     * {@link CombineLogInputFormat} if {@link #COMBINE_KEY} is set.
+     *
+     * @param job   the job
+     * @param input the input path, a file or a directory of files
+     * @throws IOException if the path cannot be added
+     */
+    public static void addInputPath(Job job, Path input) throws IOException {
+        FileInputFormat.addInputPath(job, input);
+        job.setInputFormatClass(job.getConfiguration().getBoolean(COMBINE_KEY, false) ? CombineLogInputFormat.class
+                : LogInputFormat.class);
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+        for (InputSplit split : super.getSplits(job)) {
+            FileSplit fileSplit = (FileSplit) split;
+            Path file = fileSplit.getPath();
+            if (fileSplit.getStart() == 0 && GzipIndex.isGzip(conf, file)) {
+                FileSystem fs = file.getFileSystem(conf);
+                FileStatus status = fs.getFileStatus(file);
+                GzipIndex index = GzipIndex.load(fs, status);
+                if (index != null && index.getMembers() > 1) {
+                    addMemberSplits(fs, status, index, job, splits);
+                    continue;
+                }
+            }
+            splits.add(split);
+        }
+        return splits;
+    }
+
+    /**
+     * Splits an indexed gzip file into groups of members of about the split
+     * size in uncompressed bytes.
+     */
+    private void addMemberSplits(FileSystem fs, FileStatus status, GzipIndex index, JobContext job,
+            List<InputSplit> splits) throws IOException {
+        long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+        long splitSize = computeSplitSize(status.getBlockSize(), minSize, getMaxSplitSize(job));
+        BlockLocation[] blocks = fs.getFileBlockLocations(status, 0, status.getLen());
+        int first = 0;
+        for (int member = 1; member <= index.getMembers(); member++) {
+            if (member == index.getMembers()
+                    || index.getUncompressedOffset(member) - index.getUncompressedOffset(first) >= splitSize) {
+                long start = index.getCompressedOffset(first);
+                long length = index.getCompressedOffset(member) - start;
+                splits.add(new MemberSplit(status.getPath(), start, length,
+                        blocks[getBlockIndex(blocks, start)].getHosts(), index.getUncompressedOffset(first)));
+                first = member;
+            }
+        }
+    }
+
+    @Override
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        if (split instanceof MemberSplit) {
+            return new MemberRecordReader();
+        }
+        return super.createRecordReader(split, context);
+    }
+
+    /**
+     * A split of the members of a gzip file, which also holds the uncompressed
+     * offset of its first member.
+     */
+    public static class MemberSplit extends FileSplit {
+        private long uncompressedStart;
+
+        public MemberSplit() {
+        }
+
+        MemberSplit(Path file, long start, long length, String[] hosts, long uncompressedStart) {
+            super(file, start, length, hosts);
+            this.uncompressedStart = uncompressedStart;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            super.write(out);
+            out.writeLong(uncompressedStart);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            super.readFields(in);
+            uncompressedStart = in.readLong();
+        }
+    }
+
+    /**
+     * <p>
+     * A RecordReader class that reads the lines of the members of a gzip file
+     * in a split.
+     * </p>
+     *
+     * <p>
+     * The split starts at a member starting at the start of a line, and its end
+     * is the end of the file or the start of such a member, so the split has
+     * only whole lines. The compressed bytes of the split are decompressed by
+     * the gzip codec, which reads all of their members.
+     * </p>
+     */
+    private static class MemberRecordReader extends RecordReader<LongWritable, Text> {
+        private FSDataInputStream file;
+        private Decompressor decompressor;
+        private LineReader reader;
+        private long start;
+        private long end;
+        private long position;
+        private LongWritable key = new LongWritable();
+        private Text value = new Text();
+
+        @Override
+        public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+            MemberSplit split = (MemberSplit) genericSplit;
+            Configuration conf = context.getConfiguration();
+            Path path = split.getPath();
+            start = split.getStart();
+            end = start + split.getLength();
+            position = split.uncompressedStart;
+            file = path.getFileSystem(conf).open(path);
+            file.seek(start);
+            CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(path);
+            decompressor = CodecPool.getDecompressor(codec);
+            InputStream in = new BoundedInputStream(file, end - start);
+            reader = new LineReader(codec.createInputStream(in, decompressor), conf);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            key.set(position);
+            int n = reader.readLine(value);
+            position += n;
+            return n > 0;
+        }
+
+        @Override
+        public LongWritable getCurrentKey() {
+            return key;
+        }
+
+        @Override
+        public Text getCurrentValue() {
+            return value;
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return end == start ? 1 : Math.min(1, (file.getPos() - start) / (float) (end - start));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+            } finally {
+                if (decompressor != null) {
+                    CodecPool.returnDecompressor(decompressor);
+                    decompressor = null;
+                }
+            }
+        }
+    }
+}
@@ -2,19 +2,40 @@ import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 /**
  * A Hadoop MapReduce to structure logs in CSV format.
+ *
+ * The job is map-only: the rows are numbered across the splits by the
+ * pre-pass of {@link RowNumbering}, which the job is chained to as a
+ * {@link ChainedJob}, so each mapper numbers and writes the rows of its split
+ * on its own, with the header written once by {@link CsvOutputFormat}.
+ *
+ * With {@link #COLUMNAR_KEY} set, the events are written in the binary
+ * columnar format of {@link ColumnarLogWriter} instead, which can be converted
+ * back to CSV by {@link ColumnarLogReader}.
+ *
+ * With {@link TemplateMining#MODEL_KEY} set, the events matching none of the
+ * templates E1 to E6 are written with their template learned by
+ * {@link TemplateMining}, e.g. T3 and "mod_jk child init <*> <*>", if any. The
+ * columnar format only stores the event types, so the learned templates cannot
+ * be written with {@link #COLUMNAR_KEY} set, and the two keys are rejected
+ * together.
  */
 public class LogStructuring {
 
+    /**
+     * The configuration key to write the events in the columnar format.
+     */
+    public static final String COLUMNAR_KEY = "analysis.structuring.columnar";
+
     /**
      * <p>
      * MyMapper is a static inner class that extends the Mapper class. It processes
@@ -22,9 +43,13 @@ public class LogStructuring {
      * </p>
      * 
      * <p>
-     * The <code>setup</code> method writes the header of the CSV file to the
-     * context. The <code>map</code> method processes each line of the input, parses
-     * it into an Event object, and writes the event in CSV format to the context.
+     * The <code>setup</code> method finds the number of the first row of the
+     * split. The <code>map</code> method processes each line of the input, parses
+     * it into a reused Event object, and writes the event in CSV format to the context,
+     * or the Event object itself in the columnar format. With a model of learned
+     * templates, loaded in <code>setup</code>, the CSV row of an event of the type
+     * OTHER has its learned template. The events are counted and the stages of
+     * sampled lines timed by an {@link Instrumentation}.
      * </p>
      * 
      * <p>
@@ -33,55 +58,121 @@ public class LogStructuring {
      * </p>
      * 
      * <p>
-     * Output Key: IntWritable (a unique identifier for the event) Output Value:
-     * Text (the event in CSV format)
+     * Output Key: LongWritable (a unique identifier for the event) Output Value:
+     * Text (the event in CSV format) or Event (in the columnar format)
      * </p>
      */
-    private static class MyMapper extends Mapper<Object, Text, IntWritable, Text> {
-        private static int count = 0;
-        private static boolean first = true;
+    private static class MyMapper extends Mapper<Object, Text, LongWritable, Writable> {
+        private Event event = new Event();
+        private LongWritable id = new LongWritable();
+        private Text row = new Text();
+        private boolean columnar;
+        private TemplateMiner miner;
+        private Instrumentation instrumentation;
+        private RowNumbering.Rows rows;
 
         @Override
         public void setup(Context context) throws IOException, InterruptedException {
-            if (first) {
-                first = false;
-                context.write(new IntWritable(0), new Text("Time,Level,Content,EventId,EventTemplate"));
+            columnar = context.getConfiguration().getBoolean(COLUMNAR_KEY, false);
+            instrumentation = new Instrumentation(context.getConfiguration());
+            if (context.getConfiguration().get(TemplateMining.MODEL_KEY) != null) {
+                miner = TemplateMining.load(context.getConfiguration());
             }
+            rows = new RowNumbering.Rows(context.getConfiguration(), context.getInputSplit());
         }
 
         @Override
         public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-            String line = value.toString();
-            Event event = new Event(line);
-            context.write(new IntWritable(++count), new Text(event.toString()));
+            instrumentation.start();
+            instrumentation.set(event, value);
+            instrumentation.emit();
+            id.set(rows.next(key));
+            if (columnar) {
+                context.write(id, event);
+                instrumentation.end();
+                return;
+            }
+            row.clear();
+            TemplateMiner.Template template = null;
+            if (miner != null && event.isParsed() && event.gerEventId() == Event.EventId.OTHER) {
+                template = miner.match(event.getContent());
+            }
+            if (template != null) {
+                event.appendCsv(row, template.getCsv());
+            } else {
+                event.appendCsv(row);
+            }
+            context.write(id, row);
+            instrumentation.end();
+        }
+
+        @Override
+        public void cleanup(Context context) {
+            instrumentation.flush(context);
         }
     }
 
     /**
-     * Configures and returns a new Hadoop Job for LogStructuring.
+     * The header of the CSV file.
+     */
+    static final String HEADER = "Time,Level,Content,EventId,EventTemplate";
+
+    /**
+     * Configures and returns a new Hadoop Job for LogStructuring, chained to
+     * the pre-pass of {@link RowNumbering} numbering the rows of the input.
      *
      * @param conf   the Hadoop configuration to use for the job
      * @param input  the input path for the job
      * @param output the output path for the job
-     * @return a configured Job instance for the LogStructuring job
+     * @return a configured Job instance for the LogStructuring job, which runs
+     *         the pre-pass when it is submitted if it was not run yet
+     * @throws IllegalArgumentException if both {@link #COLUMNAR_KEY} and
+     *                                  {@link TemplateMining#MODEL_KEY} are set
      */
     public static Job getJob(Configuration conf, Path input, Path output) throws IOException {
-        conf.set("mapreduce.output.textoutputformat.separator", ",");
-        Job job = new Job(conf, "csv structuring");
+        if (conf.getBoolean(COLUMNAR_KEY, false) && conf.get(TemplateMining.MODEL_KEY) != null) {
+            throw new IllegalArgumentException("The learned templates of " + TemplateMining.MODEL_KEY
+                    + " cannot be written in the columnar format of " + COLUMNAR_KEY);
+        }
+        final Path counts = temporaryPath(output);
+        Job job = new ChainedJob(conf, "csv structuring", RowNumbering.getJob(conf, input, counts),
+                new ChainedJob.Preparation() {
+                    @Override
+                    public void prepare(Job job) throws IOException {
+                        RowNumbering.readCounts(job.getConfiguration(), counts);
+                    }
+                });
         job.setJarByClass(ErrorStatistic.class);
         job.setMapperClass(MyMapper.class);
-        job.setOutputKeyClass(IntWritable.class);
-        job.setOutputValueClass(Text.class);
-        FileInputFormat.addInputPath(job, input);
+        job.setNumReduceTasks(0);
+        job.setOutputKeyClass(LongWritable.class);
+        if (conf.getBoolean(COLUMNAR_KEY, false)) {
+            job.setOutputValueClass(Event.class);
+            job.setOutputFormatClass(ColumnarOutputFormat.class);
+        } else {
+            job.setOutputValueClass(Text.class);
+            job.setOutputFormatClass(CsvOutputFormat.class);
+        }
+        LogInputFormat.addInputPath(job, input);
         FileOutputFormat.setOutputPath(job, output);
         return job;
     }
 
+    /**
+     * Returns a temporary path next to an output path, for the row counts.
+     *
+     * @param output the output path of a job
+     * @return the temporary path
+     */
+    static Path temporaryPath(Path output) {
+        return new Path(output.getParent(), "_" + output.getName() + "_rows");
+    }
+
     public static void main(String[] args) throws Exception {
         Configuration conf = new Configuration();
         String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
         if (otherArgs.length != 2) {
-            System.err.println("Usage: CsvStructuring <in> <out>");
+            System.err.println("Usage: CsvStructuring [-D " + TemplateMining.MODEL_KEY + "=<templates>] <in> <out>");
             System.exit(2);
         }
         Job job = getJob(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
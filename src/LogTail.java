@@ -0,0 +1,302 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * A long-running follow mode to analyze a live Apache error log.
+ *
+ * The log file is tailed: the lines appended to it are parsed as soon as they
+ * are polled, and the counting analyses of {@link WordCount},
+ * {@link TimeStatistic} and {@link ErrorStatistic} are kept up to date in an
+ * {@link Aggregates} in memory. A snapshot of the results is published to the
+ * output directory at a configurable interval, in the same files as the Hadoop
+ * jobs. If {@link #BURSTS_KEY} is set, the events are also added to a
+ * {@link BurstDetector}, whose bursts are printed and appended to the file
+ * {@link #BURSTS} of the output directory as soon as they are found.
+ *
+ * Log rotation is detected by the identity of the file changing, in which case
+ * the rest of the old file is read before following the new one from its
+ * beginning. A file shorter than the position read so far is considered to be
+ * truncated and is read again from its beginning.
+ */
+public class LogTail {
+
+    /**
+     * The configuration key of the interval between snapshots in milliseconds.
+     */
+    public static final String INTERVAL_KEY = "analysis.tail.interval";
+
+    /**
+     * The configuration key of the interval between polls of the file in
+     * milliseconds, when there is no new data.
+     */
+    public static final String POLL_KEY = "analysis.tail.poll";
+
+    /**
+     * The configuration key to start from the end of the file, skipping the
+     * existing lines.
+     */
+    public static final String FROM_END_KEY = "analysis.tail.fromEnd";
+
+    /**
+     * The configuration key to detect the bursts of events.
+     */
+    public static final String BURSTS_KEY = "analysis.tail.bursts";
+
+    /**
+     * The name of the file of the bursts in the output directory.
+     */
+    public static final String BURSTS = "bursts";
+
+    private final Path file;
+    private final Aggregates aggregates;
+    private BurstDetector detector;
+    private final Text line = new Text();
+    private FileChannel channel;
+    private Object identity;
+    private long position;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+    private long lines;
+
+    /**
+     * Constructs a tail of a log file.
+     *
+     * @param file       the log file to follow
+     * @param aggregates the aggregates to keep up to date
+     */
+    public LogTail(Path file, Aggregates aggregates) {
+        this.file = file;
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * Sets a detector to add the events to, after the aggregates.
+     *
+     * @param detector the detector of the bursts of the events
+     */
+    public void setBurstDetector(BurstDetector detector) {
+        this.detector = detector;
+    }
+
+    /**
+     * Skips the existing content of the file, if the file exists.
+     *
+     * @throws IOException if the file cannot be opened
+     */
+    public void seekToEnd() throws IOException {
+        if (open()) {
+            position = channel.size();
+        }
+    }
+
+    /**
+     * Reads and adds the complete lines appended to the file since the last poll.
+     *
+     * @return the number of lines added
+     * @throws IOException if the file cannot be read
+     */
+    public long poll() throws IOException {
+        long before = lines;
+        if (channel == null && !open()) {
+            return 0;
+        }
+        drain();
+        Object current = identity(file);
+        if (current != null && !current.equals(identity)) {
+            // Rotated: finish the old file, including a last line without a line feed
+            drain();
+            flush();
+            channel.close();
+            channel = null;
+            if (open()) {
+                drain();
+            }
+        } else if (current != null && channel.size() < position) {
+            // Truncated: the unfinished line is gone with the old content
+            position = 0;
+            buffer.clear();
+            drain();
+        }
+        return lines - before;
+    }
+
+    /**
+     * Returns the number of lines added so far.
+     *
+     * @return the number of lines
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    private boolean open() throws IOException {
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        identity = identity(file);
+        position = 0;
+        buffer.clear();
+        return true;
+    }
+
+    /**
+     * Returns the identity of a file, which changes when the file is replaced.
+     */
+    private static Object identity(Path file) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the file to its current end, adding the complete lines and keeping
+     * an unfinished line in the buffer.
+     */
+    private void drain() throws IOException {
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                // A line longer than the buffer
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                return;
+            }
+            position += n;
+            byte[] bytes = buffer.array();
+            int start = 0;
+            for (int i = 0; i < buffer.position(); i++) {
+                if (bytes[i] == '\n') {
+                    add(bytes, start, i);
+                    start = i + 1;
+                }
+            }
+            int rest = buffer.position() - start;
+            System.arraycopy(bytes, start, bytes, 0, rest);
+            buffer.position(rest);
+        }
+    }
+
+    /**
+     * Adds the unfinished line in the buffer, if any.
+     */
+    private void flush() throws IOException {
+        if (buffer.position() > 0) {
+            add(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+
+    private void add(byte[] bytes, int start, int end) throws IOException {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        line.set(bytes, start, end - start);
+        Event event = aggregates.add(line);
+        if (detector != null) {
+            detector.add(event);
+        }
+        lines++;
+    }
+
+    /**
+     * Publishes a snapshot of the aggregates to the output directory. Each file
+     * is written aside and then moved in place, so readers never see a partial
+     * file.
+     *
+     * @param aggregates the aggregates to publish
+     * @param output     the output directory
+     * @throws IOException if the snapshot cannot be written
+     */
+    static void publish(Aggregates aggregates, File output) throws IOException {
+        File temporary = new File(output, "_temporary");
+        aggregates.write(temporary);
+        for (FusedAnalysis.Analysis analysis : FusedAnalysis.Analysis.values()) {
+            File part = new File(new File(temporary, analysis.name()), "part-r-00000");
+            if (part.exists()) {
+                File dir = new File(output, analysis.name());
+                dir.mkdirs();
+                Files.move(part.toPath(), new File(dir, part.getName()).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                new File(part.getParentFile(), "_SUCCESS").delete();
+                part.getParentFile().delete();
+            }
+        }
+        temporary.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: LogTail [-D " + INTERVAL_KEY + "=<ms>] [-D " + FROM_END_KEY
+                    + "=true] [-D " + BURSTS_KEY + "=true] <log file> <out>");
+            System.exit(2);
+        }
+        EnumSet<FusedAnalysis.Analysis> analyses = FusedAnalysis.selected(conf);
+        analyses.remove(FusedAnalysis.Analysis.LogStructuring);
+        Aggregates aggregates = new Aggregates(analyses);
+        LogTail tail = new LogTail(Paths.get(otherArgs[0]), aggregates);
+        final File output = new File(otherArgs[1]);
+        if (conf.getBoolean(BURSTS_KEY, false)) {
+            output.mkdirs();
+            tail.setBurstDetector(new BurstDetector(conf, new BurstDetector.Listener() {
+                @Override
+                public void burst(BurstDetector.Burst burst) throws IOException {
+                    System.out.println("Burst: " + burst);
+                    try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(output, BURSTS), true),
+                            StandardCharsets.UTF_8)) {
+                        writer.write(burst + "\n");
+                    }
+                }
+            }));
+        }
+        long interval = conf.getLong(INTERVAL_KEY, 10000);
+        long poll = conf.getLong(POLL_KEY, 10);
+        if (conf.getBoolean(FROM_END_KEY, false)) {
+            tail.seekToEnd();
+        }
+
+        long lastLines = 0;
+        long lastPublish = System.currentTimeMillis();
+        while (true) {
+            long added = tail.poll();
+            long now = System.currentTimeMillis();
+            if (now - lastPublish >= interval) {
+                publish(aggregates, output);
+                System.out.printf("%d lines, %.0f lines/s%n", tail.getLines(),
+                        (tail.getLines() - lastLines) * 1000.0 / (now - lastPublish));
+                lastLines = tail.getLines();
+                lastPublish = now;
+            }
+            if (added == 0) {
+                Thread.sleep(poll);
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The LogTime class converts the time of an Apache log event, e.g.
+ * "Sun Dec 04 04:47:44 2005", to and from the number of seconds since the
+ * epoch.
+ *
+ * The time has no time zone in the logs, so it is read as a UTC time, which
+ * keeps the conversion exact and independent of the local time zone. Only a
+ * time in exactly this format, with a week day matching the date, is parsed,
+ * so a parsed time is always formatted back to the same bytes. The conversion
+ * is done on the bytes without allocating.
+ *
+ * A {@link Parser} parses the times of consecutive events, which mostly share
+ * their minute, from the time of the previous event.
+ */
+public class LogTime {
+
+    /**
+     * The value returned by {@link #parse(byte[], int, int)} for a time which
+     * is not in the format.
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    /**
+     * The length of a time in bytes.
+     */
+    public static final int LENGTH = 24;
+
+    private static final TimeBucket.Dimension WEEK_DAY = TimeBucket.Dimension.WEEK_DAY;
+    private static final TimeBucket.Dimension MONTH = TimeBucket.Dimension.MONTH;
+    private static final int[] MONTH_DAYS = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    private LogTime() {
+    }
+
+    /**
+     * Parses a time to the number of seconds since the epoch.
+     *
+     * @param bytes  the bytes containing the time
+     * @param start  the start offset of the time in the bytes
+     * @param length the length of the time in bytes
+     * @return the number of seconds since the epoch, or {@link #INVALID} if the
+     *         bytes are not a valid time
+     */
+    public static long parse(byte[] bytes, int start, int length) {
+        // "EEE MMM dd HH:mm:ss yyyy"
+        if (length != LENGTH || bytes[start + 3] != ' ' || bytes[start + 7] != ' ' || bytes[start + 10] != ' '
+                || bytes[start + 13] != ':' || bytes[start + 16] != ':' || bytes[start + 19] != ' ') {
+            return INVALID;
+        }
+        int weekDay = WEEK_DAY.parse(bytes, start, 3);
+        int month = MONTH.parse(bytes, start + 4, 3);
+        int day = digits(bytes, start + 8, 2);
+        int hour = digits(bytes, start + 11, 2);
+        int minute = digits(bytes, start + 14, 2);
+        int second = digits(bytes, start + 17, 2);
+        int year = digits(bytes, start + 20, 4);
+        if (weekDay < 0 || month < 0 || day < 1 || day > MONTH_DAYS[month] || hour < 0 || hour > 23 || minute < 0
+                || minute > 59 || second < 0 || second > 59 || year < 0) {
+            return INVALID;
+        }
+        long epochDay = toEpochDay(year, month + 1, day);
+        if (weekDay(epochDay) != weekDay || (month == 1 && day == 29 && toEpochDay(year, 3, 1) - epochDay != 1)) {
+            return INVALID;
+        }
+        return epochDay * 86400 + hour * 3600 + minute * 60 + second;
+    }
+
+    /**
+     * The Parser class parses the times of consecutive events with a cache of the
+     * last time parsed.
+     *
+     * A time with the same bytes as the last time but the seconds is in the same
+     * minute, whose number of seconds since the epoch is cached, so only its
+     * seconds are parsed. A log has mostly runs of events in the same second or
+     * minute, whose times are thus checked by a comparison of their bytes
+     * instead of a conversion of their date. Any other time is parsed by
+     * {@link LogTime#parse(byte[], int, int)} and becomes the cached time. The
+     * results are the same as those of {@link LogTime#parse(byte[], int, int)}.
+     */
+    public static class Parser {
+        private final byte[] last = new byte[LENGTH];
+        private long lastMinute = INVALID;
+
+        /**
+         * Parses a time to the number of seconds since the epoch.
+         *
+         * @param bytes  the bytes containing the time
+         * @param start  the start offset of the time in the bytes
+         * @param length the length of the time in bytes
+         * @return the number of seconds since the epoch, or {@link #INVALID} if
+         *         the bytes are not a valid time
+         */
+        public long parse(byte[] bytes, int start, int length) {
+            if (length == LENGTH && lastMinute != INVALID && isSameMinute(bytes, start)) {
+                int second = digits(bytes, start + 17, 2);
+                return second >= 0 && second <= 59 ? lastMinute + second : INVALID;
+            }
+            long epochSecond = LogTime.parse(bytes, start, length);
+            if (epochSecond != INVALID) {
+                System.arraycopy(bytes, start, last, 0, LENGTH);
+                lastMinute = epochSecond - Math.floorMod(epochSecond, 60);
+            }
+            return epochSecond;
+        }
+
+        /**
+         * Returns whether a time has the bytes of the last time but the seconds,
+         * comparing the minutes first as they change the most often.
+         */
+        private boolean isSameMinute(byte[] bytes, int start) {
+            for (int i = 15; i >= 0; i--) {
+                if (bytes[start + i] != last[i]) {
+                    return false;
+                }
+            }
+            for (int i = 19; i < LENGTH; i++) {
+                if (bytes[start + i] != last[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Formats a number of seconds since the epoch to a time.
+     *
+     * @param epochSecond the number of seconds since the epoch, of a year from 0
+     *                    to 9999
+     * @param bytes       the bytes to write the time to
+     * @param offset      the offset to write the {@link #LENGTH} bytes of the
+     *                    time at
+     */
+    public static void format(long epochSecond, byte[] bytes, int offset) {
+        long epochDay = Math.floorDiv(epochSecond, 86400);
+        int secondOfDay = (int) Math.floorMod(epochSecond, 86400L);
+        // The civil date of the day, see toEpochDay
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        name(WEEK_DAY.render(weekDay(epochDay)), bytes, offset);
+        bytes[offset + 3] = ' ';
+        name(MONTH.render(month - 1), bytes, offset + 4);
+        bytes[offset + 7] = ' ';
+        digits(day, bytes, offset + 8, 2);
+        bytes[offset + 10] = ' ';
+        digits(secondOfDay / 3600, bytes, offset + 11, 2);
+        bytes[offset + 13] = ':';
+        digits(secondOfDay / 60 % 60, bytes, offset + 14, 2);
+        bytes[offset + 16] = ':';
+        digits(secondOfDay % 60, bytes, offset + 17, 2);
+        bytes[offset + 19] = ' ';
+        digits(year, bytes, offset + 20, 4);
+    }
+
+    /**
+     * Formats a number of seconds since the epoch to a time.
+     *
+     * @param epochSecond the number of seconds since the epoch
+     * @return the time, e.g. "Sun Dec 04 04:47:44 2005"
+     */
+    public static String format(long epochSecond) {
+        byte[] bytes = new byte[LENGTH];
+        format(epochSecond, bytes, 0);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the number of days since the epoch of a date in the proleptic
+     * Gregorian calendar, as in <code>LocalDate.toEpochDay()</code>.
+     */
+    static long toEpochDay(long year, int month, int day) {
+        // Days from civil, with years starting in March
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the week day of a day since the epoch, from 0 for Mon to 6 for Sun
+     * as in {@link TimeBucket.Dimension#WEEK_DAY}.
+     */
+    static int weekDay(long epochDay) {
+        return (int) Math.floorMod(epochDay + 3, 7L); // 1970-01-01 is a Thursday
+    }
+
+    private static int digits(byte[] bytes, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return value;
+    }
+
+    private static void digits(int value, byte[] bytes, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static void name(String name, byte[] bytes, int offset) {
+        for (int i = 0; i < 3; i++) {
+            bytes[offset + i] = (byte) name.charAt(i);
+        }
+    }
+}
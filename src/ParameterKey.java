@@ -0,0 +1,182 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The ParameterKey class is a key of a parameter of an event type and one of
+ * its values, used to count the events by parameter in
+ * {@link ParameterStatistic}.
+ *
+ * The value is the typed value of the parameter read by {@link Event} when the
+ * content is matched: a number for the {@link Event.ParameterType#INT} and
+ * {@link Event.ParameterType#IP} parameters, or the bytes of the parameter
+ * otherwise, or when the bytes are not of the type of the parameter. It is
+ * serialized as the ordinal of the event type, the index of the parameter and
+ * a tag of the kind of the value in a byte each, followed by the number in a
+ * long with its sign bit flipped, or by the bytes as a vint length and the
+ * bytes. A registered raw comparator compares the serialized bytes directly,
+ * so the keys are ordered by event type, parameter, and then the numbers in
+ * numeric order before the bytes.
+ */
+public class ParameterKey implements WritableComparable<ParameterKey> {
+    private static final Event.EventId[] EVENT_IDS = Event.EventId.values();
+
+    private Event.EventId eventId = Event.EventId.OTHER;
+    private int index;
+    private long number = Event.NO_VALUE;
+    private BytesWritable bytes = new BytesWritable();
+
+    static {
+        WritableComparator.define(ParameterKey.class, new Comparator());
+    }
+
+    public ParameterKey() {
+    }
+
+    /**
+     * Sets the key to a parameter of an event and its value, copying the bytes
+     * of a parameter which has no numeric value.
+     *
+     * @param event a parsed event
+     * @param index the index of the parameter, less than the
+     *              {@link Event.EventId#getParameterCount()} of the event type
+     */
+    public void set(Event event, int index) {
+        this.eventId = event.gerEventId();
+        this.index = index;
+        this.number = event.getParameterValue(index);
+        if (number == Event.NO_VALUE) {
+            bytes.set(event.getBytes(), event.getParameterStart(index), event.getParameterLength(index));
+        }
+    }
+
+    public Event.EventId getEventId() {
+        return eventId;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the numeric value of the parameter.
+     *
+     * @return the value, or {@link Event#NO_VALUE} if the value is bytes
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    /**
+     * Returns the bytes of the parameter, if it has no numeric value.
+     *
+     * @return the bytes of the value
+     */
+    public BytesWritable getValueBytes() {
+        return bytes;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(eventId.ordinal());
+        out.writeByte(index);
+        if (number != Event.NO_VALUE) {
+            out.writeByte(0);
+            out.writeLong(number ^ Long.MIN_VALUE);
+        } else {
+            out.writeByte(1);
+            WritableUtils.writeVInt(out, bytes.getLength());
+            out.write(bytes.getBytes(), 0, bytes.getLength());
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        eventId = EVENT_IDS[in.readByte()];
+        index = in.readByte();
+        if (in.readByte() == 0) {
+            number = in.readLong() ^ Long.MIN_VALUE;
+        } else {
+            number = Event.NO_VALUE;
+            byte[] value = new byte[WritableUtils.readVInt(in)];
+            in.readFully(value);
+            bytes.set(value, 0, value.length);
+        }
+    }
+
+    @Override
+    public int compareTo(ParameterKey other) {
+        if (eventId != other.eventId) {
+            return eventId.compareTo(other.eventId);
+        }
+        if (index != other.index) {
+            return Integer.compare(index, other.index);
+        }
+        boolean numeric = number != Event.NO_VALUE;
+        if (numeric != (other.number != Event.NO_VALUE)) {
+            return numeric ? -1 : 1;
+        }
+        return numeric ? Long.compare(number, other.number) : bytes.compareTo(other.bytes);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ParameterKey && compareTo((ParameterKey) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = eventId.ordinal() * 31 + index;
+        return hash * 31 + (number != Event.NO_VALUE ? Long.hashCode(number) : bytes.hashCode());
+    }
+
+    /**
+     * Returns the event type, the name of the parameter and the value, the
+     * address of an {@link Event.ParameterType#IP} parameter in dotted form.
+     *
+     * @return the event type, the parameter and the value, separated by tabs
+     */
+    @Override
+    public String toString() {
+        String value;
+        if (number == Event.NO_VALUE) {
+            value = new String(bytes.getBytes(), 0, bytes.getLength(), StandardCharsets.UTF_8);
+        } else if (eventId.getParameterType(index) == Event.ParameterType.IP) {
+            value = Event.formatIp(number);
+        } else {
+            value = Long.toString(number);
+        }
+        return eventId + "\t" + eventId.getParameter(index) + "\t" + value;
+    }
+
+    /**
+     * A raw comparator of ParameterKey, which compares the serialized bytes
+     * directly, the event type, the parameter and the tag, and then the
+     * numbers or the bytes after their lengths.
+     */
+    public static class Comparator extends WritableComparator {
+        public Comparator() {
+            super(ParameterKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int c = compareBytes(b1, s1, 3, b2, s2, 3);
+            if (c != 0) {
+                return c;
+            }
+            if (b1[s1 + 2] == 0) {
+                return compareBytes(b1, s1 + 3, 8, b2, s2 + 3, 8);
+            }
+            int n1 = WritableUtils.decodeVIntSize(b1[s1 + 3]);
+            int n2 = WritableUtils.decodeVIntSize(b2[s2 + 3]);
+            return compareBytes(b1, s1 + 3 + n1, l1 - 3 - n1, b2, s2 + 3 + n2, l2 - 3 - n2);
+        }
+    }
+}
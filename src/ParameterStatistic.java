@@ -0,0 +1,126 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * A Hadoop MapReduce to count the events by the values of their parameters,
+ * e.g. per scoreboard slot, per error state or per client IP.
+ *
+ * The parameters are the parts of the contents matched by the
+ * <code>\S+</code> of the templates, named and typed by {@link Event.EventId}.
+ * Their values are read by {@link Event} when the content is matched, so the
+ * mappers neither match the contents again nor decode them to strings: the
+ * numbers and the addresses are keyed as longs in a {@link ParameterKey}, and
+ * only the other parameters, e.g. the paths, are keyed by their bytes.
+ *
+ * Each output line is the event type, the name of the parameter, the value and
+ * the number of events, separated by tabs, e.g. "E3\tstate\t6\t368", ordered by
+ * event type, parameter and value.
+ */
+public class ParameterStatistic {
+
+    /**
+     * <p>
+     * MyMapper is a static inner class that extends the Mapper class. It keys
+     * each parameter of the events by its value.
+     * </p>
+     *
+     * <p>
+     * The <code>map</code> method parses each line into a reused Event object,
+     * and writes a reused ParameterKey of each parameter of a parsed event with
+     * a count of one.
+     * </p>
+     *
+     * <p>
+     * Key: Object (input key, not used in this implementation) Value: Text (a line
+     * of text from the input)
+     * </p>
+     *
+     * <p>
+     * Output Key: ParameterKey (the event type, the parameter and its value)
+     * Output Value: LongWritable (the count, always 1)
+     * </p>
+     */
+    private static class MyMapper extends Mapper<Object, Text, ParameterKey, LongWritable> {
+        private static final LongWritable ONE = new LongWritable(1);
+        private Event event = new Event();
+        private ParameterKey parameter = new ParameterKey();
+
+        @Override
+        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+            if (!event.set(value)) {
+                return;
+            }
+            for (int i = 0; i < event.gerEventId().getParameterCount(); i++) {
+                parameter.set(event, i);
+                context.write(parameter, ONE);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * A Reducer class that sums the counts of a parameter value, used as the
+     * combiner as well.
+     * </p>
+     *
+     * <p>
+     * Output Key: ParameterKey (the event type, the parameter and its value)
+     * Output Value: LongWritable (the number of events)
+     * </p>
+     */
+    private static class MyReducer extends Reducer<ParameterKey, LongWritable, ParameterKey, LongWritable> {
+        private LongWritable result = new LongWritable();
+
+        @Override
+        public void reduce(ParameterKey key, Iterable<LongWritable> values, Context context)
+                throws IOException, InterruptedException {
+            long sum = 0;
+            for (LongWritable value : values) {
+                sum += value.get();
+            }
+            result.set(sum);
+            context.write(key, result);
+        }
+    }
+
+    /**
+     * Configures and returns a new Hadoop Job for the parameter statistics.
+     *
+     * @param conf   the Hadoop configuration to use for the job
+     * @param input  the input path for the job
+     * @param output the output path for the job
+     * @return a configured Job instance for the parameter statistics
+     */
+    public static Job getJob(Configuration conf, Path input, Path output) throws IOException {
+        Job job = new Job(conf, "parameter statistic");
+        job.setJarByClass(ParameterStatistic.class);
+        job.setMapperClass(MyMapper.class);
+        job.setCombinerClass(MyReducer.class);
+        job.setReducerClass(MyReducer.class);
+        job.setOutputKeyClass(ParameterKey.class);
+        job.setOutputValueClass(LongWritable.class);
+        LogInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: ParameterStatistic <in> <out>");
+            System.exit(2);
+        }
+        Job job = getJob(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
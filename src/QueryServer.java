@@ -0,0 +1,494 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process query server of the results of an analysis run, with a local
+ * HTTP endpoint and a Java API.
+ *
+ * The results of the output path are loaded into an {@link AnalysisIndex},
+ * which answers the queries from memory. The queries are the paths and query
+ * strings of the HTTP endpoint, answered in JSON by {@link #query(String)}:
+ * <ul>
+ * <li><code>/level?name=error</code>: the count of a level, or of all the
+ * levels without a name;</li>
+ * <li><code>/time?dimension=hour&amp;value=04</code>: the count of a time
+ * feature of {@link TimeStatistic}, or of all the values of the dimension
+ * counted without a value;</li>
+ * <li><code>/word?name=child</code>: the count of a word;</li>
+ * <li><code>/words?prefix=jk&amp;n=10</code>: the most frequent words, of a
+ * prefix if given;</li>
+ * <li><code>/range?resolution=5m&amp;dimension=level&amp;value=error&amp;from=2005-12-04T04:00:00&amp;to=2005-12-04T05:00:00</code>:
+ * the count of a time series of {@link TimeRollup} in a time range, and its
+ * buckets with <code>buckets=true</code>;</li>
+ * <li><code>/templates?n=10</code>: the ids, the templates and the counts of
+ * the most frequent templates of {@link TemplateMining}.</li>
+ * </ul>
+ *
+ * The answers are cached in a least recently used cache of
+ * {@link #CACHE_KEY} entries, so a repeated query, e.g. the buckets of a long
+ * range refreshed by a dashboard, is answered without being computed again.
+ *
+ * The <code>_SUCCESS</code> files of the analyses of the output path are
+ * checked every {@link #RELOAD_KEY} milliseconds. When they are newer, as after
+ * a new run, the results are loaded into a new index while the queries are
+ * still answered from the previous one, and the new index replaces it with an
+ * empty cache at once. The results are only loaded once the runs have
+ * committed all their analyses: a run of {@link ApacheLogAnalysis} deletes the
+ * output path and commits its analyses one job at a time, so the index is kept
+ * while the directory of an analysis has no <code>_SUCCESS</code> file yet, or
+ * while only some of the analyses loaded of a run are newer. The fused job of
+ * {@link FusedAnalysis} writes a single <code>_SUCCESS</code> file at the root
+ * of the output path, which commits the directories of the analyses it wrote
+ * before it. An analysis loaded is only missing while a run is still going,
+ * unless the run has finished, with a <code>_SUCCESS</code> file at the root
+ * or its {@link ApacheLogAnalysis#REPORT}, without selecting it: it is then
+ * empty from the end of the run.
+ */
+public class QueryServer {
+
+    /**
+     * The configuration key of the port of the HTTP endpoint.
+     */
+    public static final String PORT_KEY = "analysis.server.port";
+
+    /**
+     * The configuration key of the maximum number of answers cached.
+     */
+    public static final String CACHE_KEY = "analysis.server.cache";
+
+    /**
+     * The configuration key of the interval between checks of the results in
+     * milliseconds.
+     */
+    public static final String RELOAD_KEY = "analysis.server.reload";
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_CACHE = 1024;
+    public static final long DEFAULT_RELOAD = 5000;
+
+    /**
+     * The analyses of the index by run: the analyses written together by a run
+     * of {@link ApacheLogAnalysis}, and the analyses written by runs of their
+     * own.
+     */
+    private static final String[][] RUNS = {
+            { FusedAnalysis.Analysis.ErrorStatistic.name(), FusedAnalysis.Analysis.TimeStatistic.name(),
+                    FusedAnalysis.Analysis.WordCount.name() },
+            { "TimeRollup" }, { "TemplateMining" } };
+
+    /**
+     * The version of an analysis without a directory, while no run has
+     * finished.
+     */
+    private static final long ABSENT = 0;
+
+    /**
+     * The version of an analysis whose directory has no <code>_SUCCESS</code>
+     * file, i.e. still written or failed.
+     */
+    private static final long UNCOMMITTED = -1;
+
+    /**
+     * An index with the cache of its answers, replaced together.
+     */
+    private static class Snapshot {
+        final AnalysisIndex index;
+        final long[][] version;
+        final Map<String, String> cache;
+
+        Snapshot(AnalysisIndex index, long[][] version, final int capacity) {
+            this.index = index;
+            this.version = version;
+            this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+    }
+
+    private final FileSystem fs;
+    private final Path output;
+    private final int capacity;
+    private volatile Snapshot snapshot;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a server of the results of an output path, and loads them.
+     *
+     * @param conf   the configuration of the server
+     * @param output the output path of an analysis run
+     * @throws IOException if the results cannot be read
+     */
+    public QueryServer(Configuration conf, Path output) throws IOException {
+        this.fs = output.getFileSystem(conf);
+        this.output = output;
+        this.capacity = conf.getInt(CACHE_KEY, DEFAULT_CACHE);
+        long[][] version = version();
+        this.snapshot = new Snapshot(AnalysisIndex.load(fs, output), version, capacity);
+    }
+
+    /**
+     * Returns the version of the results: the modification times of the
+     * <code>_SUCCESS</code> files of the analyses by run, or of the
+     * <code>_SUCCESS</code> file at the root of the output path for the
+     * directories written before it, {@link #UNCOMMITTED} for the other
+     * directories, and the modification time of the end of the last run, or
+     * {@link #ABSENT}, for the analyses without a directory.
+     */
+    private long[][] version() throws IOException {
+        long committed = modificationTime(new Path(output, "_SUCCESS"));
+        long finished = committed != ABSENT ? committed
+                : modificationTime(new Path(output, ApacheLogAnalysis.REPORT));
+        long[][] version = new long[RUNS.length][];
+        for (int run = 0; run < RUNS.length; run++) {
+            version[run] = new long[RUNS[run].length];
+            for (int i = 0; i < RUNS[run].length; i++) {
+                Path analysis = new Path(output, RUNS[run][i]);
+                Path success = new Path(analysis, "_SUCCESS");
+                if (fs.exists(success)) {
+                    version[run][i] = fs.getFileStatus(success).getModificationTime();
+                } else if (fs.exists(analysis)) {
+                    // Written by a fused job, or still written
+                    version[run][i] = committed != ABSENT
+                            && committed >= fs.getFileStatus(analysis).getModificationTime() ? committed
+                                    : UNCOMMITTED;
+                } else {
+                    // Not selected by the last run, or not written yet
+                    version[run][i] = finished;
+                }
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Returns the modification time of a file, or {@link #ABSENT} if it does
+     * not exist.
+     */
+    private long modificationTime(Path file) throws IOException {
+        return fs.exists(file) ? fs.getFileStatus(file).getModificationTime() : ABSENT;
+    }
+
+    /**
+     * Loads the results into a new index if their version changed, and if the
+     * runs which changed them have committed all their analyses: no analysis is
+     * uncommitted, and all the analyses loaded of a run which changed are
+     * newer, none missing unless a newer run has finished without it.
+     *
+     * @return true if a new index was loaded
+     * @throws IOException if the results cannot be read
+     */
+    public boolean reload() throws IOException {
+        long[][] version = version();
+        boolean changed = false;
+        for (int run = 0; run < RUNS.length; run++) {
+            long[] loaded = snapshot.version[run];
+            if (Arrays.equals(loaded, version[run])) {
+                continue;
+            }
+            for (int i = 0; i < loaded.length; i++) {
+                if (version[run][i] == UNCOMMITTED || loaded[i] > 0 && version[run][i] <= loaded[i]) {
+                    return false;
+                }
+            }
+            changed = true;
+        }
+        if (!changed) {
+            return false;
+        }
+        snapshot = new Snapshot(AnalysisIndex.load(fs, output), version, capacity);
+        return true;
+    }
+
+    /**
+     * Returns the current index of the results, for the queries of the Java
+     * API.
+     *
+     * @return the index, which is not changed by a reload
+     */
+    public AnalysisIndex getIndex() {
+        return snapshot.index;
+    }
+
+    /**
+     * Answers a query, from the cache if it was answered since the last reload.
+     *
+     * @param query the path and the query string, e.g. "/level?name=error"
+     * @return the answer in JSON
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    public String query(String query) {
+        Snapshot current = snapshot;
+        synchronized (current.cache) {
+            String answer = current.cache.get(query);
+            if (answer != null) {
+                hits.incrementAndGet();
+                return answer;
+            }
+        }
+        misses.incrementAndGet();
+        String answer = answer(current.index, query);
+        synchronized (current.cache) {
+            current.cache.put(query, answer);
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the numbers of the queries answered from the cache and computed.
+     *
+     * @return the hits and the misses of the cache
+     */
+    public long[] getCacheStatistics() {
+        return new long[] { hits.get(), misses.get() };
+    }
+
+    private static String answer(AnalysisIndex index, String query) {
+        int question = query.indexOf('?');
+        String path = question < 0 ? query : query.substring(0, question);
+        Map<String, String> parameters = parameters(question < 0 ? "" : query.substring(question + 1));
+        StringBuilder json = new StringBuilder("{");
+        switch (path) {
+        case "/level":
+            if (parameters.containsKey("name")) {
+                count(json, parameters.get("name"), index.level(parameters.get("name")));
+            } else {
+                for (String level : index.getLevels()) {
+                    count(json, level, index.level(level));
+                }
+            }
+            break;
+        case "/time": {
+            TimeBucket.Dimension dimension = timeDimension(parameter(parameters, "dimension"));
+            if (parameters.containsKey("value")) {
+                String value = parameters.get("value");
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                count(json, value, index.time(dimension, dimension.parse(bytes, 0, bytes.length)));
+            } else {
+                for (int value = 0; value < dimension.size(); value++) {
+                    if (index.time(dimension, value) > 0) {
+                        count(json, dimension.render(value), index.time(dimension, value));
+                    }
+                }
+            }
+            break;
+        }
+        case "/word":
+            count(json, parameter(parameters, "name"), index.word(parameters.get("name")));
+            break;
+        case "/words":
+            entries(json, index.topWords(parameters.containsKey("prefix") ? parameters.get("prefix") : "",
+                    number(parameters, "n", 10)));
+            break;
+        case "/range": {
+            RollupKey.Resolution resolution = resolution(parameter(parameters, "resolution"));
+            RollupKey.Dimension dimension = rollupDimension(parameter(parameters, "dimension"));
+            String value = parameter(parameters, "value");
+            long from = time(parameter(parameters, "from"));
+            long to = time(parameter(parameters, "to"));
+            count(json, "count", index.range(resolution, dimension, value, from, to));
+            if ("true".equals(parameters.get("buckets"))) {
+                json.append(", \"buckets\": [");
+                List<long[]> buckets = index.buckets(resolution, dimension, value, from, to);
+                for (int i = 0; i < buckets.size(); i++) {
+                    json.append(i == 0 ? "" : ", ").append('[').append(buckets.get(i)[0]).append(", ")
+                            .append(buckets.get(i)[1]).append(']');
+                }
+                json.append(']');
+            }
+            break;
+        }
+        case "/templates": {
+            List<AnalysisIndex.Entry> templates = index.topTemplates(number(parameters, "n", 10));
+            json.append("\"top\": [");
+            for (int i = 0; i < templates.size(); i++) {
+                String id = templates.get(i).getKey();
+                json.append(i == 0 ? "" : ", ").append('[').append(Instrumentation.quote(id)).append(", ")
+                        .append(Instrumentation.quote(index.templateOf(id))).append(", ")
+                        .append(templates.get(i).getCount()).append(']');
+            }
+            json.append(']');
+            break;
+        }
+        default:
+            throw new IllegalArgumentException("Unknown query " + path);
+        }
+        return json.append('}').toString();
+    }
+
+    private static void count(StringBuilder json, String key, long count) {
+        json.append(json.length() == 1 ? "" : ", ").append(Instrumentation.quote(key)).append(": ").append(count);
+    }
+
+    private static void entries(StringBuilder json, List<AnalysisIndex.Entry> entries) {
+        json.append("\"top\": [");
+        for (int i = 0; i < entries.size(); i++) {
+            json.append(i == 0 ? "" : ", ").append('[').append(Instrumentation.quote(entries.get(i).getKey()))
+                    .append(", ").append(entries.get(i).getCount()).append(']');
+        }
+        json.append(']');
+    }
+
+    private static Map<String, String> parameters(String queryString) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        for (String parameter : queryString.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            int equals = parameter.indexOf('=');
+            try {
+                parameters.put(URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), "UTF-8"),
+                        equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return parameters;
+    }
+
+    private static String parameter(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static int number(Map<String, String> parameters, String name, int defaultValue) {
+        try {
+            return parameters.containsKey(name) ? Integer.parseInt(parameters.get(name)) : defaultValue;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + name);
+        }
+    }
+
+    private static long time(String time) {
+        try {
+            return TimeRangeQuery.parseTime(time);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Not a time: " + time);
+        }
+    }
+
+    private static TimeBucket.Dimension timeDimension(String name) {
+        for (TimeBucket.Dimension dimension : TimeBucket.Dimension.values()) {
+            if (dimension.name().replace("_", "").equalsIgnoreCase(name.replace(" ", "").replace("_", ""))) {
+                return dimension;
+            }
+        }
+        throw new IllegalArgumentException("Unknown dimension " + name);
+    }
+
+    private static RollupKey.Resolution resolution(String label) {
+        for (RollupKey.Resolution resolution : RollupKey.Resolution.values()) {
+            if (resolution.getLabel().equals(label)) {
+                return resolution;
+            }
+        }
+        throw new IllegalArgumentException("Unknown resolution " + label);
+    }
+
+    private static RollupKey.Dimension rollupDimension(String label) {
+        for (RollupKey.Dimension dimension : RollupKey.Dimension.values()) {
+            if (dimension.getLabel().equals(label)) {
+                return dimension;
+            }
+        }
+        throw new IllegalArgumentException("Unknown dimension " + label);
+    }
+
+    /**
+     * Starts the HTTP endpoint on a port of the local host, answering each GET
+     * request by {@link #query(String)}, with the status 400 for an invalid
+     * query.
+     *
+     * @param port the port
+     * @return the started HTTP server
+     * @throws IOException if the server cannot be started
+     */
+    public HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = exchange.getRequestURI().getRawPath();
+                if (exchange.getRequestURI().getRawQuery() != null) {
+                    query += "?" + exchange.getRequestURI().getRawQuery();
+                }
+                int status = 200;
+                String answer;
+                try {
+                    answer = query(query);
+                } catch (IllegalArgumentException e) {
+                    status = 400;
+                    answer = "{\"error\": " + Instrumentation.quote(e.getMessage()) + "}";
+                }
+                byte[] bytes = (answer + "\n").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(status, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        return server;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 1) {
+            System.err.println("Usage: QueryServer [-D " + PORT_KEY + "=<port>] [-D " + CACHE_KEY + "=<entries>] [-D "
+                    + RELOAD_KEY + "=<ms>] <out>");
+            System.exit(2);
+        }
+        final QueryServer server = new QueryServer(conf, new Path(otherArgs[0]));
+        int port = conf.getInt(PORT_KEY, DEFAULT_PORT);
+        server.start(port);
+        System.out.printf(Locale.ROOT, "Serving %s on http://localhost:%d/%n", otherArgs[0], port);
+
+        ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor();
+        long reload = conf.getLong(RELOAD_KEY, DEFAULT_RELOAD);
+        reloader.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (server.reload()) {
+                        System.out.println("Reloaded " + server.output);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Keep the previous results, e.g. of a run being replaced
+                    System.err.println("Cannot reload " + server.output + ": " + e);
+                }
+            }
+        }, reload, reload, TimeUnit.MILLISECONDS);
+    }
+}
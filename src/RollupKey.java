@@ -0,0 +1,208 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The RollupKey class is a compact key of a bucket of a time series, e.g. the
+ * events of level "error" in the 5 minutes from 04:45:00, used by
+ * {@link TimeRollup}.
+ *
+ * It is serialized as the resolution in a byte, the start of the bucket in
+ * seconds since the epoch in a long, the dimension in a byte, and the value of
+ * the dimension as a vint length and its bytes. It is compared by a registered
+ * raw comparator on the serialized bytes without deserializing, so the series
+ * are sorted by resolution, time, dimension and value. The record is only
+ * rendered by {@link #toString()} when the key is written to the output.
+ */
+public class RollupKey implements WritableComparable<RollupKey> {
+
+    /**
+     * Enum representing the resolutions of the time series, from the finest.
+     */
+    public enum Resolution {
+        MINUTE("1m", 60), FIVE_MINUTES("5m", 300), HOUR("1h", 3600), DAY("1d", 86400);
+
+        private final String label;
+        private final int seconds;
+
+        Resolution(String label, int seconds) {
+            this.label = label;
+            this.seconds = seconds;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Returns the start of the bucket of a time.
+         *
+         * @param epochSecond the time in seconds since the epoch
+         * @return the start of its bucket in seconds since the epoch
+         */
+        public long bucket(long epochSecond) {
+            return epochSecond - Math.floorMod(epochSecond, seconds);
+        }
+    }
+
+    /**
+     * Enum representing the dimensions of the events counted in the buckets.
+     */
+    public enum Dimension {
+        LEVEL("level"), EVENT_ID("event");
+
+        private final String label;
+
+        Dimension(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+    private static final Dimension[] DIMENSIONS = Dimension.values();
+
+    private Resolution resolution = Resolution.MINUTE;
+    private long bucket;
+    private Dimension dimension = Dimension.LEVEL;
+    private byte[] value = new byte[16];
+    private int valueLength;
+
+    static {
+        WritableComparator.define(RollupKey.class, new Comparator());
+    }
+
+    public RollupKey() {
+    }
+
+    /**
+     * Sets the key, copying the bytes of the value.
+     *
+     * @param resolution the resolution of the series
+     * @param bucket     the start of the bucket in seconds since the epoch
+     * @param dimension  the dimension of the series
+     * @param bytes      the bytes containing the value of the dimension
+     * @param start      the start offset of the value in the bytes
+     * @param length     the length of the value in bytes
+     */
+    public void set(Resolution resolution, long bucket, Dimension dimension, byte[] bytes, int start, int length) {
+        this.resolution = resolution;
+        this.bucket = bucket;
+        this.dimension = dimension;
+        if (value.length < length) {
+            value = new byte[Math.max(length, value.length * 2)];
+        }
+        System.arraycopy(bytes, start, value, 0, length);
+        valueLength = length;
+    }
+
+    public Resolution getResolution() {
+        return resolution;
+    }
+
+    public long getBucket() {
+        return bucket;
+    }
+
+    public Dimension getDimension() {
+        return dimension;
+    }
+
+    public String getValue() {
+        return new String(value, 0, valueLength, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(resolution.ordinal());
+        out.writeLong(bucket);
+        out.writeByte(dimension.ordinal());
+        WritableUtils.writeVInt(out, valueLength);
+        out.write(value, 0, valueLength);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        resolution = RESOLUTIONS[in.readUnsignedByte()];
+        bucket = in.readLong();
+        dimension = DIMENSIONS[in.readUnsignedByte()];
+        valueLength = WritableUtils.readVInt(in);
+        if (value.length < valueLength) {
+            value = new byte[valueLength];
+        }
+        in.readFully(value, 0, valueLength);
+    }
+
+    @Override
+    public int compareTo(RollupKey other) {
+        if (resolution != other.resolution) {
+            return resolution.compareTo(other.resolution);
+        }
+        if (bucket != other.bucket) {
+            return Long.compare(bucket, other.bucket);
+        }
+        if (dimension != other.dimension) {
+            return dimension.compareTo(other.dimension);
+        }
+        return WritableComparator.compareBytes(value, 0, valueLength, other.value, 0, other.valueLength);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof RollupKey && compareTo((RollupKey) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = WritableComparator.hashBytes(value, valueLength);
+        return ((hash * 31 + Long.hashCode(bucket)) * 31 + dimension.ordinal()) * 31 + resolution.ordinal();
+    }
+
+    /**
+     * Returns the record of the bucket, without its count.
+     *
+     * @return the resolution, the start of the bucket in seconds since the
+     *         epoch, the dimension and the value, separated by tabs, e.g. 5m,
+     *         1133671500, level and error
+     */
+    @Override
+    public String toString() {
+        return resolution.getLabel() + "\t" + bucket + "\t" + dimension.getLabel() + "\t" + getValue();
+    }
+
+    /**
+     * A raw comparator of RollupKey, which compares the serialized bytes
+     * directly, the start of the bucket as a signed long and the value as
+     * unsigned bytes after its length.
+     */
+    public static class Comparator extends WritableComparator {
+        public Comparator() {
+            super(RollupKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            if (b1[s1] != b2[s2]) {
+                return Integer.compare(b1[s1] & 0xff, b2[s2] & 0xff);
+            }
+            int c = Long.compare(readLong(b1, s1 + 1), readLong(b2, s2 + 1));
+            if (c != 0) {
+                return c;
+            }
+            if (b1[s1 + 9] != b2[s2 + 9]) {
+                return Integer.compare(b1[s1 + 9] & 0xff, b2[s2 + 9] & 0xff);
+            }
+            int n1 = WritableUtils.decodeVIntSize(b1[s1 + 10]);
+            int n2 = WritableUtils.decodeVIntSize(b2[s2 + 10]);
+            return compareBytes(b1, s1 + 10 + n1, l1 - 10 - n1, b2, s2 + 10 + n2, l2 - 10 - n2);
+        }
+    }
+}
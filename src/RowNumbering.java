@@ -0,0 +1,338 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * The RowNumbering class numbers the rows of the structured logs across the
+ * input splits, so the mappers can number their rows independently.
+ *
+ * A pre-pass map-only job, see {@link #getJob}, counts the lines of each split.
+ * The splits are ordered by file and start offset, and the number of the first
+ * row of each split is the number of lines before it plus one. These numbers
+ * are stored in the configuration of the structuring job by
+ * {@link #readCounts}, where a mapper finds the number of the first row of its
+ * split. The rows are thus numbered from 1 in the order of the input, without
+ * a shared counter and without sorting the rows.
+ *
+ * The splits of the structuring job must be the same as the splits of the
+ * pre-pass, so both jobs must use the same input format and split settings.
+ *
+ * A job which must not read its input twice, such as {@link FusedAnalysis},
+ * numbers the splits without their counts by {@link #numberSplits}, from the
+ * splits listed when it is submitted: the rows of the n-th split in the same
+ * order are numbered from <code>n * </code>{@link #SPLIT_ROWS}<code> + 1</code>.
+ * The numbers are unique and in the order of the input, but not consecutive
+ * across the splits.
+ *
+ * A combined split of {@link CombineLogInputFormat} holds chunks of several
+ * files, which are not consecutive in the input, so the rows of each chunk are
+ * counted and numbered as the rows of a split. A mapper numbers its rows with
+ * {@link Rows}, which finds the chunk of each row from its key.
+ */
+public class RowNumbering {
+
+    /**
+     * The prefix of the configuration keys of the first row numbers, followed by
+     * the path and the start offset of a split or a chunk.
+     */
+    static final String FIRST_ROW_KEY = "analysis.structuring.firstRow.";
+
+    /**
+     * The configuration key of the maximum number of rows of a split or a
+     * chunk, set when the splits are numbered without their counts.
+     */
+    static final String SPLIT_ROWS_KEY = "analysis.structuring.splitRows";
+
+    /**
+     * The configuration key of the number of the first row of the splits
+     * numbered without their counts, 1 by default, e.g. to number the rows
+     * of an incremental run after the rows of the previous runs.
+     */
+    static final String FIRST_KEY = "analysis.structuring.first";
+
+    /**
+     * The number of rows reserved for each split or chunk by
+     * {@link #numberSplits}.
+     */
+    public static final long SPLIT_ROWS = 1L << 32;
+
+    /**
+     * <p>
+     * MyMapper is a static inner class that extends the Mapper class. It counts
+     * the lines of its split, or of each chunk of its combined split.
+     * </p>
+     *
+     * <p>
+     * The <code>map</code> method counts each line in the count of its chunk,
+     * and the <code>cleanup</code> method writes the counts with the keys of the
+     * chunks.
+     * </p>
+     *
+     * <p>
+     * Output Key: Text (the key of the split) Output Value: LongWritable (the
+     * number of lines of the split)
+     * </p>
+     */
+    private static class MyMapper extends Mapper<Object, Text, Text, LongWritable> {
+        private long[] counts;
+        private int chunk = 0;
+
+        @Override
+        public void setup(Context context) {
+            InputSplit split = context.getInputSplit();
+            counts = new long[split instanceof CombineFileSplit ? ((CombineFileSplit) split).getNumPaths() : 1];
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context) {
+            if (key instanceof CombineLogInputFormat.ChunkKey) {
+                chunk = ((CombineLogInputFormat.ChunkKey) key).getChunk();
+            }
+            counts[chunk]++;
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            for (int i = 0; i < counts.length; i++) {
+                context.write(new Text(key(context.getInputSplit(), i)), new LongWritable(counts[i]));
+            }
+        }
+    }
+
+    /**
+     * Returns the key of a split, or of a chunk of a combined split, in the
+     * configuration.
+     */
+    private static String key(InputSplit split, int chunk) throws IOException {
+        if (split instanceof CombineFileSplit) {
+            CombineFileSplit combined = (CombineFileSplit) split;
+            return combined.getPath(chunk) + "@" + combined.getOffset(chunk);
+        }
+        if (!(split instanceof FileSplit)) {
+            throw new IOException("Cannot number the rows of split " + split);
+        }
+        FileSplit fileSplit = (FileSplit) split;
+        return fileSplit.getPath() + "@" + fileSplit.getStart();
+    }
+
+    /**
+     * Configures and returns the pre-pass job counting the lines of the splits
+     * of the input, to be read by {@link #readCounts} once it has succeeded.
+     *
+     * @param conf   the configuration of the structuring job, to read the split
+     *               settings from
+     * @param input  the input path of the structuring job
+     * @param counts a temporary path for the counts
+     * @return a configured Job instance for the line counts
+     */
+    public static Job getJob(Configuration conf, Path input, Path counts) throws IOException {
+        Job job = new Job(new Configuration(conf), "row numbering");
+        job.setJarByClass(RowNumbering.class);
+        job.setMapperClass(MyMapper.class);
+        job.setNumReduceTasks(0);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(LongWritable.class);
+        LogInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, counts);
+        return job;
+    }
+
+    /**
+     * Reads the line counts of the splits written by the pre-pass job, and
+     * stores the numbers of the first rows of the splits in the configuration.
+     * The counts are deleted afterwards.
+     *
+     * @param conf   the configuration of the structuring job, to store the
+     *               numbers in
+     * @param counts the output path of the pre-pass job
+     * @throws IOException if the counts cannot be read
+     */
+    public static void readCounts(Configuration conf, Path counts) throws IOException {
+        FileSystem fs = counts.getFileSystem(conf);
+        try {
+            List<String> splits = new ArrayList<String>();
+            List<Long> lines = new ArrayList<Long>();
+            for (FileStatus status : fs.listStatus(counts)) {
+                if (!status.getPath().getName().startsWith("part-")) {
+                    continue;
+                }
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(fs.open(status.getPath()), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int tab = line.lastIndexOf('\t');
+                        splits.add(line.substring(0, tab));
+                        lines.add(Long.parseLong(line.substring(tab + 1)));
+                    }
+                }
+            }
+            setFirstRows(conf, splits, lines);
+        } finally {
+            fs.delete(counts, true);
+        }
+    }
+
+    /**
+     * Numbers the splits of a job without counting their lines, reserving
+     * {@link #SPLIT_ROWS} rows for each split or chunk, and stores the numbers
+     * of their first rows in the configuration of the job, from
+     * {@link #FIRST_KEY}. The splits are
+     * listed by the input format of the job, as they are listed again when the
+     * job is submitted, so the input must not change in between.
+     *
+     * @param job the structuring job, not submitted
+     * @throws IOException if the splits cannot be listed
+     */
+    public static void numberSplits(Job job) throws IOException, InterruptedException {
+        InputFormat<?, ?> format;
+        try {
+            format = ReflectionUtils.newInstance(job.getInputFormatClass(), job.getConfiguration());
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        List<String> splits = new ArrayList<String>();
+        for (InputSplit split : format.getSplits(job)) {
+            int chunks = split instanceof CombineFileSplit ? ((CombineFileSplit) split).getNumPaths() : 1;
+            for (int i = 0; i < chunks; i++) {
+                splits.add(key(split, i));
+            }
+        }
+        job.getConfiguration().setLong(SPLIT_ROWS_KEY, SPLIT_ROWS);
+        setFirstRows(job.getConfiguration(), splits, null);
+    }
+
+    /**
+     * Returns the number following the rows reserved for the splits of a job
+     * numbered by {@link #numberSplits}.
+     *
+     * @param conf the configuration of the numbered job
+     * @return the first number after the rows of the last split
+     */
+    public static long nextRow(Configuration conf) {
+        return conf.getLong(FIRST_KEY, 1)
+                + conf.getValByRegex("^" + FIRST_ROW_KEY.replace(".", "\\.")).size() * SPLIT_ROWS;
+    }
+
+    /**
+     * Stores the numbers of the first rows of the splits, in the order of the
+     * files and the offsets, after the line counts of the splits before, or
+     * {@link #SPLIT_ROWS} per split if there are no counts.
+     */
+    private static void setFirstRows(Configuration conf, final List<String> splits, List<Long> lines) {
+        final List<Long> starts = new ArrayList<Long>();
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < splits.size(); i++) {
+            starts.add(Long.parseLong(splits.get(i).substring(splits.get(i).lastIndexOf('@') + 1)));
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                String fileA = splits.get(a).substring(0, splits.get(a).lastIndexOf('@'));
+                String fileB = splits.get(b).substring(0, splits.get(b).lastIndexOf('@'));
+                int c = fileA.compareTo(fileB);
+                return c != 0 ? c : Long.compare(starts.get(a), starts.get(b));
+            }
+        });
+        long first = lines != null ? 1 : conf.getLong(FIRST_KEY, 1);
+        for (int i : order) {
+            conf.setLong(FIRST_ROW_KEY + splits.get(i), first);
+            first += lines != null ? lines.get(i) : SPLIT_ROWS;
+        }
+    }
+
+    /**
+     * Returns the number of the first row of a split, or of a chunk of a
+     * combined split.
+     *
+     * @param conf  the configuration of the structuring job
+     * @param split the input split of a mapper
+     * @param chunk the index of the chunk of a combined split, 0 for a file
+     *              split
+     * @return the number of the first row
+     * @throws IOException if the rows of the split were not numbered
+     */
+    public static long firstRow(Configuration conf, InputSplit split, int chunk) throws IOException {
+        long first = conf.getLong(FIRST_ROW_KEY + key(split, chunk), -1);
+        if (first < 0) {
+            throw new IOException("No row number of split " + split + " chunk " + chunk);
+        }
+        return first;
+    }
+
+    /**
+     * The Rows class numbers the rows of a mapper from the number of the first
+     * row of its split, or of the chunk of each row of a combined split.
+     */
+    public static class Rows {
+        private final Configuration conf;
+        private final InputSplit split;
+        private final long limit;
+        private int chunk = 0;
+        private long next;
+        private long end;
+
+        /**
+         * Constructs the row numbers of a mapper.
+         *
+         * @param conf  the configuration of the structuring job
+         * @param split the input split of the mapper
+         * @throws IOException if the rows of the split were not numbered
+         */
+        public Rows(Configuration conf, InputSplit split) throws IOException {
+            this.conf = conf;
+            this.split = split;
+            this.limit = conf.getLong(SPLIT_ROWS_KEY, Long.MAX_VALUE);
+            start(0);
+        }
+
+        private void start(int chunk) throws IOException {
+            this.chunk = chunk;
+            next = firstRow(conf, split, chunk);
+            end = limit == Long.MAX_VALUE ? Long.MAX_VALUE : next + limit;
+        }
+
+        /**
+         * Returns the number of the next row.
+         *
+         * @param key the input key of the row, a
+         *            {@link CombineLogInputFormat.ChunkKey} for a combined split
+         * @return the number of the row
+         * @throws IOException if the rows of the chunk of the row were not
+         *                     numbered, or if there are more rows in the chunk
+         *                     than numbers reserved for it
+         */
+        public long next(Object key) throws IOException {
+            if (key instanceof CombineLogInputFormat.ChunkKey) {
+                int keyChunk = ((CombineLogInputFormat.ChunkKey) key).getChunk();
+                if (keyChunk != chunk) {
+                    start(keyChunk);
+                }
+            }
+            if (next == end) {
+                throw new IOException("More than " + limit + " rows in split " + split + " chunk " + chunk);
+            }
+            return next++;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * A benchmark of how the analyses scale with the size of the logs.
+ *
+ * For each size, a log is generated by {@link LogGenerator}, unless it was
+ * generated by a previous run, and each analysis is run alone, then all of
+ * them as {@link ApacheLogAnalysis} runs them, fused if
+ * {@link FusedAnalysis#FUSED_KEY} is set. The jobs run as configured, by the
+ * local runner by default.
+ *
+ * For each run, the wall time and the task counters of the jobs are reported:
+ * the input records and their number per second, the spilled records and the
+ * shuffled bytes. The counters of the jobs of a run are added up, with those
+ * of their prerequisites, such as the pre-pass of LogStructuring. The report
+ * is written to the standard output and to <code>report.tsv</code> in the work
+ * directory, as tab separated values. The outputs of the jobs are deleted after
+ * each run, so only the logs take space.
+ */
+public class ScalingBenchmark {
+
+    public static final String[] DEFAULT_SIZES = { "10m", "100m", "1g", "10g" };
+
+    private static final String HEADER = "size\tjob\tseconds\tinput records\trecords/s\tspilled records\tshuffle bytes";
+
+    private final Configuration conf;
+    private final FileSystem fs;
+    private final Path work;
+    private final List<String> rows = new ArrayList<String>();
+
+    /**
+     * Constructs a benchmark.
+     *
+     * @param conf the configuration of the generator and the jobs
+     * @param work the work directory of the logs, the outputs and the report
+     * @throws IOException if the file system cannot be accessed
+     */
+    public ScalingBenchmark(Configuration conf, Path work) throws IOException {
+        this.conf = conf;
+        this.fs = work.getFileSystem(conf);
+        this.work = work;
+    }
+
+    /**
+     * Runs the benchmark of a size.
+     *
+     * @param size the size of the log, e.g. 10m or 1g
+     * @param out  the stream to write the rows of the report to
+     * @throws Exception if a job cannot be run
+     */
+    public void run(String size, PrintStream out) throws Exception {
+        Path input = new Path(work, size + "/input");
+        Path log = new Path(input, "generated.log");
+        if (!fs.exists(log)) {
+            long start = System.nanoTime();
+            long lines = LogGenerator.generate(conf, log, StringUtils.TraditionalBinaryPrefix.string2long(size));
+            System.err.printf("Generated %d lines of %s in %.1f s%n", lines, size, (System.nanoTime() - start) / 1e9);
+        }
+        for (FusedAnalysis.Analysis analysis : FusedAnalysis.Analysis.values()) {
+            Configuration jobConf = new Configuration(conf);
+            jobConf.set(FusedAnalysis.SELECTED_KEY, analysis.name());
+            jobConf.setBoolean(FusedAnalysis.FUSED_KEY, false);
+            run(size, analysis.name(), jobConf, input, out);
+        }
+        run(size, conf.getBoolean(FusedAnalysis.FUSED_KEY, false) ? "FusedAnalysis" : "ApacheLogAnalysis", conf,
+                input, out);
+    }
+
+    private void run(String size, String name, Configuration jobConf, Path input, PrintStream out)
+            throws Exception {
+        Path output = new Path(work, size + "/output");
+        fs.delete(output, true);
+        long start = System.nanoTime();
+        List<Job> jobs = ApacheLogAnalysis.getJobs(jobConf, input, output);
+        if (!ApacheLogAnalysis.run(jobs, false)) {
+            throw new IOException("Failed to run " + name + " on " + size);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long records = 0;
+        long spilled = 0;
+        long shuffled = 0;
+        for (Job job : ChainedJob.withPrerequisites(jobs)) {
+            records += job.getCounters().findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+            spilled += job.getCounters().findCounter(TaskCounter.SPILLED_RECORDS).getValue();
+            shuffled += job.getCounters().findCounter(TaskCounter.REDUCE_SHUFFLE_BYTES).getValue();
+        }
+        fs.delete(output, true);
+        String row = String.format("%s\t%s\t%.2f\t%d\t%.0f\t%d\t%d", size, name, seconds, records, records / seconds,
+                spilled, shuffled);
+        rows.add(row);
+        out.println(row);
+        out.flush();
+    }
+
+    /**
+     * Writes the report of the runs so far to <code>report.tsv</code> in the
+     * work directory.
+     *
+     * @throws IOException if the report cannot be written
+     */
+    public void writeReport() throws IOException {
+        try (FSDataOutputStream out = fs.create(new Path(work, "report.tsv"), true)) {
+            out.write((HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+            for (String row : rows) {
+                out.write((row + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length < 1) {
+            System.err.println("Usage: ScalingBenchmark [-D " + FusedAnalysis.FUSED_KEY + "=true] [-D "
+                    + LogGenerator.SEED_KEY + "=<seed>] <work dir> [<size, e.g. 10m or 1g>...]");
+            System.exit(2);
+        }
+        ScalingBenchmark benchmark = new ScalingBenchmark(conf, new Path(otherArgs[0]));
+        String[] sizes = otherArgs.length > 1 ? Arrays.copyOfRange(otherArgs, 1, otherArgs.length)
+                : DEFAULT_SIZES;
+        System.out.println(HEADER);
+        try {
+            for (String size : sizes) {
+                benchmark.run(size, System.out);
+            }
+        } finally {
+            benchmark.writeReport();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The SpaceSaving class is a Space-Saving summary of the most frequent words of
+ * a stream, in a fixed number of counters.
+ *
+ * A word with a counter has its count incremented. A new word takes the counter
+ * of the least frequent word when all counters are taken, inheriting its count
+ * as the error of the new word. A counted word is thus never underestimated,
+ * and its true count is between its count minus its error and its count. The
+ * error is at most the total count divided by the number of counters, so any
+ * word more frequent than that has a counter.
+ *
+ * Summaries are mergeable: two summaries of two streams merge into a summary of
+ * both streams, with the same bounds, so summaries of splits can be combined in
+ * any order. The counters are kept in a min-heap of counts, with a hash map from
+ * the words, and a counted word is found without allocating.
+ */
+public class SpaceSaving implements Writable {
+
+    /**
+     * A counter of a word.
+     */
+    static class Counter {
+        final Text word;
+        long count;
+        long error;
+        int index; // the index in the heap
+
+        Counter(Text word, long count, long error) {
+            this.word = word;
+            this.count = count;
+            this.error = error;
+        }
+
+        public Text getWord() {
+            return word;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+
+    private int capacity;
+    private Counter[] heap = new Counter[0];
+    private int size;
+    private final HashMap<Text, Counter> counters = new HashMap<Text, Counter>();
+    private long total;
+    private final Text probe = new Text();
+
+    /**
+     * Constructs an empty summary, to be read by {@link #readFields(DataInput)}.
+     */
+    public SpaceSaving() {
+    }
+
+    /**
+     * Constructs an empty summary.
+     *
+     * @param capacity the number of counters
+     */
+    public SpaceSaving(int capacity) {
+        setCapacity(capacity);
+    }
+
+    private void setCapacity(int capacity) {
+        this.capacity = capacity;
+        if (heap.length != capacity) {
+            heap = new Counter[capacity];
+        }
+        clear();
+    }
+
+    /**
+     * Removes all the counters.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            heap[i] = null;
+        }
+        size = 0;
+        counters.clear();
+        total = 0;
+    }
+
+    /**
+     * Counts a word.
+     *
+     * @param bytes  the bytes containing the word
+     * @param start  the start offset of the word in the bytes
+     * @param length the length of the word in bytes
+     * @param weight the number of occurrences of the word
+     */
+    public void offer(byte[] bytes, int start, int length, long weight) {
+        total += weight;
+        probe.set(bytes, start, length);
+        Counter counter = counters.get(probe);
+        if (counter != null) {
+            counter.count += weight;
+            siftDown(counter.index);
+        } else if (size < capacity) {
+            counter = new Counter(new Text(probe), weight, 0);
+            counters.put(counter.word, counter);
+            counter.index = size;
+            heap[size++] = counter;
+            siftUp(counter.index);
+        } else {
+            // Replace the least frequent word
+            counter = heap[0];
+            counters.remove(counter.word);
+            counter.word.set(probe);
+            counters.put(counter.word, counter);
+            counter.error = counter.count;
+            counter.count += weight;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Merges another summary into this summary.
+     *
+     * A word missing from a full summary may have occurred as many times as its
+     * least frequent word, so this count is added to the count and the error of
+     * the words counted only by the other summary. The most frequent words of the
+     * union are kept.
+     *
+     * @param other the summary to merge, which is not modified
+     */
+    public void merge(SpaceSaving other) {
+        long min = size == capacity && size > 0 ? heap[0].count : 0;
+        long otherMin = other.size == other.capacity && other.size > 0 ? other.heap[0].count : 0;
+        List<Counter> merged = new ArrayList<Counter>(size + other.size);
+        for (int i = 0; i < size; i++) {
+            Counter counter = heap[i];
+            Counter otherCounter = other.counters.get(counter.word);
+            if (otherCounter != null) {
+                counter.count += otherCounter.count;
+                counter.error += otherCounter.error;
+            } else {
+                counter.count += otherMin;
+                counter.error += otherMin;
+            }
+            merged.add(counter);
+        }
+        for (int i = 0; i < other.size; i++) {
+            Counter otherCounter = other.heap[i];
+            if (!counters.containsKey(otherCounter.word)) {
+                merged.add(new Counter(new Text(otherCounter.word), otherCounter.count + min,
+                        otherCounter.error + min));
+            }
+        }
+        long mergedTotal = total + other.total;
+        sort(merged);
+        clear();
+        total = mergedTotal;
+        for (int i = 0; i < merged.size() && i < capacity; i++) {
+            add(merged.get(i));
+        }
+    }
+
+    /**
+     * Adds a counter of a new word, when the summary is not full.
+     */
+    private void add(Counter counter) {
+        counters.put(counter.word, counter);
+        counter.index = size;
+        heap[size++] = counter;
+        siftUp(counter.index);
+    }
+
+    /**
+     * Returns the most frequent words, by decreasing count.
+     *
+     * @param k the number of words
+     * @return the counters of at most k words
+     */
+    public List<Counter> top(int k) {
+        List<Counter> top = new ArrayList<Counter>(size);
+        for (int i = 0; i < size; i++) {
+            top.add(heap[i]);
+        }
+        sort(top);
+        return top.subList(0, Math.min(k, top.size()));
+    }
+
+    /**
+     * Sorts counters by decreasing count, and then by word.
+     */
+    private static void sort(List<Counter> list) {
+        Collections.sort(list, new Comparator<Counter>() {
+            @Override
+            public int compare(Counter a, Counter b) {
+                int c = Long.compare(b.count, a.count);
+                return c != 0 ? c : a.word.compareTo(b.word);
+            }
+        });
+    }
+
+    /**
+     * Returns the total count of the words of the stream.
+     *
+     * @return the total count
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the bound of the error of the counts, which is the count of the
+     * least frequent word when all counters are taken.
+     *
+     * @return the maximum error
+     */
+    public long getMaxError() {
+        return size == capacity && size > 0 ? heap[0].count : 0;
+    }
+
+    private void siftUp(int index) {
+        Counter counter = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heap[index].index = index;
+            index = parent;
+        }
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    private void siftDown(int index) {
+        Counter counter = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (counter.count <= heap[child].count) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].index = index;
+            index = child;
+        }
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, capacity);
+        WritableUtils.writeVLong(out, total);
+        WritableUtils.writeVInt(out, size);
+        for (int i = 0; i < size; i++) {
+            heap[i].word.write(out);
+            WritableUtils.writeVLong(out, heap[i].count);
+            WritableUtils.writeVLong(out, heap[i].error);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        setCapacity(WritableUtils.readVInt(in));
+        total = WritableUtils.readVLong(in);
+        for (int n = WritableUtils.readVInt(in); n > 0; n--) {
+            Text word = new Text();
+            word.readFields(in);
+            add(new Counter(word, WritableUtils.readVLong(in), WritableUtils.readVLong(in)));
+        }
+    }
+}
@@ -0,0 +1,282 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The TemplateMatcher class finds the {@link Event.EventId} of an event content.
+ *
+ * It is built once for all templates: the regular expressions are compiled up
+ * front when the class is loaded, and the literal prefix of each template (e.g. "jk2_init() Found child "
+ * for E1) is put into a trie. Matching a content walks the trie once along the
+ * content to find the templates whose prefix matches, and only these candidates
+ * are verified by their compiled regular expression. Since the prefixes of the
+ * templates rarely share a path, there is at most one verification per content
+ * in practice, and the cost stays flat as templates are added.
+ *
+ * The result is the same as trying the templates one by one in the order of
+ * {@link Event.EventId}, with {@link Event.EventId#OTHER} as the fallback.
+ *
+ * Each <code>\S+</code> of a template is compiled as a capturing group, so the
+ * parameters of the last matched content are found without matching it again.
+ */
+public class TemplateMatcher {
+
+    /**
+     * A node of the trie over the literal prefixes of the templates.
+     */
+    private static class Node {
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private List<Event.EventId> templates = new ArrayList<Event.EventId>();
+
+        private Node child(char c) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node addChild(char c) {
+            Node child = child(c);
+            if (child == null) {
+                int n = labels.length;
+                char[] newLabels = new char[n + 1];
+                Node[] newChildren = new Node[n + 1];
+                System.arraycopy(labels, 0, newLabels, 0, n);
+                System.arraycopy(children, 0, newChildren, 0, n);
+                newLabels[n] = c;
+                newChildren[n] = child = new Node();
+                labels = newLabels;
+                children = newChildren;
+            }
+            return child;
+        }
+    }
+
+    private static final Node root = new Node();
+    private static final Pattern[] patterns = new Pattern[Event.EventId.values().length];
+
+    static {
+        for (Event.EventId eventType : Event.EventId.values()) {
+            if (eventType == Event.EventId.OTHER) {
+                continue;
+            }
+            Pattern pattern = Pattern.compile(eventType.getRegex().replace("\\S+", "(\\S+)"));
+            if (pattern.matcher("").groupCount() != eventType.getParameterCount()) {
+                throw new IllegalStateException("Template " + eventType + " does not have "
+                        + eventType.getParameterCount() + " parameters");
+            }
+            patterns[eventType.ordinal()] = pattern;
+            Node node = root;
+            for (char c : literalPrefix(eventType.getRegex()).toCharArray()) {
+                node = node.addChild(c);
+            }
+            node.templates.add(eventType);
+        }
+    }
+
+    private final Matcher[] matchers = new Matcher[patterns.length];
+    private final ByteSequence view = new ByteSequence();
+    private Event.EventId last;
+
+    /**
+     * Constructs a TemplateMatcher over all templates in {@link Event.EventId}
+     * except the {@link Event.EventId#OTHER} fallback.
+     *
+     * The templates are compiled once for all instances. An instance holds the
+     * reusable matchers, so it must not be shared between threads.
+     */
+    public TemplateMatcher() {
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i] != null) {
+                matchers[i] = patterns[i].matcher("");
+            }
+        }
+    }
+
+    /**
+     * Finds the event type of a content.
+     *
+     * @param content the content of an event
+     * @return the first event type in the order of {@link Event.EventId} whose
+     *         template matches the whole content, or null if even
+     *         {@link Event.EventId#OTHER} does not match
+     */
+    public Event.EventId match(CharSequence content) {
+        Event.EventId best = matchTemplates(content);
+        if (best != null) {
+            return best;
+        }
+        return matchesOther(content) ? Event.EventId.OTHER : null;
+    }
+
+    /**
+     * Finds the event type of a content given as UTF-8 bytes, without decoding
+     * the bytes.
+     *
+     * The templates are matched against the bytes as if each byte was a
+     * character. This gives the same result as matching the decoded content, as
+     * long as the literals of the templates are ASCII, since a non-ASCII
+     * character is never a white space and is matched by <code>\S</code> as a
+     * whole or byte by byte alike.
+     *
+     * @param bytes  the bytes of a line
+     * @param start  the start offset of the content in the bytes
+     * @param length the length of the content in bytes
+     * @return the event type as in {@link #match(CharSequence)}
+     */
+    public Event.EventId match(byte[] bytes, int start, int length) {
+        view.set(bytes, start, length);
+        Event.EventId best = matchTemplates(view);
+        if (best != null) {
+            return best;
+        }
+        return matchesOther(bytes, start, length) ? Event.EventId.OTHER : null;
+    }
+
+    /**
+     * Walks the trie along the content and verifies the candidate templates.
+     */
+    private Event.EventId matchTemplates(CharSequence content) {
+        Event.EventId best = null;
+        Node node = root;
+        int i = 0;
+        while (node != null) {
+            for (Event.EventId eventType : node.templates) {
+                if ((best == null || eventType.ordinal() < best.ordinal())
+                        && matchers[eventType.ordinal()].reset(content).matches()) {
+                    best = eventType;
+                }
+            }
+            node = i < content.length() ? node.child(content.charAt(i++)) : null;
+        }
+        last = best;
+        return best;
+    }
+
+    /**
+     * Returns the start of a parameter of the last matched content.
+     *
+     * @param index the index of the parameter, less than the
+     *              {@link Event.EventId#getParameterCount()} of the event type
+     *              of the last match
+     * @return the offset of the parameter from the start of the content, in
+     *         bytes for a content given as bytes
+     */
+    public int parameterStart(int index) {
+        return matchers[last.ordinal()].start(index + 1);
+    }
+
+    /**
+     * Returns the end of a parameter of the last matched content.
+     *
+     * @param index the index of the parameter, as in {@link #parameterStart(int)}
+     * @return the offset of the end of the parameter from the start of the
+     *         content, exclusive
+     */
+    public int parameterEnd(int index) {
+        return matchers[last.ordinal()].end(index + 1);
+    }
+
+    /**
+     * Checks if a content matches ".*", i.e. contains no line terminator.
+     */
+    private static boolean matchesOther(CharSequence content) {
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a content of UTF-8 bytes matches ".*", i.e. contains no line
+     * terminator.
+     */
+    private static boolean matchesOther(byte[] bytes, int start, int length) {
+        int end = start + length;
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b == '\n' || b == '\r') {
+                return false;
+            }
+            if (b == (byte) 0xC2 && i + 1 < end && bytes[i + 1] == (byte) 0x85) {
+                return false; // U+0085
+            }
+            if (b == (byte) 0xE2 && i + 2 < end && bytes[i + 1] == (byte) 0x80
+                    && (bytes[i + 2] == (byte) 0xA8 || bytes[i + 2] == (byte) 0xA9)) {
+                return false; // U+2028, U+2029
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A reusable view of bytes as characters, one character per byte.
+     */
+    private static class ByteSequence implements CharSequence {
+        private byte[] bytes;
+        private int start;
+        private int length;
+
+        private void set(byte[] bytes, int start, int length) {
+            this.bytes = bytes;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[start + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            ByteSequence sequence = new ByteSequence();
+            sequence.set(bytes, start + from, to - from);
+            return sequence;
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Returns the literal text a regular expression starts with, i.e. the text
+     * before the first unescaped meta character.
+     *
+     * @param regex the regular expression of a template
+     * @return the literal prefix, which may be empty
+     */
+    static String literalPrefix(String regex) {
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                prefix.append(regex.charAt(++i));
+            } else if (c == '\\' || ".[]{}()*+?^$|".indexOf(c) >= 0) {
+                // An optional quantifier makes the last literal not required
+                if ((c == '*' || c == '?' || c == '{') && prefix.length() > 0) {
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            } else {
+                prefix.append(c);
+            }
+        }
+        return prefix.toString();
+    }
+}
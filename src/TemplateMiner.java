@@ -0,0 +1,357 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The TemplateMiner class learns the templates of the contents of a stream of
+ * events online, in the manner of Drain (He et al., "Drain: An Online Log
+ * Parsing Approach with Fixed Depth Tree", ICWS 2017).
+ *
+ * A content is split into tokens by spaces. The templates are kept in the
+ * leaves of a tree of fixed depth: the first level is the number of tokens,
+ * and the next levels are the first tokens, with the tokens holding digits,
+ * which are likely variables, put under a wildcard. A content is thus routed
+ * to its leaf in a number of steps bounded by the depth, and only compared to
+ * the few templates of the leaf, so the cost of a content stays flat as the
+ * templates grow. The number of children of a node is bounded, the others
+ * going under the wildcard.
+ *
+ * In its leaf, a content is assigned to the template with the most equal
+ * tokens, if their ratio reaches the similarity threshold, and the differing
+ * tokens of the template become wildcards. Otherwise, it makes a new template.
+ * Each template has an id, given in the order of creation, which is kept as
+ * the template is generalized and across runs, as the templates are saved and
+ * loaded by {@link #save(OutputStream)} and {@link #load(InputStream)}.
+ */
+public class TemplateMiner {
+
+    /**
+     * The token standing for a variable in a template.
+     */
+    public static final String WILDCARD = "<*>";
+
+    /**
+     * The configuration key of the number of first tokens in the tree.
+     */
+    public static final String DEPTH_KEY = "analysis.miner.depth";
+
+    /**
+     * The configuration key of the similarity threshold, from 0 to 1.
+     */
+    public static final String SIMILARITY_KEY = "analysis.miner.similarity";
+
+    /**
+     * The configuration key of the maximum number of children of a node.
+     */
+    public static final String MAX_CHILDREN_KEY = "analysis.miner.children";
+
+    public static final int DEFAULT_DEPTH = 2;
+    public static final float DEFAULT_SIMILARITY = 0.4f;
+    public static final int DEFAULT_MAX_CHILDREN = 100;
+
+    /**
+     * A template of contents.
+     */
+    public static class Template {
+        private final int id;
+        private final String[] tokens;
+        private long count;
+        private byte[] csv;
+
+        Template(int id, String[] tokens, long count) {
+            this.id = id;
+            this.tokens = tokens;
+            this.count = count;
+        }
+
+        /**
+         * Returns the id of the template.
+         *
+         * @return the id, e.g. "T12"
+         */
+        public String getId() {
+            return "T" + id;
+        }
+
+        /**
+         * Returns the number of contents of the template.
+         *
+         * @return the count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the id and the template separated by a comma, as the last
+         * fields of the CSV rows of {@link LogStructuring}.
+         *
+         * @return the UTF-8 bytes of the fields
+         */
+        public byte[] getCsv() {
+            if (csv == null) {
+                csv = (getId() + "," + this).getBytes(StandardCharsets.UTF_8);
+            }
+            return csv;
+        }
+
+        /**
+         * Returns the template, e.g. "mod_jk child init <*> <*>".
+         */
+        @Override
+        public String toString() {
+            return String.join(" ", tokens);
+        }
+    }
+
+    /**
+     * A node of the tree, an inner node with children or a leaf with templates.
+     */
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<String, Node>();
+        private final List<Template> templates = new ArrayList<Template>();
+    }
+
+    private final int depth;
+    private final double similarity;
+    private final int maxChildren;
+    private final Map<Integer, Node> lengths = new HashMap<Integer, Node>();
+    private final List<Template> templates = new ArrayList<Template>();
+    private int nextId = 1;
+
+    /**
+     * Constructs an empty miner configured by the keys of this class.
+     *
+     * @param conf the configuration
+     */
+    public TemplateMiner(Configuration conf) {
+        this(conf.getInt(DEPTH_KEY, DEFAULT_DEPTH), conf.getFloat(SIMILARITY_KEY, DEFAULT_SIMILARITY),
+                conf.getInt(MAX_CHILDREN_KEY, DEFAULT_MAX_CHILDREN));
+    }
+
+    /**
+     * Constructs an empty miner.
+     *
+     * @param depth       the number of first tokens in the tree
+     * @param similarity  the minimum ratio of equal tokens of a content and its
+     *                    template
+     * @param maxChildren the maximum number of children of a node
+     */
+    public TemplateMiner(int depth, double similarity, int maxChildren) {
+        if (maxChildren < 2) {
+            throw new IllegalArgumentException("A node must have at least 2 children");
+        }
+        this.depth = depth;
+        this.similarity = similarity;
+        this.maxChildren = maxChildren;
+    }
+
+    /**
+     * Splits a content into tokens.
+     *
+     * @param content the content
+     * @return the tokens, separated by single spaces in the content
+     */
+    public static String[] tokenize(String content) {
+        return content.split(" ", -1);
+    }
+
+    /**
+     * Learns a content.
+     *
+     * @param content the content
+     * @return the template of the content, which is new or updated
+     */
+    public Template add(String content) {
+        return add(tokenize(content), 1);
+    }
+
+    /**
+     * Learns the tokens of a content or a template.
+     *
+     * @param tokens the tokens, with {@link #WILDCARD} for the variables of a
+     *               template
+     * @param count  the number of contents
+     * @return the template of the tokens, which is new or updated
+     */
+    public Template add(String[] tokens, long count) {
+        Node leaf = leaf(tokens);
+        Template template = best(leaf, tokens);
+        if (template == null) {
+            template = new Template(nextId++, tokens.clone(), 0);
+            leaf.templates.add(template);
+            templates.add(template);
+        } else {
+            for (int i = 0; i < tokens.length; i++) {
+                if (!template.tokens[i].equals(tokens[i])) {
+                    template.tokens[i] = WILDCARD;
+                    template.csv = null;
+                }
+            }
+        }
+        template.count += count;
+        return template;
+    }
+
+    /**
+     * Finds the leaf of the tokens of a content or a template, adding the nodes
+     * of its path if needed.
+     */
+    private Node leaf(String[] tokens) {
+        Node node = lengths.get(tokens.length);
+        if (node == null) {
+            node = new Node();
+            lengths.put(tokens.length, node);
+        }
+        for (int i = 0; i < depth && i < tokens.length; i++) {
+            node = child(node, tokens[i]);
+        }
+        return node;
+    }
+
+    /**
+     * Finds the child of a node for a token, adding it if needed.
+     */
+    private Node child(Node node, String token) {
+        String key = hasDigit(token) ? WILDCARD : token;
+        Node child = node.children.get(key);
+        if (child == null) {
+            // Keep a child for the wildcard when the node is full
+            int size = node.children.size() + (node.children.containsKey(WILDCARD) ? 0 : 1);
+            if (size >= maxChildren) {
+                key = WILDCARD;
+                child = node.children.get(key);
+            }
+            if (child == null) {
+                child = new Node();
+                node.children.put(key, child);
+            }
+        }
+        return child;
+    }
+
+    /**
+     * Finds the template of a content, without learning it.
+     *
+     * @param content the content
+     * @return the template, or null if the content has no template
+     */
+    public Template match(String content) {
+        String[] tokens = tokenize(content);
+        Node node = lengths.get(tokens.length);
+        for (int i = 0; node != null && i < depth && i < tokens.length; i++) {
+            Node child = node.children.get(hasDigit(tokens[i]) ? WILDCARD : tokens[i]);
+            node = child != null ? child : node.children.get(WILDCARD);
+        }
+        return node != null ? best(node, tokens) : null;
+    }
+
+    /**
+     * Finds the most similar template of a leaf, if similar enough. Between
+     * templates as similar, the one with more wildcards is taken.
+     */
+    private Template best(Node leaf, String[] tokens) {
+        Template best = null;
+        int bestEqual = -1;
+        int bestWildcards = -1;
+        for (Template template : leaf.templates) {
+            int equal = 0;
+            int wildcards = 0;
+            for (int i = 0; i < tokens.length; i++) {
+                if (template.tokens[i].equals(WILDCARD)) {
+                    wildcards++;
+                } else if (template.tokens[i].equals(tokens[i])) {
+                    equal++;
+                }
+            }
+            if (equal > bestEqual || (equal == bestEqual && wildcards > bestWildcards)) {
+                best = template;
+                bestEqual = equal;
+                bestWildcards = wildcards;
+            }
+        }
+        return best != null && bestEqual >= similarity * tokens.length ? best : null;
+    }
+
+    private static boolean hasDigit(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c >= '0' && c <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the templates, by id.
+     *
+     * @return the templates
+     */
+    public List<Template> getTemplates() {
+        return Collections.unmodifiableList(templates);
+    }
+
+    /**
+     * Sets the counts of all templates to 0, keeping the templates.
+     */
+    public void resetCounts() {
+        for (Template template : templates) {
+            template.count = 0;
+        }
+    }
+
+    /**
+     * Saves the templates as lines of the id, the count and the template,
+     * separated by tabs, as written by {@link TemplateMining}.
+     *
+     * @param out the output stream, which is not closed
+     * @throws IOException if the templates cannot be written
+     */
+    public void save(OutputStream out) throws IOException {
+        for (Template template : templates) {
+            out.write((template.getId() + "\t" + template.count + "\t" + template + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Loads saved templates, keeping their ids and counts.
+     *
+     * @param in the input stream of the saved templates, which is not closed
+     * @throws IOException if the templates cannot be read
+     */
+    public void load(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.split("\t", 3);
+            if (fields.length != 3 || !fields[0].startsWith("T")) {
+                throw new IOException("Not a saved template: " + line);
+            }
+            int id = Integer.parseInt(fields[0].substring(1));
+            String[] tokens = tokenize(fields[2]);
+            Template template = new Template(id, tokens, Long.parseLong(fields[1]));
+            leaf(tokens).templates.add(template);
+            templates.add(template);
+            nextId = Math.max(nextId, id + 1);
+        }
+        Collections.sort(templates, new Comparator<Template>() {
+            @Override
+            public int compare(Template a, Template b) {
+                return Integer.compare(a.id, b.id);
+            }
+        });
+    }
+}
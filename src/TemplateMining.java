@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * A Hadoop MapReduce to learn the templates of the events of logs which match
+ * none of the known templates E1 to E6, with a {@link TemplateMiner}.
+ *
+ * Each mapper learns the templates of its split, and the single reducer merges
+ * them into one set of templates, with ids stable across runs: with
+ * {@link #MODEL_KEY} set to the output of a previous run, the templates of that
+ * run are loaded first, keeping their ids and adding up their counts. The
+ * output is the model of the templates, a line per template with its id, its
+ * count and its template, separated by tabs, in the order of the ids.
+ *
+ * With {@link #MODEL_KEY} set, {@link LogStructuring} writes the learned
+ * template of each event of the type {@link Event.EventId#OTHER} instead.
+ */
+public class TemplateMining {
+
+    /**
+     * The configuration key of the model of the templates learned by a previous
+     * run, the output directory or a file of the output.
+     */
+    public static final String MODEL_KEY = "analysis.miner.model";
+
+    /**
+     * Loads the model of {@link #MODEL_KEY} into a new miner.
+     *
+     * @param conf the configuration of the miner and the model
+     * @return the miner, with no template if no model is set
+     * @throws IOException if the model cannot be read
+     */
+    public static TemplateMiner load(Configuration conf) throws IOException {
+        TemplateMiner miner = new TemplateMiner(conf);
+        String model = conf.get(MODEL_KEY);
+        if (model == null) {
+            return miner;
+        }
+        Path path = new Path(model);
+        FileSystem fs = path.getFileSystem(conf);
+        FileStatus[] files = fs.listStatus(path);
+        Arrays.sort(files);
+        for (FileStatus file : files) {
+            String name = file.getPath().getName();
+            if (file.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                try (InputStream in = fs.open(file.getPath())) {
+                    miner.load(in);
+                }
+            }
+        }
+        return miner;
+    }
+
+    /**
+     * <p>
+     * MyMapper is a static inner class that extends the Mapper class. It learns
+     * the templates of the events of its split.
+     * </p>
+     *
+     * <p>
+     * The <code>map</code> method parses each line into a reused Event object,
+     * and learns the content of an event matching none of the known templates.
+     * The <code>cleanup</code> method writes the templates of the split with
+     * their counts, the templates of the model included, so they are merged
+     * into the same templates.
+     * </p>
+     *
+     * <p>
+     * Output Key: Text (a template) Output Value: LongWritable (the number of
+     * events of the template in the split)
+     * </p>
+     */
+    private static class MyMapper extends Mapper<Object, Text, Text, LongWritable> {
+        private Event event = new Event();
+        private TemplateMiner miner;
+        private Text template = new Text();
+        private LongWritable count = new LongWritable();
+
+        @Override
+        public void setup(Context context) throws IOException {
+            miner = load(context.getConfiguration());
+            miner.resetCounts();
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context) {
+            if (event.set(value) && event.gerEventId() == Event.EventId.OTHER) {
+                miner.add(event.getContent());
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            for (TemplateMiner.Template learned : miner.getTemplates()) {
+                if (learned.getCount() > 0) {
+                    template.set(learned.toString());
+                    count.set(learned.getCount());
+                    context.write(template, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * A combiner class that sums up the counts of a template.
+     */
+    private static class MyCombiner extends Reducer<Text, LongWritable, Text, LongWritable> {
+        private LongWritable result = new LongWritable();
+
+        @Override
+        public void reduce(Text key, Iterable<LongWritable> values, Context context)
+                throws IOException, InterruptedException {
+            long sum = 0;
+            for (LongWritable value : values) {
+                sum += value.get();
+            }
+            result.set(sum);
+            context.write(key, result);
+        }
+    }
+
+    /**
+     * <p>
+     * A Reducer class that merges the templates of all mappers.
+     * </p>
+     *
+     * <p>
+     * The <code>setup</code> method loads the model. The <code>reduce</code>
+     * method learns each template of the mappers with its total count, in the
+     * sorted order of the templates, so the new ids are the same for the same
+     * input. The <code>cleanup</code> method writes the merged templates.
+     * </p>
+     *
+     * <p>
+     * Output Key: Text (the id, the count and the template) Output Value:
+     * NullWritable
+     * </p>
+     */
+    private static class MyReducer extends Reducer<Text, LongWritable, Text, NullWritable> {
+        private TemplateMiner miner;
+
+        @Override
+        public void setup(Context context) throws IOException {
+            miner = load(context.getConfiguration());
+        }
+
+        @Override
+        public void reduce(Text key, Iterable<LongWritable> values, Context context) {
+            long sum = 0;
+            for (LongWritable value : values) {
+                sum += value.get();
+            }
+            miner.add(TemplateMiner.tokenize(key.toString()), sum);
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            Text line = new Text();
+            for (TemplateMiner.Template template : miner.getTemplates()) {
+                line.set(template.getId() + "\t" + template.getCount() + "\t" + template);
+                context.write(line, NullWritable.get());
+            }
+        }
+    }
+
+    /**
+     * Configures and returns a new Hadoop Job for learning the templates.
+     *
+     * @param conf   the Hadoop configuration to use for the job
+     * @param input  the input path for the job
+     * @param output the output path for the job
+     * @return a configured Job instance for the template mining
+     */
+    public static Job getJob(Configuration conf, Path input, Path output) throws IOException {
+        Job job = new Job(conf, "template mining");
+        job.setJarByClass(TemplateMining.class);
+        job.setMapperClass(MyMapper.class);
+        job.setCombinerClass(MyCombiner.class);
+        job.setReducerClass(MyReducer.class);
+        job.setNumReduceTasks(1);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(LongWritable.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+        LogInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: TemplateMining [-D " + MODEL_KEY + "=<previous out>] [-D "
+                    + TemplateMiner.SIMILARITY_KEY + "=<ratio>] [-D " + TemplateMiner.DEPTH_KEY + "=<tokens>] <in> <out>");
+            System.exit(2);
+        }
+        Job job = getJob(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
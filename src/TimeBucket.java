@@ -0,0 +1,174 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * The TimeBucket class is a compact key of a time feature, e.g. the hour 04 or
+ * the week day Sun, used by {@link TimeStatistic}.
+ *
+ * It is serialized as two bytes, the dimension and the value, and compared by
+ * a registered raw comparator on the serialized bytes without deserializing.
+ * The order is the natural order of the values, e.g. hours from 00 to 23 and
+ * week days from Mon to Sun. The human-readable label, e.g. "Hour: 04", is only
+ * rendered by {@link #toString()} when the key is written to the output.
+ */
+public class TimeBucket implements WritableComparable<TimeBucket> {
+
+    /**
+     * Enum representing the dimensions of the time features, in the order of
+     * the output.
+     */
+    public enum Dimension {
+        DAY("Day", null), HOUR("Hour", null),
+        MONTH("Month", new String[] { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov",
+                "Dec" }),
+        WEEK_DAY("Week Day", new String[] { "Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun" });
+
+        private final String label;
+        private final String[] names;
+
+        Dimension(String label, String[] names) {
+            this.label = label;
+            this.names = names;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Returns the size of the value range of the dimension.
+         *
+         * @return the number of values, or 100 for the two-digit numbers
+         */
+        public int size() {
+            return names != null ? names.length : 100;
+        }
+
+        /**
+         * Parses a value of the dimension from bytes.
+         *
+         * @param bytes  the bytes containing the value
+         * @param start  the start offset of the value in the bytes
+         * @param length the length of the value in bytes
+         * @return the value, or -1 if the bytes are not a value of the dimension
+         */
+        public int parse(byte[] bytes, int start, int length) {
+            if (names == null) {
+                if (length != 2 || bytes[start] < '0' || bytes[start] > '9' || bytes[start + 1] < '0'
+                        || bytes[start + 1] > '9') {
+                    return -1;
+                }
+                return (bytes[start] - '0') * 10 + (bytes[start + 1] - '0');
+            }
+            for (int value = 0; value < names.length; value++) {
+                String name = names[value];
+                if (name.length() == length && name.charAt(0) == bytes[start] && name.charAt(1) == bytes[start + 1]
+                        && name.charAt(2) == bytes[start + 2]) {
+                    return value;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Renders a value of the dimension.
+         *
+         * @param value the value
+         * @return the name of the value, or the value in two digits
+         */
+        public String render(int value) {
+            if (names == null) {
+                return value < 10 ? "0" + value : Integer.toString(value);
+            }
+            return names[value];
+        }
+    }
+
+    private static final Dimension[] DIMENSIONS = Dimension.values();
+
+    private Dimension dimension = Dimension.DAY;
+    private int value;
+
+    static {
+        WritableComparator.define(TimeBucket.class, new Comparator());
+    }
+
+    public TimeBucket() {
+    }
+
+    public TimeBucket(Dimension dimension, int value) {
+        set(dimension, value);
+    }
+
+    public void set(Dimension dimension, int value) {
+        this.dimension = dimension;
+        this.value = value;
+    }
+
+    public Dimension getDimension() {
+        return dimension;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(dimension.ordinal());
+        out.writeByte(value);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        dimension = DIMENSIONS[in.readUnsignedByte()];
+        value = in.readUnsignedByte();
+    }
+
+    @Override
+    public int compareTo(TimeBucket other) {
+        if (dimension != other.dimension) {
+            return dimension.compareTo(other.dimension);
+        }
+        return Integer.compare(value, other.value);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TimeBucket && compareTo((TimeBucket) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return dimension.ordinal() * 256 + value;
+    }
+
+    /**
+     * Returns the human-readable label of the time feature.
+     *
+     * @return the label, e.g. "Week Day: Sun"
+     */
+    @Override
+    public String toString() {
+        return dimension.getLabel() + ": " + dimension.render(value);
+    }
+
+    /**
+     * A raw comparator of TimeBucket, which compares the serialized bytes
+     * directly.
+     */
+    public static class Comparator extends WritableComparator {
+        public Comparator() {
+            super(TimeBucket.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return compareBytes(b1, s1, l1, b2, s2, l2);
+        }
+    }
+}
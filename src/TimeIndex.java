@@ -0,0 +1,213 @@
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+/**
+ * The TimeIndex class is a sparse index of the times of the rows of a
+ * structured log file, to find the rows of a time range without scanning the
+ * whole file.
+ *
+ * The rows are grouped into blocks of a given number of consecutive rows. For
+ * each block, the index
+ * holds the byte offset of its first row in the file, and the earliest and the
+ * latest times of its rows. The logs are written in time order, so the blocks of
+ * a time range are found by a binary search. The search is on the running
+ * maximum and the suffix minimum of the times of the blocks, which keeps it
+ * exact for the few rows written out of order.
+ *
+ * The index of a file is stored next to it, in a file named after it with a
+ * leading "_", so it is ignored as an input by Hadoop.
+ */
+public class TimeIndex {
+
+    /**
+     * The extension of the index files.
+     */
+    public static final String EXTENSION = ".idx";
+
+    /**
+     * The default number of rows of a block.
+     */
+    public static final int DEFAULT_BLOCK_ROWS = 1024;
+
+    private final long[] offsets; // the offsets of the blocks, and the end of the last block
+    private final long[] runningMax;
+    private final long[] suffixMin;
+
+    private TimeIndex(long[] offsets, long[] minTimes, long[] maxTimes) {
+        this.offsets = offsets;
+        int blocks = minTimes.length;
+        runningMax = new long[blocks];
+        suffixMin = new long[blocks];
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < blocks; i++) {
+            max = Math.max(max, maxTimes[i]);
+            runningMax[i] = max;
+        }
+        long min = Long.MAX_VALUE;
+        for (int i = blocks - 1; i >= 0; i--) {
+            min = Math.min(min, minTimes[i]);
+            suffixMin[i] = min;
+        }
+    }
+
+    /**
+     * Returns the path of the index of a file.
+     *
+     * @param file the path of the indexed file
+     * @return the path of the index
+     */
+    public static Path indexPath(Path file) {
+        return new Path(file.getParent(), "_" + file.getName() + EXTENSION);
+    }
+
+    /**
+     * Reads an index.
+     *
+     * @param in the input stream of the index, which is not closed
+     * @return the index
+     * @throws IOException if the index cannot be read
+     */
+    public static TimeIndex read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int blocks = data.readInt();
+        byte[] bytes = new byte[blocks * 24 + 8];
+        data.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long[] offsets = new long[blocks + 1];
+        long[] minTimes = new long[blocks];
+        long[] maxTimes = new long[blocks];
+        for (int i = 0; i < blocks; i++) {
+            offsets[i] = buffer.getLong();
+            minTimes[i] = buffer.getLong();
+            maxTimes[i] = buffer.getLong();
+        }
+        offsets[blocks] = buffer.getLong();
+        return new TimeIndex(offsets, minTimes, maxTimes);
+    }
+
+    /**
+     * Finds the byte range of the file which holds the rows of a time range.
+     *
+     * @param from the start of the time range in seconds since the epoch,
+     *             inclusive
+     * @param to   the end of the time range in seconds since the epoch,
+     *             inclusive
+     * @return the start and the end offsets of the byte range, or null if no
+     *         row is in the time range
+     */
+    public long[] find(long from, long to) {
+        // The first block with a time at or after the start
+        int first = 0;
+        int last = runningMax.length;
+        while (first < last) {
+            int middle = (first + last) >>> 1;
+            if (runningMax[middle] < from) {
+                first = middle + 1;
+            } else {
+                last = middle;
+            }
+        }
+        // The first block after the last block with a time at or before the end
+        int end = first;
+        last = suffixMin.length;
+        while (end < last) {
+            int middle = (end + last) >>> 1;
+            if (suffixMin[middle] <= to) {
+                end = middle + 1;
+            } else {
+                last = middle;
+            }
+        }
+        return first < end ? new long[] { offsets[first], offsets[end] } : null;
+    }
+
+    /**
+     * Returns the number of blocks of the index.
+     *
+     * @return the number of blocks
+     */
+    public int getBlocks() {
+        return runningMax.length;
+    }
+
+    /**
+     * The Writer class builds the index of a file while its rows are written.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final int blockRows;
+        private final DataOutputBuffer blocks = new DataOutputBuffer();
+        private int blockCount;
+        private int rows;
+        private long offset = -1;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+        private long end;
+
+        /**
+         * Constructs a writer of an index.
+         *
+         * @param out       the output stream of the index, which is closed with
+         *                  the writer
+         * @param blockRows the maximum number of rows of a block
+         */
+        public Writer(OutputStream out, int blockRows) {
+            this.out = new DataOutputStream(out);
+            this.blockRows = blockRows;
+        }
+
+        /**
+         * Adds a row.
+         *
+         * @param offset the byte offset of the row in the file
+         * @param length the length of the row in bytes, with its line feed
+         * @param time   the time of the row in seconds since the epoch, or
+         *               {@link LogTime#INVALID} if it has no valid time
+         * @throws IOException if the index cannot be written
+         */
+        public void add(long offset, int length, long time) throws IOException {
+            if (this.offset < 0 || rows == blockRows) {
+                flushBlock();
+                this.offset = offset;
+            }
+            rows++;
+            if (time != LogTime.INVALID) {
+                minTime = Math.min(minTime, time);
+                maxTime = Math.max(maxTime, time);
+            }
+            end = offset + length;
+        }
+
+        private void flushBlock() throws IOException {
+            if (offset >= 0) {
+                blocks.writeLong(offset);
+                blocks.writeLong(minTime);
+                blocks.writeLong(maxTime);
+                blockCount++;
+            }
+            rows = 0;
+            minTime = Long.MAX_VALUE;
+            maxTime = Long.MIN_VALUE;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBlock();
+                out.writeInt(blockCount);
+                out.write(blocks.getData(), 0, blocks.getLength());
+                out.writeLong(end);
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
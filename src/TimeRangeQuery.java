@@ -0,0 +1,203 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * A query of the structured logs of {@link LogStructuring} in a time range,
+ * optionally filtered by level and event type.
+ *
+ * The rows of a time range are found in each CSV file by a binary search of its
+ * {@link TimeIndex}, written with {@link CsvOutputFormat#INDEX_KEY} set, and
+ * only that byte range of the file is read. A file without an index is scanned
+ * as a whole. The matching rows are written to the standard output as they are
+ * in the files.
+ *
+ * The times are given as <code>2005-12-04T04:47:00</code>, without a time zone
+ * as in the logs.
+ */
+public class TimeRangeQuery {
+
+    /**
+     * The configuration key of the level to filter the rows by.
+     */
+    public static final String LEVEL_KEY = "analysis.query.level";
+
+    /**
+     * The configuration key of the event type to filter the rows by, e.g. E3.
+     */
+    public static final String EVENT_KEY = "analysis.query.event";
+
+    private final long from;
+    private final long to;
+    private final byte[] level;
+    private final byte[] eventId;
+    private long rows;
+    private long bytesRead;
+    private long bytesTotal;
+
+    /**
+     * Constructs a query.
+     *
+     * @param from    the start of the time range in seconds since the epoch,
+     *                inclusive
+     * @param to      the end of the time range in seconds since the epoch,
+     *                inclusive
+     * @param level   the level of the rows, or null for any level
+     * @param eventId the event type of the rows, or null for any type
+     */
+    public TimeRangeQuery(long from, long to, String level, Event.EventId eventId) {
+        this.from = from;
+        this.to = to;
+        this.level = level != null ? level.getBytes(StandardCharsets.UTF_8) : null;
+        this.eventId = eventId != null ? eventId.name().getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Runs the query on the files of an output directory.
+     *
+     * @param fs     the file system of the directory
+     * @param output the output directory of LogStructuring
+     * @param out    the output stream of the matching rows
+     * @throws IOException if the files cannot be read
+     */
+    public void run(FileSystem fs, Path output, OutputStream out) throws IOException {
+        FileStatus[] files = fs.listStatus(output);
+        Arrays.sort(files);
+        for (FileStatus file : files) {
+            String name = file.getPath().getName();
+            if (file.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                run(fs, file, out);
+            }
+        }
+    }
+
+    private void run(FileSystem fs, FileStatus file, OutputStream out) throws IOException {
+        bytesTotal += file.getLen();
+        long[] range = { 0, file.getLen() };
+        Path indexPath = TimeIndex.indexPath(file.getPath());
+        if (fs.exists(indexPath)) {
+            try (FSDataInputStream in = fs.open(indexPath)) {
+                range = TimeIndex.read(in).find(from, to);
+            }
+            if (range == null) {
+                return;
+            }
+        }
+        try (FSDataInputStream in = fs.open(file.getPath())) {
+            in.seek(range[0]);
+            LineReader reader = new LineReader(in);
+            Text line = new Text();
+            long position = range[0];
+            while (position < range[1]) {
+                int n = reader.readLine(line);
+                if (n == 0) {
+                    break;
+                }
+                position += n;
+                if (matches(line)) {
+                    out.write(line.getBytes(), 0, line.getLength());
+                    out.write('\n');
+                    rows++;
+                }
+            }
+            bytesRead += position - range[0];
+        }
+    }
+
+    /**
+     * Checks if a row matches the query. A row is the row number, the time, the
+     * level, the content, the event type and the template, separated by commas.
+     */
+    private boolean matches(Text line) {
+        byte[] bytes = line.getBytes();
+        int length = line.getLength();
+        int time = 0;
+        while (time < length && bytes[time] != ',') {
+            time++;
+        }
+        time++;
+        int levelStart = time + LogTime.LENGTH + 1;
+        if (levelStart > length || bytes[levelStart - 1] != ',') {
+            return false;
+        }
+        long epochSecond = LogTime.parse(bytes, time, LogTime.LENGTH);
+        if (epochSecond == LogTime.INVALID || epochSecond < from || epochSecond > to) {
+            return false;
+        }
+        if (level != null && !startsWith(bytes, levelStart, length, level)) {
+            return false;
+        }
+        if (eventId != null) {
+            // The event type is the field before the template, which has no comma
+            int end = length - 1;
+            while (end > levelStart && bytes[end] != ',') {
+                end--;
+            }
+            int start = end - eventId.length;
+            if (start <= levelStart || bytes[start - 1] != ',' || !startsWith(bytes, start, end, eventId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the field starting at an offset is the value, followed by a
+     * comma or the end.
+     */
+    private static boolean startsWith(byte[] bytes, int start, int end, byte[] value) {
+        if (start + value.length > end || (start + value.length < end && bytes[start + value.length] != ',')) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (bytes[start + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a time given as <code>2005-12-04T04:47:00</code>.
+     *
+     * @param time the time
+     * @return the time in seconds since the epoch, read as a UTC time as in
+     *         {@link LogTime}
+     */
+    static long parseTime(String time) {
+        return LocalDateTime.parse(time).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 3) {
+            System.err.println("Usage: TimeRangeQuery [-D " + LEVEL_KEY + "=<level>] [-D " + EVENT_KEY
+                    + "=<event id>] <LogStructuring out> <from> <to>");
+            System.exit(2);
+        }
+        String eventId = conf.get(EVENT_KEY);
+        TimeRangeQuery query = new TimeRangeQuery(parseTime(otherArgs[1]), parseTime(otherArgs[2]),
+                conf.get(LEVEL_KEY), eventId != null ? Event.EventId.valueOf(eventId) : null);
+        long start = System.nanoTime();
+        Path output = new Path(otherArgs[0]);
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        query.run(output.getFileSystem(conf), output, out);
+        out.flush();
+        System.err.printf("%d rows in %.1f ms, %d of %d bytes read%n", query.rows, (System.nanoTime() - start) / 1e6,
+                query.bytesRead, query.bytesTotal);
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * A Hadoop MapReduce to count the events by level and by event type in time
+ * series of 1 minute, 5 minutes, 1 hour and 1 day buckets, in a single pass.
+ *
+ * The times of the events are parsed to seconds since the epoch by a
+ * {@link LogTime.Parser}, which only parses the seconds of the events in the
+ * same minute as the previous event. Each output line is a compact record of a
+ * {@link RollupKey}: the resolution, the start of the bucket in seconds since
+ * the epoch, the dimension, its value and the count of the events, separated by
+ * tabs, e.g. "5m 1133671500 level error 12". The records are sorted by
+ * resolution, time, dimension and value in each output file. The events without
+ * a valid time are not counted.
+ */
+public class TimeRollup {
+
+    private static final RollupKey.Resolution[] RESOLUTIONS = RollupKey.Resolution.values();
+    private static final Event.EventId[] EVENT_IDS = Event.EventId.values();
+    private static final byte[][] EVENT_ID_NAMES = new byte[EVENT_IDS.length][];
+
+    static {
+        for (Event.EventId eventType : EVENT_IDS) {
+            EVENT_ID_NAMES[eventType.ordinal()] = eventType.name().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * <p>
+     * MyMapper is a static inner class that extends the Mapper class. It counts
+     * the events of its split in the buckets of each resolution.
+     * </p>
+     *
+     * <p>
+     * The <code>map</code> method parses each line into a reused Event object,
+     * parses the time of a parsed event, and counts the event by level and by
+     * event type in the current bucket of each resolution. The events of a log
+     * are in the order of their times, so the counts of a bucket are written when
+     * an event of another bucket is counted, and in <code>cleanup</code>. An
+     * event out of order only starts a new bucket whose counts are summed with
+     * the others by the combiner and the reducer. The events are counted and the
+     * stages of sampled lines timed by an {@link Instrumentation}.
+     * </p>
+     *
+     * <p>
+     * Key: Object (input key, not used in this implementation) Value: Text (a line
+     * of text from the input)
+     * </p>
+     *
+     * <p>
+     * Output Key: RollupKey (the bucket, dimension and value) Output Value:
+     * LongWritable (the count of the events)
+     * </p>
+     */
+    private static class MyMapper extends Mapper<Object, Text, RollupKey, LongWritable> {
+        private Event event = new Event();
+        private LogTime.Parser parser = new LogTime.Parser();
+        private Window[] windows = new Window[RESOLUTIONS.length];
+        private RollupKey rollupKey = new RollupKey();
+        private LongWritable count = new LongWritable();
+        private Instrumentation instrumentation;
+
+        @Override
+        public void setup(Context context) throws IOException, InterruptedException {
+            instrumentation = new Instrumentation(context.getConfiguration());
+            for (RollupKey.Resolution resolution : RESOLUTIONS) {
+                windows[resolution.ordinal()] = new Window(resolution);
+            }
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+            instrumentation.start();
+            if (instrumentation.set(event, value)) {
+                long time = parser.parse(event.getBytes(), event.getTimeStart(), event.getTimeLength());
+                if (time != LogTime.INVALID) {
+                    instrumentation.emit();
+                    for (Window window : windows) {
+                        window.add(time, event, context);
+                    }
+                }
+            }
+            instrumentation.end();
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            for (Window window : windows) {
+                window.flush(context);
+            }
+            instrumentation.flush(context);
+        }
+
+        /**
+         * The counts of the events in the current bucket of a resolution, by
+         * event type in an array and by level in a short list, as a log has only a
+         * few levels.
+         */
+        private class Window {
+            private final RollupKey.Resolution resolution;
+            private long bucket;
+            private boolean empty = true;
+            private final long[] eventIds = new long[EVENT_IDS.length];
+            private byte[][] levels = new byte[4][];
+            private long[] levelCounts = new long[4];
+            private int levelsUsed;
+
+            Window(RollupKey.Resolution resolution) {
+                this.resolution = resolution;
+            }
+
+            void add(long time, Event event, Context context) throws IOException, InterruptedException {
+                long start = resolution.bucket(time);
+                if (empty || start != bucket) {
+                    flush(context);
+                    bucket = start;
+                    empty = false;
+                }
+                eventIds[event.gerEventId().ordinal()]++;
+                levelCounts[level(event.getBytes(), event.getLevelStart(), event.getLevelLength())]++;
+            }
+
+            /**
+             * Returns the index of a level in the list, adding it if it is not
+             * in the list.
+             */
+            private int level(byte[] bytes, int start, int length) {
+                for (int i = 0; i < levelsUsed; i++) {
+                    if (levels[i].length == length && equals(levels[i], bytes, start)) {
+                        return i;
+                    }
+                }
+                if (levelsUsed == levels.length) {
+                    levels = Arrays.copyOf(levels, levelsUsed * 2);
+                    levelCounts = Arrays.copyOf(levelCounts, levelsUsed * 2);
+                }
+                levels[levelsUsed] = Arrays.copyOfRange(bytes, start, start + length);
+                return levelsUsed++;
+            }
+
+            private boolean equals(byte[] level, byte[] bytes, int start) {
+                for (int i = 0; i < level.length; i++) {
+                    if (level[i] != bytes[start + i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            /**
+             * Writes the counts of the current bucket and clears them, keeping
+             * the levels.
+             */
+            void flush(Context context) throws IOException, InterruptedException {
+                if (empty) {
+                    return;
+                }
+                for (int i = 0; i < levelsUsed; i++) {
+                    if (levelCounts[i] > 0) {
+                        write(RollupKey.Dimension.LEVEL, levels[i], levelCounts[i], context);
+                        levelCounts[i] = 0;
+                    }
+                }
+                for (int i = 0; i < eventIds.length; i++) {
+                    if (eventIds[i] > 0) {
+                        write(RollupKey.Dimension.EVENT_ID, EVENT_ID_NAMES[i], eventIds[i], context);
+                        eventIds[i] = 0;
+                    }
+                }
+                empty = true;
+            }
+
+            private void write(RollupKey.Dimension dimension, byte[] value, long n, Context context)
+                    throws IOException, InterruptedException {
+                rollupKey.set(resolution, bucket, dimension, value, 0, value.length);
+                count.set(n);
+                context.write(rollupKey, count);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * MyReducer is a static inner class that extends the Reducer class. It sums
+     * the counts of the same bucket, dimension and value.
+     * </p>
+     *
+     * <p>
+     * Key: RollupKey (the bucket, dimension and value) Value: LongWritable (the
+     * counts of the events)
+     * </p>
+     */
+    private static class MyReducer extends Reducer<RollupKey, LongWritable, RollupKey, LongWritable> {
+        private LongWritable result = new LongWritable();
+
+        @Override
+        public void reduce(RollupKey key, Iterable<LongWritable> values, Context context)
+                throws IOException, InterruptedException {
+            long sum = 0;
+            for (LongWritable val : values) {
+                sum += val.get();
+            }
+            result.set(sum);
+            context.write(key, result);
+        }
+    }
+
+    /**
+     * A combiner class that extends the {@link MyReducer} class, summing the
+     * counts of the buckets split by the events out of order.
+     */
+    private static class MyCombiner extends MyReducer {
+    }
+
+    /**
+     * Configures and returns a new Hadoop Job for TimeRollup.
+     *
+     * @param conf   the Hadoop configuration to use for the job
+     * @param input  the input path for the job
+     * @param output the output path for the job
+     * @return a configured Job instance for the time series rollups
+     */
+    public static Job getJob(Configuration conf, Path input, Path output) throws IOException {
+        Job job = new Job(conf, "time rollup");
+        job.setJarByClass(TimeRollup.class);
+        job.setMapperClass(MyMapper.class);
+        job.setCombinerClass(MyCombiner.class);
+        job.setReducerClass(MyReducer.class);
+        job.setOutputKeyClass(RollupKey.class);
+        job.setOutputValueClass(LongWritable.class);
+        LogInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: TimeRollup <in> <out>");
+            System.exit(2);
+        }
+        Job job = getJob(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
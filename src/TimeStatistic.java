@@ -1,5 +1,4 @@
 import java.io.IOException;
-import java.util.regex.*;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -8,7 +7,6 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
@@ -25,9 +23,17 @@ public class TimeStatistic {
      * 
      * <p>
      * The <code>map</code> method processes each line of the input, parses it into
-     * an Event object, and checks if the event is parsed successfully. If the event
+     * a reused Event object, and checks if the event is parsed successfully. If the event
      * is parsed successfully, it extracts the time information from the event and
-     * writes the time information as the key and the value 1 to the context.
+     * writes the time information as the key and the value 1 to the context. The
+     * events are counted and the stages of sampled lines timed by an
+     * {@link Instrumentation}.
+     * </p>
+     * 
+     * <p>
+     * If the in-mapper combining is enabled, the keys are counted locally in an
+     * array by dimension and value, and written with their counts in
+     * <code>cleanup</code> instead.
      * </p>
      * 
      * <p>
@@ -36,37 +42,146 @@ public class TimeStatistic {
      * </p>
      * 
      * <p>
-     * Output Key: Text (the time information) Output Value: IntWritable (the count
-     * of the time information, which is always 1 in this case)
+     * Output Key: TimeBucket (the time information) Output Value: IntWritable (the
+     * count of the time information, which is always 1 in this case)
      * </p>
      */
-    private static class MyMapper extends Mapper<Object, Text, Text, IntWritable> {
+    private static class MyMapper extends Mapper<Object, Text, TimeBucket, IntWritable> {
         private final static IntWritable one = new IntWritable(1);
-        private static final Pattern pattern = Pattern
-                .compile("([A-Za-z]+) ([A-Za-z]+) (\\d{2}) (\\d{2}):\\d{2}:\\d{2} \\d{4}");
-        private Text timeHour = new Text();
-        private Text timeDay = new Text();
-        private Text timeWeekDay = new Text();
-        private Text timeMonth = new Text();
+        private Event event = new Event();
+        private TimeBucket timeHour = new TimeBucket();
+        private TimeBucket timeDay = new TimeBucket();
+        private TimeBucket timeWeekDay = new TimeBucket();
+        private TimeBucket timeMonth = new TimeBucket();
+        private int[][] counts; // local counts by dimension and value, if in-mapper combining is enabled
+        private Instrumentation instrumentation;
+
+        @Override
+        public void setup(Context context) throws IOException, InterruptedException {
+            instrumentation = new Instrumentation(context.getConfiguration());
+            if (context.getConfiguration().getBoolean(InMapperCombiner.ENABLED_KEY, false)) {
+                counts = new int[DIMENSIONS.length][];
+                for (TimeBucket.Dimension dimension : DIMENSIONS) {
+                    counts[dimension.ordinal()] = new int[dimension.size()];
+                }
+            }
+        }
 
         @Override
         public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-            String line = value.toString();
-            Event event = new Event(line);
-            if (event.isParsed()) {
-                final Matcher matcher = pattern.matcher(event.getTime());
-                if (matcher.find()) {
-                    timeWeekDay.set("Week Day: " + matcher.group(1));
-                    timeMonth.set("Month: " + matcher.group(2));
-                    timeDay.set("Day: " + matcher.group(3));
-                    timeHour.set("Hour: " + matcher.group(4));
-                    context.write(timeWeekDay, one);
-                    context.write(timeMonth, one);
-                    context.write(timeDay, one);
-                    context.write(timeHour, one);
+            instrumentation.start();
+            if (instrumentation.set(event, value) && extract(event.getBytes(), event.getTimeStart(),
+                    event.getTimeLength(), timeWeekDay, timeMonth, timeDay, timeHour)) {
+                instrumentation.emit();
+                write(timeWeekDay, context);
+                write(timeMonth, context);
+                write(timeDay, context);
+                write(timeHour, context);
+            }
+            instrumentation.end();
+        }
+
+        private void write(TimeBucket key, Context context) throws IOException, InterruptedException {
+            if (counts != null) {
+                counts[key.getDimension().ordinal()][key.getValue()]++;
+            } else {
+                context.write(key, one);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            if (counts != null) {
+                TimeBucket bucket = new TimeBucket();
+                IntWritable count = new IntWritable();
+                for (TimeBucket.Dimension dimension : DIMENSIONS) {
+                    for (int value = 0; value < dimension.size(); value++) {
+                        if (counts[dimension.ordinal()][value] > 0) {
+                            bucket.set(dimension, value);
+                            count.set(counts[dimension.ordinal()][value]);
+                            context.write(bucket, count);
+                        }
+                    }
                 }
             }
+            instrumentation.flush(context);
+        }
+    }
+
+    private static final TimeBucket.Dimension[] DIMENSIONS = TimeBucket.Dimension.values();
+
+    /**
+     * Extracts the time features (week day, month, day and hour) of an event
+     * time into the given keys.
+     *
+     * The time is scanned byte by byte with the same result as the regular
+     * expression <code>([A-Za-z]+) ([A-Za-z]+) (\d{2}) (\d{2}):\d{2}:\d{2} \d{4}</code>
+     * found in the time. The time is not recognized if the week day or the month
+     * is not an English abbreviation.
+     *
+     * @param bytes       the bytes containing the time of an event, e.g.
+     *                    "Sun Dec 04 04:47:44 2005"
+     * @param start       the start offset of the time in the bytes
+     * @param length      the length of the time in bytes
+     * @param timeWeekDay the key to be set to the week day feature
+     * @param timeMonth   the key to be set to the month feature
+     * @param timeDay     the key to be set to the day feature
+     * @param timeHour    the key to be set to the hour feature
+     * @return true if the time is recognized and the keys are set, false otherwise
+     */
+    static boolean extract(byte[] bytes, int start, int length, TimeBucket timeWeekDay, TimeBucket timeMonth,
+            TimeBucket timeDay, TimeBucket timeHour) {
+        int end = start + length;
+        for (int i = start; i < end; i++) {
+            // A match can only start at the beginning of a run of letters
+            if (!isLetter(bytes[i]) || (i > start && isLetter(bytes[i - 1]))) {
+                continue;
+            }
+            int weekDayEnd = skipLetters(bytes, i, end);
+            if (weekDayEnd >= end || bytes[weekDayEnd] != ' ') {
+                continue;
+            }
+            int monthStart = weekDayEnd + 1;
+            int monthEnd = skipLetters(bytes, monthStart, end);
+            int day = monthEnd + 1;
+            if (monthEnd == monthStart || day + 16 > end || bytes[monthEnd] != ' ' || !isDigits(bytes, day, 2)
+                    || bytes[day + 2] != ' ' || !isDigits(bytes, day + 3, 2) || bytes[day + 5] != ':'
+                    || !isDigits(bytes, day + 6, 2) || bytes[day + 8] != ':' || !isDigits(bytes, day + 9, 2)
+                    || bytes[day + 11] != ' ' || !isDigits(bytes, day + 12, 4)) {
+                continue;
+            }
+            int weekDay = TimeBucket.Dimension.WEEK_DAY.parse(bytes, i, weekDayEnd - i);
+            int month = TimeBucket.Dimension.MONTH.parse(bytes, monthStart, monthEnd - monthStart);
+            if (weekDay < 0 || month < 0) {
+                return false;
+            }
+            timeWeekDay.set(TimeBucket.Dimension.WEEK_DAY, weekDay);
+            timeMonth.set(TimeBucket.Dimension.MONTH, month);
+            timeDay.set(TimeBucket.Dimension.DAY, TimeBucket.Dimension.DAY.parse(bytes, day, 2));
+            timeHour.set(TimeBucket.Dimension.HOUR, TimeBucket.Dimension.HOUR.parse(bytes, day + 3, 2));
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+    }
+
+    private static int skipLetters(byte[] bytes, int i, int end) {
+        while (i < end && isLetter(bytes[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigits(byte[] bytes, int i, int n) {
+        for (int j = i; j < i + n; j++) {
+            if (bytes[j] < '0' || bytes[j] > '9') {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
@@ -82,15 +197,15 @@ public class TimeStatistic {
      * </p>
      * 
      * <p>
-     * Key: Text (the time information) Value: IntWritable (the count of the time
-     * information)
+     * Key: TimeBucket (the time information) Value: IntWritable (the count of the
+     * time information)
      * </p>
      */
-    private static class MyReducer extends Reducer<Text, IntWritable, Text, IntWritable> {
+    private static class MyReducer extends Reducer<TimeBucket, IntWritable, TimeBucket, IntWritable> {
         private IntWritable result = new IntWritable();
 
         @Override
-        public void reduce(Text key, Iterable<IntWritable> values, Context context)
+        public void reduce(TimeBucket key, Iterable<IntWritable> values, Context context)
                 throws IOException, InterruptedException {
             int sum = 0;
             for (IntWritable val : values) {
@@ -125,9 +240,9 @@ public class TimeStatistic {
         job.setMapperClass(MyMapper.class);
         job.setCombinerClass(MyCombiner.class);
         job.setReducerClass(MyReducer.class);
-        job.setOutputKeyClass(Text.class);
+        job.setOutputKeyClass(TimeBucket.class);
         job.setOutputValueClass(IntWritable.class);
-        FileInputFormat.addInputPath(job, input);
+        LogInputFormat.addInputPath(job, input);
         FileOutputFormat.setOutputPath(job, output);
         return job;
     }
@@ -0,0 +1,174 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * A Hadoop MapReduce to find the most frequent words in logs approximately, in
+ * bounded memory.
+ *
+ * The words are the same as in {@link WordCount}, but each mapper counts them
+ * in a {@link SpaceSaving} summary of a fixed number of counters, and writes
+ * only the summary. The summaries are merged by the combiner and the single
+ * reducer, which writes the top words. The memory and the shuffle size thus
+ * depend on the number of counters, not on the number of distinct words.
+ *
+ * Each output line is a word, its count and the error of the count, separated
+ * by tabs. The true count of the word is between the count minus the error and
+ * the count.
+ */
+public class TopWords {
+
+    /**
+     * The configuration key of the number of top words to write.
+     */
+    public static final String K_KEY = "analysis.topwords.k";
+
+    /**
+     * The configuration key of the number of counters of the summaries, 10 times
+     * the number of top words by default. More counters give smaller errors.
+     */
+    public static final String CAPACITY_KEY = "analysis.topwords.capacity";
+
+    public static final int DEFAULT_K = 100;
+
+    private static int capacity(Configuration conf) {
+        return conf.getInt(CAPACITY_KEY, 10 * conf.getInt(K_KEY, DEFAULT_K));
+    }
+
+    /**
+     * <p>
+     * MyMapper is a static inner class that extends the Mapper class. It counts
+     * the words of its split in a summary.
+     * </p>
+     *
+     * <p>
+     * The <code>map</code> method tokenizes each line with a
+     * {@link WordTokenizer} and counts the words in the summary. The
+     * <code>cleanup</code> method writes the summary.
+     * </p>
+     *
+     * <p>
+     * Output Key: NullWritable Output Value: SpaceSaving (the summary of the
+     * split)
+     * </p>
+     */
+    private static class MyMapper extends Mapper<Object, Text, NullWritable, SpaceSaving> {
+        private WordTokenizer tokenizer = new WordTokenizer();
+        private Text word = new Text();
+        private SpaceSaving summary;
+
+        @Override
+        public void setup(Context context) {
+            summary = new SpaceSaving(capacity(context.getConfiguration()));
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context) {
+            tokenizer.reset(value);
+            while (tokenizer.next(word)) {
+                summary.offer(word.getBytes(), 0, word.getLength(), 1);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            context.write(NullWritable.get(), summary);
+        }
+    }
+
+    /**
+     * A combiner class that merges the summaries of the map outputs of a mapper.
+     */
+    private static class MyCombiner extends Reducer<NullWritable, SpaceSaving, NullWritable, SpaceSaving> {
+        @Override
+        public void reduce(NullWritable key, Iterable<SpaceSaving> values, Context context)
+                throws IOException, InterruptedException {
+            context.write(key, merge(values, capacity(context.getConfiguration())));
+        }
+    }
+
+    /**
+     * <p>
+     * A Reducer class that merges the summaries of all mappers.
+     * </p>
+     *
+     * <p>
+     * The <code>reduce</code> method merges the summaries and writes the top
+     * words by decreasing count, each with its count and error.
+     * </p>
+     *
+     * <p>
+     * Output Key: Text (a word) Output Value: Text (the count and the error of
+     * the word)
+     * </p>
+     */
+    private static class MyReducer extends Reducer<NullWritable, SpaceSaving, Text, Text> {
+        private Text result = new Text();
+
+        @Override
+        public void reduce(NullWritable key, Iterable<SpaceSaving> values, Context context)
+                throws IOException, InterruptedException {
+            Configuration conf = context.getConfiguration();
+            SpaceSaving summary = merge(values, capacity(conf));
+            for (SpaceSaving.Counter counter : summary.top(conf.getInt(K_KEY, DEFAULT_K))) {
+                result.set(counter.getCount() + "\t" + counter.getError());
+                context.write(counter.getWord(), result);
+            }
+        }
+    }
+
+    /**
+     * Merges summaries, which are read into a reused object by Hadoop, into a
+     * new summary.
+     */
+    private static SpaceSaving merge(Iterable<SpaceSaving> values, int capacity) {
+        SpaceSaving merged = new SpaceSaving(capacity);
+        for (SpaceSaving value : values) {
+            merged.merge(value);
+        }
+        return merged;
+    }
+
+    /**
+     * Configures and returns a new Hadoop Job for finding the top words.
+     *
+     * @param conf   the Hadoop configuration to use for the job
+     * @param input  the input path for the job
+     * @param output the output path for the job
+     * @return a configured Job instance for the top words
+     */
+    public static Job getJob(Configuration conf, Path input, Path output) throws IOException {
+        Job job = new Job(conf, "top words");
+        job.setJarByClass(TopWords.class);
+        job.setMapperClass(MyMapper.class);
+        job.setCombinerClass(MyCombiner.class);
+        job.setReducerClass(MyReducer.class);
+        job.setNumReduceTasks(1);
+        job.setMapOutputKeyClass(NullWritable.class);
+        job.setMapOutputValueClass(SpaceSaving.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        LogInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: TopWords [-D " + K_KEY + "=<k>] [-D " + CAPACITY_KEY + "=<counters>] <in> <out>");
+            System.exit(2);
+        }
+        Job job = getJob(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
@@ -1,21 +1,54 @@
 import java.io.IOException;
-import java.util.StringTokenizer;
+import java.util.Arrays;
+
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.InputSampler;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 /**
  * A Hadoop MapReduce to count the number of each word in logs.
+ *
+ * If {@link #SORTED_KEY} is set, the words are written by descending count
+ * instead, across all the output files in order, so the top words are the
+ * first lines of the first file. The words are first counted by a counting job
+ * into {@link CountKey}s in a temporary path. The job returned by
+ * {@link #getJob(Configuration, Path, Path)} is a {@link ChainedJob} chained to
+ * the counting job, which sorts them with a
+ * {@link TotalOrderPartitioner}, whose partitions are split at a random sample
+ * of the keys taken by an {@link InputSampler}. The keys are the words with
+ * their counts, so the frequent words are a record each and the many words of
+ * the same low count are split between the reducers like any others: the
+ * reducers get about as many words whatever the skew of the logs.
  */
 public class WordCount {
 
+    /**
+     * The configuration key to write the words by descending count.
+     */
+    public static final String SORTED_KEY = "analysis.wordcount.sorted";
+
+    /**
+     * The configuration key of the number of keys sampled to split the
+     * partitions of the sorted words.
+     */
+    public static final String SAMPLES_KEY = "analysis.wordcount.samples";
+
+    public static final int DEFAULT_SAMPLES = 10000;
+
     /**
      * <p>
      * <code>MyMapper</code> is a <code>Mapper</code> class that extends the Hadoop
@@ -25,8 +58,20 @@ public class WordCount {
      * 
      * <p>
      * The <code>map</code> method takes an input key-value pair and tokenizes the
-     * value (which is a line of text). For each token (word) in the line, it writes
-     * the word and a count of one to the context.
+     * value (which is a line of text) with a {@link WordTokenizer} on its bytes.
+     * For each token (word) in the line, it writes the word and a count of one to
+     * the context.
+     * </p>
+     * 
+     * <p>
+     * If the in-mapper combining is enabled, the keys are counted locally by an
+     * {@link InMapperCombiner} and written with their counts instead.
+     * </p>
+     * 
+     * <p>
+     * The lines are not parsed into events, so the {@link Instrumentation} of the
+     * mapper only times the decoding of the lines and their tokenizing and
+     * emission.
      * </p>
      * 
      * <p>
@@ -42,19 +87,42 @@ public class WordCount {
      */
     private static class MyMapper extends Mapper<Object, Text, Text, IntWritable> {
         private final static IntWritable one = new IntWritable(1);
+        private WordTokenizer tokenizer = new WordTokenizer();
         private Text word = new Text();
+        private InMapperCombiner combiner;
+        private Instrumentation instrumentation;
+
+        @Override
+        public void setup(Context context) throws IOException, InterruptedException {
+            combiner = InMapperCombiner.get(context.getConfiguration());
+            instrumentation = new Instrumentation(context.getConfiguration());
+        }
 
         @Override
         public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-            StringTokenizer itr = new StringTokenizer(value.toString());
-            while (itr.hasMoreTokens()) {
-                String token = itr.nextToken();
-                token = token.replaceAll("^[\\pP]+|[\\pP]+$", "").toLowerCase(); // remove punctuations, to lowercase
-                if (token.isEmpty() || Character.isDigit(token.charAt(0))) // ignore empty strings and numbers
-                    continue;
-                word.set(token);
-                context.write(word, one);
+            instrumentation.start();
+            instrumentation.emit();
+            tokenizer.reset(value);
+            while (tokenizer.next(word)) {
+                write(word, context);
+            }
+            instrumentation.end();
+        }
+
+        private void write(Text key, Context context) throws IOException, InterruptedException {
+            if (combiner != null) {
+                combiner.write(key, context);
+            } else {
+                context.write(key, one);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            if (combiner != null) {
+                combiner.flush(context);
             }
+            instrumentation.flush(context);
         }
     }
 
@@ -94,6 +162,32 @@ public class WordCount {
         }
     }
 
+    /**
+     * <p>
+     * A Reducer class of the counting job of the sorted words, which sums up the
+     * counts of a word as {@link MyReducer} does.
+     * </p>
+     *
+     * <p>
+     * Output Key: CountKey (a word and its total count) Output Value:
+     * NullWritable
+     * </p>
+     */
+    private static class MyCountReducer extends Reducer<Text, IntWritable, CountKey, NullWritable> {
+        private CountKey result = new CountKey();
+
+        @Override
+        public void reduce(Text key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int sum = 0;
+            for (IntWritable val : values) {
+                sum += val.get();
+            }
+            result.set(key, sum);
+            context.write(result, NullWritable.get());
+        }
+    }
+
     /**
      * A combiner class that extends the {@link MyReducer} class.
      * 
@@ -105,7 +199,9 @@ public class WordCount {
     }
 
     /**
-     * Configures and returns a new Hadoop Job for counting words.
+     * Configures and returns a new Hadoop Job for counting words, or the job
+     * sorting the words, chained to the counting job, if {@link #SORTED_KEY} is
+     * set.
      *
      * @param conf   the Hadoop configuration to use for the job
      * @param input  the input path for the job
@@ -113,6 +209,9 @@ public class WordCount {
      * @return a configured Job instance for word counting
      */
     public static Job getJob(Configuration conf, Path input, Path output) throws IOException {
+        if (conf.getBoolean(SORTED_KEY, false)) {
+            return getSortJob(conf, input, output);
+        }
         Job job = new Job(conf, "word count");
         job.setJarByClass(WordCount.class);
         job.setMapperClass(MyMapper.class);
@@ -120,16 +219,100 @@ public class WordCount {
         job.setReducerClass(MyReducer.class);
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(IntWritable.class);
-        FileInputFormat.addInputPath(job, input);
+        LogInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    /**
+     * Returns the job sorting the counted words, chained to the counting job
+     * writing them into a temporary path next to the output path. The
+     * partitions of the sort job are sampled from the counted words once the
+     * counting job has succeeded, and the temporary path is deleted when the
+     * file system is closed, at the exit of the client.
+     */
+    private static Job getSortJob(final Configuration conf, Path input, Path output) throws IOException {
+        final Path counts = new Path(output.getParent(), "_" + output.getName() + "_counts");
+
+        Job count = new Job(conf, "word count");
+        count.setJarByClass(WordCount.class);
+        count.setMapperClass(MyMapper.class);
+        count.setCombinerClass(MyCombiner.class);
+        count.setReducerClass(MyCountReducer.class);
+        count.setMapOutputKeyClass(Text.class);
+        count.setMapOutputValueClass(IntWritable.class);
+        count.setOutputKeyClass(CountKey.class);
+        count.setOutputValueClass(NullWritable.class);
+        count.setOutputFormatClass(SequenceFileOutputFormat.class);
+        LogInputFormat.addInputPath(count, input);
+        FileOutputFormat.setOutputPath(count, new Path(counts, "words"));
+
+        Job job = new ChainedJob(conf, "word count sort", count, new ChainedJob.Preparation() {
+            @Override
+            public void prepare(Job job) throws IOException, InterruptedException {
+                try {
+                    if (job.getNumReduceTasks() > 1) {
+                        writePartitionFile(job, new Path(counts, "partitions"),
+                                conf.getInt(SAMPLES_KEY, DEFAULT_SAMPLES));
+                    }
+                } finally {
+                    counts.getFileSystem(conf).deleteOnExit(counts);
+                }
+            }
+        });
+        job.setJarByClass(WordCount.class);
+        job.setOutputKeyClass(CountKey.class);
+        job.setOutputValueClass(NullWritable.class);
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        FileInputFormat.addInputPath(job, new Path(counts, "words"));
         FileOutputFormat.setOutputPath(job, output);
         return job;
     }
 
+    /**
+     * Samples the counted words at random, and writes the keys splitting the
+     * sample into partitions of the same size as the partition file of the
+     * sort job. There are fewer partitions than reducers if there are fewer
+     * words sampled, and the number of reducers is reduced to the number of
+     * partitions, unlike {@link InputSampler#writePartitionFile(Job,
+     * InputSampler.Sampler)}, which fails on so few keys. The sample is sorted
+     * in the natural order of {@link CountKey}, the order of its raw comparator
+     * and thus of the sort job.
+     */
+    private static void writePartitionFile(Job job, Path partitions, int samples)
+            throws IOException, InterruptedException {
+        InputSampler.Sampler<Object, Object> sampler = new InputSampler.RandomSampler<Object, Object>(0.1, samples,
+                10);
+        Object[] keys = sampler.getSample(new SequenceFileInputFormat<Object, Object>(), job);
+        CountKey[] sample = new CountKey[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sample[i] = (CountKey) keys[i];
+        }
+        Arrays.sort(sample);
+        int reducers = Math.max(1, Math.min(job.getNumReduceTasks(), sample.length));
+        job.setNumReduceTasks(reducers);
+        if (reducers == 1) {
+            return;
+        }
+        FileSystem fs = partitions.getFileSystem(job.getConfiguration());
+        fs.delete(partitions, false);
+        try (SequenceFile.Writer writer = SequenceFile.createWriter(job.getConfiguration(),
+                SequenceFile.Writer.file(partitions), SequenceFile.Writer.keyClass(CountKey.class),
+                SequenceFile.Writer.valueClass(NullWritable.class))) {
+            for (int i = 1; i < reducers; i++) {
+                writer.append(sample[(int) ((long) sample.length * i / reducers)], NullWritable.get());
+            }
+        }
+        TotalOrderPartitioner.setPartitionFile(job.getConfiguration(), partitions);
+        job.setPartitionerClass(TotalOrderPartitioner.class);
+    }
+
     public static void main(String[] args) throws Exception {
         Configuration conf = new Configuration();
         String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
         if (otherArgs.length != 2) {
-            System.err.println("Usage: wordcount <in> <out>");
+            System.err.println(
+                    "Usage: wordcount [-D " + SORTED_KEY + "=true] [-D mapreduce.job.reduces=<n>] <in> <out>");
             System.exit(2);
         }
         Job job = getJob(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
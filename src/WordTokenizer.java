@@ -0,0 +1,132 @@
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * The WordTokenizer class splits a line into the words counted by
+ * {@link WordCount}.
+ *
+ * A line is split by white spaces into tokens. Punctuations at both ends of a
+ * token are removed and the token is converted to lowercase. Empty strings and
+ * numbers are ignored.
+ *
+ * The tokenizer walks the UTF-8 bytes of the line once and writes each word
+ * into a reused Text, lowercasing ASCII letters in place. Only a token with
+ * non-ASCII bytes is decoded and normalized by {@link #normalize(String)}, so
+ * the words are the same as tokenizing the decoded line with a
+ * <code>StringTokenizer</code>.
+ */
+public class WordTokenizer {
+    private static final boolean[] PUNCTUATION = new boolean[128];
+    private static final boolean[] DELIMITER = new boolean[128];
+
+    static {
+        // The ASCII characters in the Unicode category P, i.e. "\pP"
+        for (char c : "!\"#%&'()*,-./:;?@[\\]_{}".toCharArray()) {
+            PUNCTUATION[c] = true;
+        }
+        // The default delimiters of StringTokenizer
+        for (char c : " \t\n\r\f".toCharArray()) {
+            DELIMITER[c] = true;
+        }
+    }
+
+    private byte[] bytes;
+    private int position;
+    private int end;
+
+    /**
+     * Starts tokenizing a line.
+     *
+     * @param line the line to tokenize, which must not be modified until the
+     *             tokenizing is done
+     */
+    public void reset(Text line) {
+        bytes = line.getBytes();
+        position = 0;
+        end = line.getLength();
+    }
+
+    /**
+     * Finds the next word of the line.
+     *
+     * @param word the Text to be set to the word
+     * @return true if a word is found, false if there is no more word
+     */
+    public boolean next(Text word) {
+        while (position < end) {
+            while (position < end && isDelimiter(bytes[position])) {
+                position++;
+            }
+            int start = position;
+            boolean ascii = true;
+            while (position < end && !isDelimiter(bytes[position])) {
+                ascii &= bytes[position] >= 0;
+                position++;
+            }
+            if (start == position) {
+                break;
+            }
+            if (ascii ? normalize(start, position, word) : normalizeUnicode(start, position, word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Normalizes an ASCII token into a word.
+     */
+    private boolean normalize(int start, int end, Text word) {
+        while (start < end && PUNCTUATION[bytes[start]]) {
+            start++;
+        }
+        while (end > start && PUNCTUATION[bytes[end - 1]]) {
+            end--;
+        }
+        if (start == end || (bytes[start] >= '0' && bytes[start] <= '9')) {
+            return false;
+        }
+        word.set(bytes, start, end - start);
+        byte[] chars = word.getBytes();
+        for (int i = 0; i < end - start; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Normalizes a token with non-ASCII bytes into a word.
+     */
+    private boolean normalizeUnicode(int start, int end, Text word) {
+        String token = normalize(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+        if (token == null) {
+            return false;
+        }
+        word.set(token);
+        return true;
+    }
+
+    /**
+     * Normalizes a raw token into the word to be counted.
+     *
+     * Punctuations at both ends are removed and the token is converted to
+     * lowercase. Empty strings and numbers are ignored.
+     *
+     * @param token the raw token split from a line
+     * @return the normalized word, or <code>null</code> if the token should be
+     *         ignored
+     */
+    static String normalize(String token) {
+        token = token.replaceAll("^[\\pP]+|[\\pP]+$", "").toLowerCase(); // remove punctuations, to lowercase
+        if (token.isEmpty() || Character.isDigit(token.charAt(0))) // ignore empty strings and numbers
+            return null;
+        return token;
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return b >= 0 && DELIMITER[b];
+    }
+}